@@ -3,6 +3,7 @@ package com.example.safeinventory.mapper;
 import com.example.safeinventory.model.InventoryReservationLogModel;
 import org.apache.ibatis.annotations.*;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
@@ -11,13 +12,22 @@ public interface InventoryReservationLogMapper {
     InventoryReservationLogModel selectByRequestId(@Param("requestId") String requestId);
 
 
-    // 查找 5 mins 以前创建, 但是状态还未流转的记录
+    // 查找 createBefore 以前创建, 但是状态还未流转的记录, 按 id 分页
     List<InventoryReservationLogModel> selectPending(@Param("minId") long minId,
-                                                     @Param("status") int status);
+                                                     @Param("status") int status,
+                                                     @Param("createBefore") LocalDateTime createBefore,
+                                                     @Param("limit") int limit);
+
+
+    // 以数据库时间计算回查的截止创建时间, 避免应用与数据库时区不一致
+    LocalDateTime selectPendingDeadline(@Param("pendingSeconds") int pendingSeconds);
 
 
     int insertInventoryReservationLog(InventoryReservationLogModel inventoryReservationLogModel);
 
+    // 多行插入，一条 INSERT 写入整单的预扣流水
+    int batchInsertInventoryReservationLog(@Param("list") List<InventoryReservationLogModel> list);
+
     int updateStatus(String requestId, int status, int version);
 
 
@@ -27,4 +37,45 @@ public interface InventoryReservationLogMapper {
     int updateTryCount(String requestId, int version);
 
 
+    // 按 (request_id, version) 批量更新状态和尝试次数
+    int batchUpdateStatusAndTryCount(@Param("status") int status,
+                                     @Param("list") List<InventoryReservationLogModel> list);
+
+
+    // 按 (request_id, version) 批量更新尝试次数
+    int batchUpdateTryCount(@Param("list") List<InventoryReservationLogModel> list);
+
+
+    // 以数据库时间计算归档的截止创建时间
+    LocalDateTime selectArchiveDeadline(@Param("retentionDays") int retentionDays);
+
+
+    // 按主键顺序查找 createBefore 以前创建的流水，只返回 id、status、create_time
+    List<InventoryReservationLogModel> selectArchiveCandidates(@Param("minId") long minId,
+                                                               @Param("createBefore") LocalDateTime createBefore,
+                                                               @Param("limit") int limit);
+
+
+    // 当前库中已存在的归档表，按月份倒序
+    List<String> selectArchiveTables();
+
+
+    int createArchiveTable(@Param("tableName") String tableName);
+
+
+    // 把终态流水复制到归档表
+    int insertIntoArchive(@Param("tableName") String tableName,
+                          @Param("ids") List<Long> ids,
+                          @Param("statuses") List<Integer> statuses);
+
+
+    // 删除已归档的终态流水
+    int deleteArchived(@Param("ids") List<Long> ids,
+                       @Param("statuses") List<Integer> statuses);
+
+
+    InventoryReservationLogModel selectArchivedByRequestId(@Param("tableName") String tableName,
+                                                           @Param("requestId") String requestId);
+
+
 }
@@ -0,0 +1,40 @@
+package com.example.safeinventory.model;
+
+/**
+ * 批量预扣库存中的一行：商品及其预扣数量
+ */
+public class ReservationItem {
+    private Integer productId;
+    private Integer quantity;
+
+    public ReservationItem() {}
+
+    public ReservationItem(Integer productId, Integer quantity) {
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    @Override
+    public String toString() {
+        return "ReservationItem{" +
+                "productId=" + productId +
+                ", quantity=" + quantity +
+                '}';
+    }
+}
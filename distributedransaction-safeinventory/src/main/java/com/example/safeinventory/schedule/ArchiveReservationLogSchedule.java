@@ -0,0 +1,95 @@
+package com.example.safeinventory.schedule;
+
+import com.example.safeinventory.mapper.InventoryReservationLogMapper;
+import com.example.safeinventory.model.InventoryReservationLogModel;
+import com.example.safeinventory.service.InventoryReservationLogArchiveService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 归档超过保留期的终态预扣流水
+ * <p>
+ * 按主键顺序小批量扫描，每批按创建月份分组移入归档表，批次之间休眠限流，
+ * 每次执行的批次数有上限，避免归档挤占线上写入。PENDING 流水留给回查任务处理，不归档。
+ */
+//@EnableScheduling
+//@Component
+@Service
+public class ArchiveReservationLogSchedule {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveReservationLogSchedule.class);
+
+    @Value("${archive.retentionDays:30}")
+    private int retentionDays;
+
+    @Value("${archive.batchSize:500}")
+    private int batchSize;
+
+    @Value("${archive.batchIntervalMillis:200}")
+    private long batchIntervalMillis;
+
+    @Value("${archive.maxBatchesPerRun:1000}")
+    private int maxBatchesPerRun;
+
+    @Autowired
+    InventoryReservationLogMapper inventoryReservationLogMapper;
+
+    @Autowired
+    InventoryReservationLogArchiveService inventoryReservationLogArchiveService;
+
+    //@Scheduled(fixedDelay = 600000)
+    public void archiveScheduledTask() {
+        logger.info("archiveScheduledTask executed at: {}", new java.util.Date());
+        LocalDateTime createBefore = inventoryReservationLogMapper.selectArchiveDeadline(retentionDays);
+
+        long minId = 0;
+        int archived = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<InventoryReservationLogModel> candidates =
+                    inventoryReservationLogMapper.selectArchiveCandidates(minId, createBefore, batchSize);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            minId = candidates.get(candidates.size() - 1).getId();
+
+            // 同一批流水可能跨月，按月份分组写入不同的归档表
+            Map<LocalDateTime, List<Long>> idsByMonth = new TreeMap<>();
+            for (InventoryReservationLogModel m : candidates) {
+                if (InventoryReservationLogArchiveService.TERMINAL_STATUSES.contains(m.getStatus())) {
+                    LocalDateTime month = m.getCreateTime().toLocalDate().withDayOfMonth(1).atStartOfDay();
+                    idsByMonth.computeIfAbsent(month, k -> new ArrayList<>()).add(m.getId());
+                }
+            }
+            for (Map.Entry<LocalDateTime, List<Long>> entry : idsByMonth.entrySet()) {
+                try {
+                    // 建表在归档事务之外执行
+                    inventoryReservationLogArchiveService.ensureArchiveTable(entry.getKey());
+                    archived += inventoryReservationLogArchiveService.archiveBatch(entry.getKey(), entry.getValue());
+                } catch (Exception e) {
+                    logger.error("流水归档失败 month:{}, size:{}, error:{}", entry.getKey(), entry.getValue().size(), e);
+                }
+            }
+
+            if (candidates.size() < batchSize) {
+                break;
+            }
+            try {
+                Thread.sleep(batchIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        logger.info("archiveScheduledTask finish  at: {}, archived:{}", new java.util.Date(), archived);
+    }
+}
@@ -3,6 +3,8 @@ package com.example.safeinventory.schedule;
 import com.example.safeinventory.constants.ReservationStatus;
 import com.example.safeinventory.model.InventoryReservationLogModel;
 import com.example.safeinventory.mapper.InventoryReservationLogMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,11 +14,27 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回查长时间处于 PENDING 的预扣流水
+ * <p>
+ * 扫描按 id 做 keyset 分页，并组织成流水线：当前页在线程池中并行回查的同时，后台线程预取下一页；
+ * 每页回查完成后按目标状态分组，一组只发一条 UPDATE。
+ */
 //@EnableScheduling
 //@Component
 @Service
@@ -29,103 +47,204 @@ public class VerifyPendingReservedInventorySchedule {
 
     @Value("${verify.selectLimitCount:100}")
     private int verifySelectLimitCount;
-    ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            16,
-            32,
-            60L,
-            TimeUnit.SECONDS,
-            new LinkedBlockingQueue<>(500),
-            new ThreadPoolExecutor.AbortPolicy()
-    );
+
+    /**
+     * 创建超过该时长仍为 PENDING 的流水才回查
+     */
+    @Value("${verify.pendingSeconds:300}")
+    private int verifyPendingSeconds;
+
+    /**
+     * 并行回查的线程数
+     */
+    @Value("${verify.concurrency:16}")
+    private int verifyConcurrency;
+
+    ThreadPoolExecutor executor;
+
+    /**
+     * 预取下一页的单线程
+     */
+    private ExecutorService prefetchExecutor;
 
     @Autowired
     InventoryReservationLogMapper inventoryReservationLogMapper;
 
+    /**
+     * 累计回查的流水数
+     */
+    private final AtomicLong verifiedCount = new AtomicLong();
+
+    /**
+     * 累计成功更新的流水数
+     */
+    private final AtomicLong updatedCount = new AtomicLong();
+
+    /**
+     * 最近一次执行的耗时
+     */
+    private volatile long lastRunMillis;
+
+    /**
+     * 最近一次执行的吞吐，条/秒
+     */
+    private volatile long lastThroughput;
+
+    /**
+     * 最近一次执行时最早一条 PENDING 流水距今的时间
+     */
+    private volatile long lagMillis;
+
+    @PostConstruct
+    public void init() {
+        // 队列容量为一页，超出时由提交线程自己执行，形成背压
+        executor = new ThreadPoolExecutor(
+                verifyConcurrency,
+                verifyConcurrency,
+                60L,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(verifySelectLimitCount),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        prefetchExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+        prefetchExecutor.shutdown();
+    }
+
     //@Scheduled(fixedRate = 60000)
     public void verifyScheduledTask() {
         logger.info("verifyScheduledTask executed at: {}", new java.util.Date());
-        long minID = 0;
-        while (true) {
-            List<InventoryReservationLogModel> reservationLogModelList = inventoryReservationLogMapper.selectPending(minID,
-                    ReservationStatus.PENDING.getValue());
-            if (reservationLogModelList.size() == 0) {
-                logger.info("verifyScheduledTask finish  at: {}", new java.util.Date());
-                return;
-            }
-            for (InventoryReservationLogModel m : reservationLogModelList) {
-                minID = Math.max(minID, m.getId());
-                doVerify(m);
-                // executor.execute(new VerifyInventoryReservationLog(m));
-            }
-            if (reservationLogModelList.size() < verifySelectLimitCount) {
-                logger.info("verifyScheduledTask finish  at: {}", new java.util.Date());
-                return;
+        long startTime = System.currentTimeMillis();
+        long verified = 0;
+
+        // 截止时间在本次执行内固定，分页过程中不会因时间推移把新流水混入
+        LocalDateTime createBefore = inventoryReservationLogMapper.selectPendingDeadline(verifyPendingSeconds);
+        List<InventoryReservationLogModel> page = selectPending(0, createBefore);
+        if (!page.isEmpty()) {
+            lagMillis = Duration.between(page.get(0).getCreateTime(), LocalDateTime.now()).toMillis();
+        } else {
+            lagMillis = 0;
+        }
+
+        while (!page.isEmpty()) {
+            // 当前页不满说明已经是最后一页，否则在回查当前页的同时预取下一页
+            CompletableFuture<List<InventoryReservationLogModel>> nextPage;
+            if (page.size() < verifySelectLimitCount) {
+                nextPage = CompletableFuture.completedFuture(Collections.emptyList());
+            } else {
+                long minId = page.get(page.size() - 1).getId();
+                nextPage = CompletableFuture.supplyAsync(() -> selectPending(minId, createBefore), prefetchExecutor);
             }
+
+            verifyPage(page);
+            verified += page.size();
+            page = nextPage.join();
         }
 
+        lastRunMillis = System.currentTimeMillis() - startTime;
+        lastThroughput = lastRunMillis == 0 ? verified : verified * 1000 / lastRunMillis;
+        verifiedCount.addAndGet(verified);
+        logger.info("verifyScheduledTask finish  at: {}, verified:{}, costMillis:{}, throughput:{}/s, lagMillis:{}",
+                new java.util.Date(), verified, lastRunMillis, lastThroughput, lagMillis);
+    }
+
+    private List<InventoryReservationLogModel> selectPending(long minId, LocalDateTime createBefore) {
+        return inventoryReservationLogMapper.selectPending(minId,
+                ReservationStatus.PENDING.getValue(), createBefore, verifySelectLimitCount);
     }
 
+    /**
+     * 并行回查一页流水，全部完成后按目标状态批量更新
+     */
+    private void verifyPage(List<InventoryReservationLogModel> page) {
+        List<CompletableFuture<ReservationStatus>> futures = new ArrayList<>(page.size());
+        for (InventoryReservationLogModel m : page) {
+            futures.add(CompletableFuture.supplyAsync(() -> doVerify(m), executor));
+        }
+
+        Map<ReservationStatus, List<InventoryReservationLogModel>> groups = new EnumMap<>(ReservationStatus.class);
+        for (int i = 0; i < page.size(); i++) {
+            ReservationStatus target = futures.get(i).join();
+            if (target != null) {
+                groups.computeIfAbsent(target, k -> new ArrayList<>()).add(page.get(i));
+            }
+        }
 
-    public void doVerify(InventoryReservationLogModel m) {
+        for (Map.Entry<ReservationStatus, List<InventoryReservationLogModel>> entry : groups.entrySet()) {
+            List<InventoryReservationLogModel> models = entry.getValue();
+            int updated;
+            if (entry.getKey() == ReservationStatus.PENDING) {
+                updated = inventoryReservationLogMapper.batchUpdateTryCount(models);
+            } else {
+                updated = inventoryReservationLogMapper.batchUpdateStatusAndTryCount(
+                        entry.getKey().getValue(), models);
+            }
+            updatedCount.addAndGet(updated);
+            if (updated != models.size()) {
+                // 版本号不一致的流水已被其他流程修改，下次扫描会重新判断
+                logger.warn("流水批量更新部分未生效 status:{}, expected:{}, updated:{}",
+                        entry.getKey(), models.size(), updated);
+            }
+        }
+    }
+
+    /**
+     * 回查单条流水
+     *
+     * @return 流水需要流转到的状态，PENDING 表示状态不变仅增加重试次数，null 表示本次不做更新
+     */
+    public ReservationStatus doVerify(InventoryReservationLogModel m) {
         // 防止之前状态修改有遗漏
         if (m.getVerifyTryCount() >= verifyMaxTryCount) {
-            inventoryReservationLogMapper.updateStatusAndTryCount(
-                    m.getRequestId(),
-                    ReservationStatus.UNKNOWN.getValue(),
-                    m.getVersion());
             logger.error("流水状态查询 重试已达最大次数，request:{}", m.getRequestId());
-            return;
+            return ReservationStatus.UNKNOWN;
         }
         try {
             // todo 根据requestId 到业务表中查询对应结果,  判断流水状态并更新
             int status = 2;
             switch (ReservationStatus.valueOf(status)) {
                 case CONFIRMED:
-                    inventoryReservationLogMapper.updateStatusAndTryCount(
-                            m.getRequestId(),
-                            ReservationStatus.CONFIRMED.getValue(),
-                            m.getVersion());
-
-                    break;
+                    return ReservationStatus.CONFIRMED;
                 case ROLLBACK:
                     // 直接修改状态, 等待消息发送定时任务将消息发送至下游
-                    inventoryReservationLogMapper.updateStatusAndTryCount(
-                            m.getRequestId(),
-                            ReservationStatus.ROLLBACK.getValue(),
-                            m.getVersion());
-                    break;
+                    return ReservationStatus.ROLLBACK;
                 default:
                     // 此次重试后达到重试最大次数后，不再重试，直接修改状态为rollback, 并且标识次rollback 状态是最终重试失败后造成的
                     if (m.getVerifyTryCount() == verifyMaxTryCount) {
                         //配置告警机制，进行告警
                         logger.error("doVerify maxTime, requestId:{}", m.getRequestId());
-                        inventoryReservationLogMapper.updateStatusAndTryCount(
-                                m.getRequestId(),
-                                ReservationStatus.UNKNOWN.getValue(),
-                                m.getVersion());
-                    } else {
-                        inventoryReservationLogMapper.updateTryCount(
-                                m.getRequestId(),
-                                m.getVersion());
+                        return ReservationStatus.UNKNOWN;
                     }
-                    break;
+                    return ReservationStatus.PENDING;
             }
         } catch (Exception e) {
             logger.error("verifyScheduledTask doVerify error, requestId:{}, error:{}", m.getRequestId(), e);
+            return null;
         }
     }
 
-    class VerifyInventoryReservationLog implements Runnable {
-        private InventoryReservationLogModel m;
+    public long getVerifiedCount() {
+        return verifiedCount.get();
+    }
 
-        public VerifyInventoryReservationLog(InventoryReservationLogModel m) {
-            this.m = m;
-        }
+    public long getUpdatedCount() {
+        return updatedCount.get();
+    }
 
-        @Override
-        public void run() {
-            doVerify(m);
-        }
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    public long getLastThroughput() {
+        return lastThroughput;
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
     }
 
 }
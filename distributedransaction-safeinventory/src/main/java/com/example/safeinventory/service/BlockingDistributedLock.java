@@ -0,0 +1,260 @@
+package com.example.safeinventory.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 可等待的分布式锁
+ * <p>
+ * acquireLock 只尝试一次 SETNX，失败后调用方只能直接拒绝或在外部反复重试。tryAcquire 获取失败时在本地等待，
+ * releaseLock 释放锁后在 lock:released 频道发布锁的 key，等待者收到通知才重新尝试，而不是轮询 Redis。
+ * 持有者崩溃时锁靠过期释放、没有通知，所以每次最多等待 wakeupFallbackMillis 后也会重新尝试一次。
+ * <p>
+ * 等待者登记在 {lockKey}:queue 有序集合中，按到达时间排序，集合长度达到 maxQueueLength 时新的请求直接失败，
+ * 锁等待时间有上限而不是无限堆积。fair 为 true 时只有队首的等待者能获取空闲的锁（先到先得）。
+ * 等待者的等待截止时间记录在 {lockKey}:queue:timeout，超过截止时间仍未离开的（实例崩溃）在下一次尝试时清理。
+ */
+@Component
+public class BlockingDistributedLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockingDistributedLock.class);
+
+    private static final long RESUBSCRIBE_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 登记的截止时间比等待时间多留的余量，单位毫秒
+     */
+    private static final long QUEUE_GRACE_MILLIS = 1000;
+
+    private static final long ACQUIRED = 1;
+
+    private static final long QUEUE_FULL = -1;
+
+    /**
+     * 尝试获取锁，失败时登记为等待者
+     * KEYS[1]: 锁, KEYS[2]: 等待队列, KEYS[3]: 等待截止时间
+     * ARGV[1]: 锁的值, ARGV[2]: 过期时间(秒), ARGV[3]: 是否公平, ARGV[4]: 队列长度上限, ARGV[5]: 等待截止时间(毫秒)
+     * 返回 1 获取成功，0 已登记等待，-1 队列已满
+     */
+    private static final String ACQUIRE_SCRIPT =
+            "local time = redis.call('time') " +
+                    "local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) " +
+                    "local expired = redis.call('zrangebyscore', KEYS[3], '-inf', now) " +
+                    "for i = 1, #expired do redis.call('zrem', KEYS[2], expired[i]) end " +
+                    "redis.call('zremrangebyscore', KEYS[3], '-inf', now) " +
+                    "if redis.call('exists', KEYS[1]) == 0 then " +
+                    "    local head = redis.call('zrange', KEYS[2], 0, 0)[1] " +
+                    "    if ARGV[3] == '0' or head == nil or head == ARGV[1] then " +
+                    "        redis.call('set', KEYS[1], ARGV[1], 'EX', ARGV[2]) " +
+                    "        redis.call('zrem', KEYS[2], ARGV[1]) " +
+                    "        redis.call('zrem', KEYS[3], ARGV[1]) " +
+                    "        return 1 " +
+                    "    end " +
+                    "end " +
+                    "if redis.call('zscore', KEYS[2], ARGV[1]) == false then " +
+                    "    if redis.call('zcard', KEYS[2]) >= tonumber(ARGV[4]) then return -1 end " +
+                    "    redis.call('zadd', KEYS[2], now, ARGV[1]) " +
+                    "end " +
+                    "redis.call('zadd', KEYS[3], now + tonumber(ARGV[5]), ARGV[1]) " +
+                    "return 0";
+
+    /**
+     * 放弃等待，锁空闲时通知其他等待者（公平模式下队首可能正是自己）
+     * KEYS[1]: 锁, KEYS[2]: 等待队列, KEYS[3]: 等待截止时间, ARGV[1]: 锁的值
+     */
+    private static final String LEAVE_SCRIPT =
+            "redis.call('zrem', KEYS[2], ARGV[1]) " +
+                    "redis.call('zrem', KEYS[3], ARGV[1]) " +
+                    "if redis.call('exists', KEYS[1]) == 0 then " +
+                    "    redis.call('publish', '" + RedisDistributedLock.RELEASED_CHANNEL + "', KEYS[1]) " +
+                    "end " +
+                    "return 1";
+
+    @Autowired
+    private RedisDistributedLock redisDistributedLock;
+
+    @Value("${lock.fair:false}")
+    private boolean fair;
+
+    @Value("${lock.maxQueueLength:1000}")
+    private int maxQueueLength;
+
+    /**
+     * 没有收到释放通知时，两次尝试之间的最长间隔，单位毫秒
+     */
+    @Value("${lock.wakeupFallbackMillis:200}")
+    private long wakeupFallbackMillis;
+
+    /**
+     * 有本地线程等待的 key -> 唤醒信号
+     */
+    private final Map<String, Signal> signals = new ConcurrentHashMap<>();
+
+    private final JedisPubSub subscriber = new JedisPubSub() {
+        @Override
+        public void onMessage(String channel, String message) {
+            Signal signal = signals.get(message);
+            if (signal != null) {
+                signal.signalAll();
+            }
+        }
+    };
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        Thread subscribeThread = new Thread(this::subscribeLoop, "lock-release-subscriber");
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * 获取锁，最多等待 timeoutMillis，释放仍使用 RedisDistributedLock.releaseLock
+     *
+     * @param expireTime 锁的过期时间，单位秒
+     * @return true 获取成功；false 等待超时、等待队列已满或线程被中断
+     */
+    public boolean tryAcquire(String lockKey, String lockValue, long expireTime, long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            return redisDistributedLock.acquireLock(lockKey, lockValue, expireTime);
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        Signal signal = signals.compute(lockKey, (k, s) -> {
+            if (s == null) {
+                s = new Signal();
+            }
+            s.waiters++;
+            return s;
+        });
+        try {
+            while (true) {
+                // 先记下信号的版本再尝试，尝试失败后到等待开始之间的释放通知不会丢失
+                long generation = signal.generation();
+                long remaining = deadline - System.currentTimeMillis();
+                long result = attempt(lockKey, lockValue, expireTime, Math.max(remaining, 0));
+                if (result == ACQUIRED) {
+                    return true;
+                }
+                if (result == QUEUE_FULL) {
+                    logger.info("锁等待队列已满 key:{}, maxQueueLength:{}", lockKey, maxQueueLength);
+                    return false;
+                }
+                if (remaining <= 0) {
+                    logger.info("等待锁超时 key:{}, timeoutMillis:{}", lockKey, timeoutMillis);
+                    leave(lockKey, lockValue);
+                    return false;
+                }
+                try {
+                    signal.await(generation, Math.min(remaining, wakeupFallbackMillis));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    leave(lockKey, lockValue);
+                    return false;
+                }
+            }
+        } finally {
+            signals.computeIfPresent(lockKey, (k, s) -> --s.waiters == 0 ? null : s);
+        }
+    }
+
+    private long attempt(String lockKey, String lockValue, long expireTime, long remainingMillis) {
+        Object result = redisDistributedLock.evalScript(ACQUIRE_SCRIPT,
+                Arrays.asList(lockKey, queueKey(lockKey), timeoutKey(lockKey)),
+                Arrays.asList(lockValue,
+                        String.valueOf(expireTime),
+                        fair ? "1" : "0",
+                        String.valueOf(maxQueueLength),
+                        String.valueOf(remainingMillis + QUEUE_GRACE_MILLIS)));
+        return (long) result;
+    }
+
+    private void leave(String lockKey, String lockValue) {
+        try {
+            redisDistributedLock.evalScript(LEAVE_SCRIPT,
+                    Arrays.asList(lockKey, queueKey(lockKey), timeoutKey(lockKey)),
+                    Arrays.asList(lockValue));
+        } catch (Exception e) {
+            // 登记会在截止时间后被清理
+            logger.warn("退出锁等待队列失败 key:{}, error:{}", lockKey, e.getMessage());
+        }
+    }
+
+    private static String queueKey(String lockKey) {
+        return lockKey + ":queue";
+    }
+
+    private static String timeoutKey(String lockKey) {
+        return lockKey + ":queue:timeout";
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try {
+                redisDistributedLock.subscribe(subscriber, RedisDistributedLock.RELEASED_CHANNEL);
+            } catch (Exception e) {
+                logger.warn("锁释放通知订阅断开，稍后重试 error:{}", e.getMessage());
+            }
+            if (!running) {
+                return;
+            }
+            // 断线期间可能错过释放通知，唤醒所有等待者重新尝试
+            signals.values().forEach(Signal::signalAll);
+            try {
+                Thread.sleep(RESUBSCRIBE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 单个 key 的唤醒信号，每次释放通知使版本号加一
+     */
+    private static class Signal {
+        /**
+         * 等待该 key 的本地线程数，只在 signals.compute 中修改
+         */
+        private int waiters;
+
+        private long generation;
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void signalAll() {
+            generation++;
+            notifyAll();
+        }
+
+        synchronized void await(long seenGeneration, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (generation == seenGeneration && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+    }
+}
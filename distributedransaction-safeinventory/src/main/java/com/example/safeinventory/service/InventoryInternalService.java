@@ -1,16 +1,21 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.constants.BusinessException;
 import com.example.safeinventory.constants.ReservationStatus;
 import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.mapper.InventoryReservationLogMapper;
 import com.example.safeinventory.model.InventoryModel;
 import com.example.safeinventory.model.InventoryReservationLogModel;
+import com.example.safeinventory.model.ReservationItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 @Service
 public class InventoryInternalService {
@@ -23,6 +28,9 @@ public class InventoryInternalService {
     @Autowired
     InventoryReservationLogMapper inventoryReservationLogMapper;
 
+    @Autowired
+    InventoryReservationLogArchiveService inventoryReservationLogArchiveService;
+
 
     // TCC-try
     @Transactional
@@ -53,6 +61,38 @@ public class InventoryInternalService {
     }
 
 
+    /**
+     * TCC-try 批量版本，整单在一个事务中预扣，任意一行库存不足则整单回滚
+     * items 需已按 productId 排序且无重复商品，库存行按相同顺序加锁，避免并发批量请求之间死锁
+     * 每行流水的 request_id 为 requestId_productId，后续按行 confirm/cancel
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public boolean reserveInventoryBatch(String requestId, List<ReservationItem> items) {
+        List<InventoryReservationLogModel> logs = new ArrayList<>(items.size());
+        for (ReservationItem item : items) {
+            InventoryReservationLogModel model = new InventoryReservationLogModel();
+            model.setProductId(item.getProductId());
+            model.setReservationQuantity(item.getQuantity());
+            model.setRequestId(InventoryService.buildItemRequestId(requestId, item.getProductId()));
+            model.setStatus(ReservationStatus.PENDING.getValue());
+            logs.add(model);
+        }
+        //  流水表一次插入
+        inventoryReservationLogMapper.batchInsertInventoryReservationLog(logs);
+
+        // 库存扣减，条件更新保证不超卖
+        for (ReservationItem item : items) {
+            int updatedRows = inventoryMapper.reserveStockByCheckingStock(
+                    item.getProductId(), item.getQuantity(), item.getQuantity());
+            if (updatedRows == 0) {
+                logger.warn("库存不足，整单回滚 productId: {}, quantity: {}, requestId:{}",
+                        item.getProductId(), item.getQuantity(), requestId);
+                throw new BusinessException("库存不足，整单回滚");
+            }
+        }
+        return true;
+    }
+
     // TCC-confirm
     @Transactional
     public boolean confirmReservedInventory(Integer productId, String requestId, Integer version ,Integer reservationQuantity) {
@@ -81,7 +121,11 @@ public class InventoryInternalService {
     @Transactional
     public boolean rollbackReservedInventory(Integer productId, String requestId) {
 
-        InventoryReservationLogModel model = inventoryReservationLogMapper.selectByRequestId(requestId);
+        InventoryReservationLogModel model = inventoryReservationLogArchiveService.selectByRequestId(requestId);
+        if (model == null) {
+            logger.warn("rollbackReservedInventory log not found ,can not rollback the reserved stock, requestId:{}", requestId);
+            return false;
+        }
         if (model.getStatus() != ReservationStatus.PENDING.getValue()) {
             logger.warn("rollbackReservedInventory is not pending ,can not rollback the reserved stock");
             return false;
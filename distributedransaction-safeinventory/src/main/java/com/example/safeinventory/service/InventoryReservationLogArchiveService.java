@@ -0,0 +1,139 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.constants.ReservationStatus;
+import com.example.safeinventory.mapper.InventoryReservationLogMapper;
+import com.example.safeinventory.model.InventoryReservationLogModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 预扣流水归档
+ * <p>
+ * 终态（CONFIRMED/ROLLBACK/UNKNOWN）流水按创建月份移入 inventory_reservation_log_archive_yyyyMM，
+ * 主表只保留 PENDING 和保留期内的流水；按 requestId 查询时主表未命中才查归档表，
+ * 只查保留期截止月份及之前 lookupMonths 个月的归档表，更早的请求不再参与确认和回滚。
+ * <p>
+ * 归档表由调度任务在事务之外通过 ensureArchiveTable 提前创建，CREATE TABLE 会隐式提交，不能在归档事务中执行。
+ */
+@Service
+public class InventoryReservationLogArchiveService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryReservationLogArchiveService.class);
+
+    private static final String ARCHIVE_TABLE_PREFIX = "inventory_reservation_log_archive_";
+
+    private static final DateTimeFormatter ARCHIVE_MONTH_FORMATTER = DateTimeFormatter.ofPattern("yyyyMM");
+
+    /**
+     * 可以归档的终态
+     */
+    public static final List<Integer> TERMINAL_STATUSES = Arrays.asList(
+            ReservationStatus.CONFIRMED.getValue(),
+            ReservationStatus.ROLLBACK.getValue(),
+            ReservationStatus.UNKNOWN.getValue());
+
+    @Autowired
+    InventoryReservationLogMapper inventoryReservationLogMapper;
+
+    @Value("${archive.tableCacheMillis:60000}")
+    private long tableCacheMillis;
+
+    @Value("${archive.retentionDays:30}")
+    private int retentionDays;
+
+    /**
+     * 主表未命中时向前查找的归档月份数，不含保留期截止月份本身
+     */
+    @Value("${archive.lookupMonths:2}")
+    private int lookupMonths;
+
+    /**
+     * 已存在的归档表，按月份倒序，其他实例可能新建归档表，因此定期刷新
+     */
+    private volatile List<String> archiveTables = Collections.emptyList();
+
+    private volatile long archiveTablesLoadTime;
+
+    /**
+     * 根据 requestId 查询流水，主表未命中时从最近的归档表开始查找
+     * 流水创建满 retentionDays 天才会归档，最近的归档表就是保留期截止时间所在的月份，向前最多再查 lookupMonths 个月
+     *
+     * @return 未找到或超出查找范围时返回 null
+     */
+    public InventoryReservationLogModel selectByRequestId(String requestId) {
+        InventoryReservationLogModel model = inventoryReservationLogMapper.selectByRequestId(requestId);
+        if (model != null) {
+            return model;
+        }
+        String earliest = archiveTableName(LocalDateTime.now().minusDays(retentionDays).minusMonths(lookupMonths));
+        for (String tableName : getArchiveTables()) {
+            // 表名按月份倒序，月份编码定长，可以直接按字符串比较
+            if (tableName.compareTo(earliest) < 0) {
+                break;
+            }
+            model = inventoryReservationLogMapper.selectArchivedByRequestId(tableName, requestId);
+            if (model != null) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 把同一个月创建的一批流水移入归档表，复制和删除在同一个事务中
+     * 只处理终态流水，且终态不会再变化，因此不需要版本号校验；归档表需要事先由 ensureArchiveTable 创建
+     *
+     * @return 归档的行数
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public int archiveBatch(LocalDateTime month, List<Long> ids) {
+        String tableName = archiveTableName(month);
+        if (!getArchiveTables().contains(tableName)) {
+            throw new IllegalStateException("归档表不存在 table:" + tableName);
+        }
+
+        inventoryReservationLogMapper.insertIntoArchive(tableName, ids, TERMINAL_STATUSES);
+        int deleted = inventoryReservationLogMapper.deleteArchived(ids, TERMINAL_STATUSES);
+        logger.info("流水归档 table:{}, size:{}, deleted:{}", tableName, ids.size(), deleted);
+        return deleted;
+    }
+
+    /**
+     * 创建月份对应的归档表，必须在事务之外调用：CREATE TABLE 会隐式提交当前事务
+     * IF NOT EXISTS 保证多实例并发创建安全
+     */
+    public void ensureArchiveTable(LocalDateTime month) {
+        String tableName = archiveTableName(month);
+        if (getArchiveTables().contains(tableName)) {
+            return;
+        }
+        inventoryReservationLogMapper.createArchiveTable(tableName);
+        reloadArchiveTables();
+    }
+
+    private static String archiveTableName(LocalDateTime month) {
+        return ARCHIVE_TABLE_PREFIX + month.format(ARCHIVE_MONTH_FORMATTER);
+    }
+
+    private List<String> getArchiveTables() {
+        if (System.currentTimeMillis() - archiveTablesLoadTime > tableCacheMillis) {
+            reloadArchiveTables();
+        }
+        return archiveTables;
+    }
+
+    private void reloadArchiveTables() {
+        archiveTables = inventoryReservationLogMapper.selectArchiveTables();
+        archiveTablesLoadTime = System.currentTimeMillis();
+    }
+}
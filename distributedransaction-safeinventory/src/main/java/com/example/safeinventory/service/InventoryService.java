@@ -1,15 +1,22 @@
 package com.example.safeinventory.service;
 
 
+import com.example.safeinventory.constants.BusinessException;
 import com.example.safeinventory.constants.ReservationStatus;
 import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.mapper.InventoryReservationLogMapper;
 import com.example.safeinventory.model.InventoryReservationLogModel;
+import com.example.safeinventory.model.ReservationItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 @Service
 public class InventoryService {
 
@@ -23,12 +30,18 @@ public class InventoryService {
     @Autowired
     InventoryReservationLogMapper inventoryReservationLogMapper;
 
+    @Autowired
+    InventoryReservationLogArchiveService inventoryReservationLogArchiveService;
+
     @Autowired
     RedisDistributedLock redisDistributedLock;
 
     @Autowired
     InventoryInternalService inventoryInternalService;
 
+    @Autowired
+    TwoLevelDistributedLock twoLevelDistributedLock;
+
     private static final int EXPIRE_TIME = 5 * 60;
 
     private static final String LOCK_KEY_PREFIX = "product_lock:";
@@ -36,8 +49,8 @@ public class InventoryService {
     // TCC-try, 该步骤需要考虑并发，控制超卖问题，解决方案与本地事务中一直，这里以分布式锁方案为例
     public boolean reserveInventory(Integer productId, Integer quantity, String requestId) {
         String lockKey = LOCK_KEY_PREFIX + productId;
-        // 模拟获取redis 分布式锁逻辑
-        boolean lockAcquired = redisDistributedLock.acquireLock(lockKey, requestId, EXPIRE_TIME);
+        // 同一实例内的请求先在本地锁上排队，Redis 锁在本地等待者之间交接
+        boolean lockAcquired = twoLevelDistributedLock.tryLock(lockKey, EXPIRE_TIME);
         if (!lockAcquired) {
             logger.info("未获取到锁 productId: {}, quantity: {}, requestId:{}", productId, quantity, requestId);
             // 获取锁失败，返回或重试
@@ -46,16 +59,57 @@ public class InventoryService {
         try {
             return inventoryInternalService.reserveInventory(productId, quantity, requestId);
         } finally {
-            // 如果释放失败则重试或者等待过期
-            if (lockAcquired) {
-                redisDistributedLock.releaseLock(lockKey, requestId);
-            }
+            twoLevelDistributedLock.unlock(lockKey);
+        }
+    }
+
+    /**
+     * TCC-try 批量版本，一个购物车只需一次加锁往返和一次提交，全部成功或全部失败
+     * 同一商品的多行会先合并，锁和库存行都按 productId 升序获取
+     *
+     * @return true 整单预扣成功；false 加锁失败或任意一行库存不足
+     */
+    public boolean reserveInventoryBatch(String requestId, List<ReservationItem> items) {
+        Map<Integer, Integer> merged = new TreeMap<>();
+        for (ReservationItem item : items) {
+            merged.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        List<ReservationItem> sortedItems = new ArrayList<>(merged.size());
+        List<String> lockKeys = new ArrayList<>(merged.size());
+        for (Map.Entry<Integer, Integer> entry : merged.entrySet()) {
+            sortedItems.add(new ReservationItem(entry.getKey(), entry.getValue()));
+            lockKeys.add(LOCK_KEY_PREFIX + entry.getKey());
+        }
+
+        boolean lockAcquired = redisDistributedLock.acquireLocks(lockKeys, requestId, EXPIRE_TIME);
+        if (!lockAcquired) {
+            logger.info("未获取到锁 items: {}, requestId:{}", sortedItems, requestId);
+            return false;
+        }
+        try {
+            return inventoryInternalService.reserveInventoryBatch(requestId, sortedItems);
+        } catch (BusinessException e) {
+            logger.warn("批量预扣失败 items: {}, requestId:{}, error:{}", sortedItems, requestId, e.getMessage());
+            return false;
+        } finally {
+            redisDistributedLock.releaseLocks(lockKeys, requestId);
         }
     }
 
+    /**
+     * 批量预扣中每一行流水的 request_id
+     */
+    public static String buildItemRequestId(String requestId, Integer productId) {
+        return requestId + "_" + productId;
+    }
+
     // TCC-confirm
     public boolean confirmReservedInventory(Integer productId, String requestId) {
-        InventoryReservationLogModel model = inventoryReservationLogMapper.selectByRequestId(requestId);
+        InventoryReservationLogModel model = inventoryReservationLogArchiveService.selectByRequestId(requestId);
+        if (model == null) {
+            logger.warn("reservation log not found ,can not confirm the reserved stock, requestId:{}", requestId);
+            return false;
+        }
         if (model.getStatus() != ReservationStatus.PENDING.getValue()) {
             logger.warn("status is not pending ,can not confirm the reserved stock, requestId:{}", requestId);
             return false;
@@ -76,7 +130,11 @@ public class InventoryService {
      */
 
     public boolean confirmReservedInventoryWithBusinessLogic(Integer productId, String requestId) {
-        InventoryReservationLogModel model = inventoryReservationLogMapper.selectByRequestId(requestId);
+        InventoryReservationLogModel model = inventoryReservationLogArchiveService.selectByRequestId(requestId);
+        if (model == null) {
+            logger.warn("reservation log not found ,can not confirm the reserved stock, requestId:{}", requestId);
+            return false;
+        }
         if (model.getStatus() != ReservationStatus.PENDING.getValue()) {
             logger.warn("status is not pending ,can not confirm the reserved stock, requestId:{}", requestId);
             return false;
@@ -3,14 +3,17 @@ package com.example.safeinventory.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 @Service
@@ -18,20 +21,16 @@ public class RedisDistributedLock {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisDistributedLock.class);
 
-    @Value("${spring.data.redis.host:localhost}")
-    private String redisHost;
-
-    @Value("${spring.data.redis.port:6379}")
-    private int redisPort;
-
-    private Jedis jedis;
-
+    /**
+     * 锁释放通知频道，消息内容为锁的 key，见 BlockingDistributedLock
+     */
+    public static final String RELEASED_CHANNEL = "lock:released";
 
-    // 构造函数初始化 Jedis 连接
-    public RedisDistributedLock() {
-        // 在构造函数中初始化 Jedis
-        this.jedis = new Jedis("localhost", 6379);
-    }
+    /**
+     * 连接池客户端，线程安全，每次调用从池中借出连接，见 RedisConfig
+     */
+    @Autowired
+    private JedisPooled jedis;
 
     /**
      * 尝试获取锁
@@ -75,17 +74,18 @@ public class RedisDistributedLock {
         try {
             logger.info("releaseLock，key:{}， value:{}", lockKey, lockValue);
 
-            // Lua 脚本，保证原子性：只有持有锁的客户端才能释放锁
+            // Lua 脚本，保证原子性：只有持有锁的客户端才能释放锁，释放后通知等待者
             String luaScript =
                     "if redis.call('get', KEYS[1]) == false then " +
                             "    return 1 " +
                             "elseif redis.call('get', KEYS[1]) == ARGV[1] then " +
-                            "    return redis.call('del', KEYS[1]) " +
+                            "    redis.call('del', KEYS[1]) " +
+                            "    redis.call('publish', '" + RELEASED_CHANNEL + "', KEYS[1]) " +
+                            "    return 1 " +
                             "else " +
                             "    return 2 " +
                             "end";
 
-
             List<String> keys = Collections.singletonList(lockKey);
             List<String> values = Collections.singletonList(lockValue);
 
@@ -98,6 +98,55 @@ public class RedisDistributedLock {
         }
     }
 
+    /**
+     * 一次性获取多把锁，要么全部获取成功，要么一把都不持有
+     * 调用方需保证 lockKeys 按固定顺序排列，避免不同请求交叉持有导致互相等待
+     *
+     * @return true 如果全部获取成功
+     */
+    public boolean acquireLocks(List<String> lockKeys, String lockValue, long expireTime) {
+        try {
+            logger.info("acquireLocks，keys:{}， value:{}, expireTime:{}", lockKeys, lockValue, expireTime);
+
+            // Lua 脚本，先检查所有 key 均未被占用，再统一加锁
+            String luaScript = "for i = 1, #KEYS do " +
+                    "    if redis.call('exists', KEYS[i]) == 1 then return 0 end " +
+                    "end " +
+                    "for i = 1, #KEYS do " +
+                    "    redis.call('set', KEYS[i], ARGV[1], 'EX', ARGV[2]) " +
+                    "end " +
+                    "return 1";
+
+            Object result = jedis.eval(luaScript, lockKeys, Arrays.asList(lockValue, String.valueOf(expireTime)));
+            return result.equals(1L);
+        } catch (Exception e) {
+            logger.error("acquireLocks，keys:{}， value:{}, expireTime:{},error:{}", lockKeys, lockValue, expireTime, e);
+            throw new RuntimeException("acquireLocks error", e);
+        }
+    }
+
+    /**
+     * 释放多把锁，只删除值等于 lockValue 的锁
+     */
+    public void releaseLocks(List<String> lockKeys, String lockValue) {
+        try {
+            logger.info("releaseLocks，keys:{}， value:{}", lockKeys, lockValue);
+
+            String luaScript = "for i = 1, #KEYS do " +
+                    "    if redis.call('get', KEYS[i]) == ARGV[1] then " +
+                    "        redis.call('del', KEYS[i]) " +
+                    "        redis.call('publish', '" + RELEASED_CHANNEL + "', KEYS[i]) " +
+                    "    end " +
+                    "end " +
+                    "return 1";
+
+            jedis.eval(luaScript, lockKeys, Collections.singletonList(lockValue));
+        } catch (Exception e) {
+            logger.error("releaseLocks，keys:{}， value:{}, error:{}", lockKeys, lockValue, e);
+            throw new RuntimeException("releaseLocks error");
+        }
+    }
+
     /**
      * 获取当前锁的值
      *
@@ -108,14 +157,15 @@ public class RedisDistributedLock {
     }
 
 
-    public void extendLock(String lockKey, String lockValue, long additionalTime) {
+    public boolean extendLock(String lockKey, String lockValue, long additionalTime) {
         String luaScript = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
                 "    return redis.call('expire', KEYS[1], ARGV[2]) " +
                 "else " +
                 "    return 0 " +
                 "end";
-        jedis.eval(luaScript, Collections.singletonList(lockKey),
+        Object result = jedis.eval(luaScript, Collections.singletonList(lockKey),
                 Arrays.asList(lockValue, String.valueOf(additionalTime)));
+        return result.equals(1L);
     }
 
 
@@ -151,4 +201,57 @@ public class RedisDistributedLock {
        return true;
     }
 
+    /**
+     * 批量获取多个key的值，一次网络往返
+     *
+     * @param keys key列表
+     * @return 与 keys 顺序一致的值列表，不存在的key对应null
+     */
+    public List<String> mget(List<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return jedis.mget(keys.toArray(new String[0]));
+    }
+
+    /**
+     * 使用管道批量执行命令
+     * 管道独占一个连接，命令在客户端缓冲后一次性发送，所有响应在关闭管道时统一读取
+     *
+     * @param commands 在管道上追加命令的回调
+     * @return 按追加顺序排列的命令执行结果
+     */
+    public List<Object> executePipelined(Consumer<Pipeline> commands) {
+        try (Pipeline pipeline = jedis.pipelined()) {
+            commands.accept(pipeline);
+            return pipeline.syncAndReturnAll();
+        } catch (Exception e) {
+            logger.error("管道执行失败 error:{}", e.getMessage());
+            throw new RuntimeException("管道执行失败", e);
+        }
+    }
+
+    /**
+     * 执行Lua脚本
+     *
+     * @param script Lua脚本内容
+     * @param keys   KEYS参数列表
+     * @param args   ARGV参数列表
+     * @return 脚本执行结果
+     */
+    public Object evalScript(String script, List<String> keys, List<String> args) {
+        try {
+            return jedis.eval(script, keys, args);
+        } catch (Exception e) {
+            logger.error("执行Lua脚本失败 keys:{}, args:{}, error:{}", keys, args, e.getMessage());
+            throw new RuntimeException("执行Lua脚本失败", e);
+        }
+    }
+
+    /**
+     * 订阅频道，阻塞当前线程直到 pubSub 取消订阅或连接断开
+     */
+    public void subscribe(JedisPubSub pubSub, String... channels) {
+        jedis.subscribe(pubSub, channels);
+    }
 }
@@ -0,0 +1,194 @@
+package com.example.safeinventory.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 两级锁：JVM 内的分段本地锁 + Redis 分布式锁
+ * <p>
+ * 同一个 JVM 内争抢同一把锁的线程先在本地分段锁上排队，只有拿到本地锁的线程才去获取 Redis 锁。
+ * 释放时如果本地还有等待同一个 key 的线程，Redis 锁不释放，直接交给下一个本地等待者，
+ * 省去一次释放和一次加锁的网络往返；连续交接 maxHandoffs 次后释放 Redis 锁，让其他实例有机会获取。
+ * <p>
+ * Redis 锁的值是本实例的标识加序号，与请求无关。交接时如果距离上次加锁或续期已超过过期时间的一半，先续期，
+ * 续期失败说明锁已过期，重新获取。
+ */
+@Component
+public class TwoLevelDistributedLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(TwoLevelDistributedLock.class);
+
+    @Autowired
+    private RedisDistributedLock redisDistributedLock;
+
+    @Autowired
+    private BlockingDistributedLock blockingDistributedLock;
+
+    @Value("${lock.stripes:256}")
+    private int stripeCount;
+
+    /**
+     * Redis 锁在本地连续交接的最大次数
+     */
+    @Value("${lock.maxHandoffs:32}")
+    private int maxHandoffs;
+
+    /**
+     * 在本地锁上等待的最长时间，单位毫秒
+     */
+    @Value("${lock.localWaitMillis:3000}")
+    private long localWaitMillis;
+
+    /**
+     * Redis 锁被其他实例持有时等待释放的最长时间，单位毫秒，0 表示不等待
+     */
+    @Value("${lock.redisWaitMillis:1000}")
+    private long redisWaitMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ReentrantLock[] stripes;
+
+    /**
+     * 有线程持有或等待的 key -> 本实例持有的 Redis 锁
+     */
+    private final Map<String, RedisLease> leases = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // 公平锁，等待者按到达顺序拿到交接的 Redis 锁
+            stripes[i] = new ReentrantLock(true);
+        }
+    }
+
+    /**
+     * 获取锁，成功后必须调用 unlock
+     *
+     * @param expireTime Redis 锁的过期时间，单位秒
+     * @return true 获取成功；false 本地等待超时或等待其他实例释放 Redis 锁超时
+     */
+    public boolean tryLock(String lockKey, long expireTime) {
+        RedisLease lease = leases.compute(lockKey, (k, l) -> {
+            if (l == null) {
+                l = new RedisLease();
+            }
+            l.waiters++;
+            return l;
+        });
+
+        ReentrantLock stripe = stripeOf(lockKey);
+        boolean locked = false;
+        try {
+            locked = stripe.tryLock(localWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            logger.info("本地锁等待超时 key:{}", lockKey);
+            leave(lockKey, false);
+            return false;
+        }
+
+        boolean acquired = false;
+        try {
+            if (lease.value != null && !renewIfNeeded(lockKey, lease, expireTime)) {
+                lease.value = null;
+            }
+            if (lease.value != null) {
+                lease.handoffs++;
+                acquired = true;
+                return true;
+            }
+
+            String value = nodeId + ":" + sequence.incrementAndGet();
+            if (blockingDistributedLock.tryAcquire(lockKey, value, expireTime, redisWaitMillis)) {
+                lease.value = value;
+                lease.handoffs = 0;
+                lease.renewedAt = System.currentTimeMillis();
+                acquired = true;
+            }
+            return acquired;
+        } finally {
+            if (!acquired) {
+                unlock(lockKey);
+            }
+        }
+    }
+
+    /**
+     * 释放锁，本地还有等待者且未达到交接上限时保留 Redis 锁
+     */
+    public void unlock(String lockKey) {
+        try {
+            leave(lockKey, true);
+        } finally {
+            stripeOf(lockKey).unlock();
+        }
+    }
+
+    /**
+     * 离开等待队列，没有其他等待者或交接次数已满时释放 Redis 锁
+     * <p>
+     * 交接次数已满时只有持有本地锁的线程才能释放，本地锁等待超时的线程离开时持有者可能还在使用 Redis 锁；
+     * 等待超时的线程只在自己是最后一个等待者时释放，此时持有者已经离开，不释放的话 Redis 锁要等到过期
+     *
+     * @param holder 是否持有本地锁
+     */
+    private void leave(String lockKey, boolean holder) {
+        String[] toRelease = new String[1];
+        leases.computeIfPresent(lockKey, (k, lease) -> {
+            lease.waiters--;
+            if (lease.value != null && (lease.waiters == 0 || (holder && lease.handoffs >= maxHandoffs))) {
+                toRelease[0] = lease.value;
+                lease.value = null;
+            }
+            return lease.waiters == 0 ? null : lease;
+        });
+        if (toRelease[0] != null) {
+            redisDistributedLock.releaseLock(lockKey, toRelease[0]);
+        }
+    }
+
+    private boolean renewIfNeeded(String lockKey, RedisLease lease, long expireTime) {
+        long now = System.currentTimeMillis();
+        if (now - lease.renewedAt < TimeUnit.SECONDS.toMillis(expireTime) / 2) {
+            return true;
+        }
+        if (redisDistributedLock.extendLock(lockKey, lease.value, expireTime)) {
+            lease.renewedAt = now;
+            return true;
+        }
+        logger.warn("交接的Redis锁已失效 key:{}", lockKey);
+        return false;
+    }
+
+    private ReentrantLock stripeOf(String lockKey) {
+        return stripes[Math.floorMod(lockKey.hashCode(), stripes.length)];
+    }
+
+    /**
+     * waiters 在 leases.compute 中修改，其余字段只由持有本地锁的线程修改，
+     * 或在 waiters 减到 0（没有持有者）时于 leases.compute 中清除
+     */
+    private static class RedisLease {
+        private int waiters;
+        private volatile String value;
+        private volatile int handoffs;
+        private volatile long renewedAt;
+    }
+}
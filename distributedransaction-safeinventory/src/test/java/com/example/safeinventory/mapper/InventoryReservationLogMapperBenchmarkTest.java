@@ -0,0 +1,106 @@
+package com.example.safeinventory.mapper;
+
+import com.example.safeinventory.constants.ReservationStatus;
+import com.example.safeinventory.model.InventoryReservationLogModel;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * selectPending 在大表上的耗时对比
+ * 运行方式：mvn test -Dbenchmark=true -Dbenchmark.rows=4000000 -Dtest=InventoryReservationLogMapperBenchmarkTest
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class InventoryReservationLogMapperBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryReservationLogMapperBenchmarkTest.class);
+
+    private static final String REQUEST_ID_PREFIX = "bench_";
+
+    private static final int PAGE_SIZE = 100;
+
+    @Autowired
+    InventoryReservationLogMapper inventoryReservationLogMapper;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    void seed() {
+        int rows = Integer.getInteger("benchmark.rows", 4_000_000);
+        long start = System.currentTimeMillis();
+        jdbcTemplate.update("INSERT INTO inventory_reservation_log (request_id, product_id, reservation_quantity, status) " +
+                "VALUES (CONCAT(?, UUID()), 1, 1, 2)", REQUEST_ID_PREFIX);
+
+        // 自我复制翻倍，约 1% 为 PENDING，创建时间分布在最近一天内
+        int count = 1;
+        while (count < rows) {
+            count += jdbcTemplate.update("INSERT INTO inventory_reservation_log " +
+                    "(request_id, product_id, reservation_quantity, status, create_time) " +
+                    "SELECT CONCAT(?, UUID()), product_id, reservation_quantity, " +
+                    "IF(RAND() < 0.01, 1, 2), CURRENT_TIMESTAMP - INTERVAL FLOOR(RAND() * 86400) SECOND " +
+                    "FROM inventory_reservation_log WHERE request_id LIKE ? LIMIT ?",
+                    REQUEST_ID_PREFIX, REQUEST_ID_PREFIX + "%", rows - count);
+        }
+        logger.info("seed rows:{}, cost:{}ms", count, System.currentTimeMillis() - start);
+    }
+
+    @AfterAll
+    void cleanup() {
+        while (jdbcTemplate.update("DELETE FROM inventory_reservation_log WHERE request_id LIKE ? LIMIT 10000",
+                REQUEST_ID_PREFIX + "%") > 0) {
+        }
+    }
+
+    @Test
+    void selectPending() {
+        LocalDateTime createBefore = inventoryReservationLogMapper.selectPendingDeadline(300);
+
+        for (Map<String, Object> plan : jdbcTemplate.queryForList("EXPLAIN SELECT id FROM inventory_reservation_log " +
+                "WHERE status = 1 AND create_time <= ? AND id > 0 ORDER BY id LIMIT " + PAGE_SIZE, createBefore)) {
+            logger.info("explain:{}", plan);
+        }
+
+        // 改造前：不分页，一次取出全部 PENDING 流水
+        long start = System.currentTimeMillis();
+        List<Map<String, Object>> all = jdbcTemplate.queryForList("SELECT * FROM inventory_reservation_log " +
+                "WHERE status = 1 AND CURRENT_TIMESTAMP - INTERVAL 5 MINUTE >= create_time");
+        logger.info("unbounded scan rows:{}, cost:{}ms", all.size(), System.currentTimeMillis() - start);
+
+        // 改造后：keyset 分页
+        start = System.currentTimeMillis();
+        long firstPageCost = 0;
+        long minId = 0;
+        int total = 0;
+        int pages = 0;
+        while (true) {
+            long pageStart = System.nanoTime();
+            List<InventoryReservationLogModel> page = inventoryReservationLogMapper.selectPending(minId,
+                    ReservationStatus.PENDING.getValue(), createBefore, PAGE_SIZE);
+            if (pages == 0) {
+                firstPageCost = (System.nanoTime() - pageStart) / 1000;
+            }
+            pages++;
+            total += page.size();
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            minId = page.get(page.size() - 1).getId();
+        }
+        logger.info("keyset pages:{}, rows:{}, firstPage:{}us, cost:{}ms",
+                pages, total, firstPageCost, System.currentTimeMillis() - start);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.safeinventory.schedule;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class ArchiveReservationLogScheduleTest {
+
+    @Autowired
+    ArchiveReservationLogSchedule archiveReservationLogSchedule;
+
+    @Test
+    void archiveScheduledTask() {
+        archiveReservationLogSchedule.archiveScheduledTask();
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.concurrent.CompletableFuture;
+
+@SpringBootTest
+class BlockingDistributedLockTest {
+
+    private static final String LOCK_KEY = "product_lock:test:blocking";
+
+    @Autowired
+    BlockingDistributedLock blockingDistributedLock;
+
+    @Autowired
+    RedisDistributedLock redisDistributedLock;
+
+    @Test
+    void waiterAcquiresAfterRelease() throws Exception {
+        Assertions.assertTrue(redisDistributedLock.acquireLock(LOCK_KEY, "holder", 60));
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() ->
+                blockingDistributedLock.tryAcquire(LOCK_KEY, "waiter", 60, 5000));
+        Thread.sleep(300);
+        Assertions.assertFalse(waiter.isDone());
+
+        redisDistributedLock.releaseLock(LOCK_KEY, "holder");
+        Assertions.assertTrue(waiter.get());
+        Assertions.assertEquals("waiter", redisDistributedLock.get(LOCK_KEY));
+        redisDistributedLock.releaseLock(LOCK_KEY, "waiter");
+    }
+
+    @Test
+    void timeoutWhileLockHeld() {
+        Assertions.assertTrue(redisDistributedLock.acquireLock(LOCK_KEY, "holder", 60));
+        try {
+            long start = System.currentTimeMillis();
+            Assertions.assertFalse(blockingDistributedLock.tryAcquire(LOCK_KEY, "waiter", 60, 500));
+            Assertions.assertTrue(System.currentTimeMillis() - start >= 500);
+        } finally {
+            redisDistributedLock.releaseLock(LOCK_KEY, "holder");
+        }
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.model.ReservationItem;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.Arrays;
 import java.util.UUID;
 
 
@@ -20,6 +23,15 @@ class InventoryServiceTest {
         inventoryService.reserveInventory(1, 1, uuid.toString());
     }
 
+    @Test
+    void reserveInventoryBatch() {
+        UUID uuid = UUID.randomUUID();
+        inventoryService.reserveInventoryBatch(uuid.toString(), Arrays.asList(
+                new ReservationItem(2, 1),
+                new ReservationItem(1, 1),
+                new ReservationItem(2, 1)));
+    }
+
     @Test
     void confirmReservedInventory() {
     }
@@ -31,4 +43,15 @@ class InventoryServiceTest {
     @Test
     void rollbackReservedInventory() {
     }
+
+    /**
+     * 流水不存在或已超出归档查找范围时，确认和回滚都按非 PENDING 处理
+     */
+    @Test
+    void unknownRequestIdIsNotPending() {
+        String requestId = UUID.randomUUID().toString();
+        Assertions.assertFalse(inventoryService.confirmReservedInventory(1, requestId));
+        Assertions.assertFalse(inventoryService.confirmReservedInventoryWithBusinessLogic(1, requestId));
+        Assertions.assertFalse(inventoryService.rollbackReservedInventory(1, requestId));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest
+class TwoLevelDistributedLockTest {
+
+    private static final String LOCK_KEY = "product_lock:test:two-level";
+
+    private static final String TIMEOUT_LOCK_KEY = "product_lock:test:two-level-timeout";
+
+    @Autowired
+    TwoLevelDistributedLock twoLevelDistributedLock;
+
+    @Autowired
+    RedisDistributedLock redisDistributedLock;
+
+    @Test
+    void mutualExclusionWithHandoff() throws InterruptedException {
+        int threads = 16;
+        int rounds = 50;
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger acquired = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < rounds; j++) {
+                    if (!twoLevelDistributedLock.tryLock(LOCK_KEY, 60)) {
+                        continue;
+                    }
+                    try {
+                        if (holders.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        acquired.incrementAndGet();
+                        holders.decrementAndGet();
+                    } finally {
+                        twoLevelDistributedLock.unlock(LOCK_KEY);
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        executor.shutdown();
+
+        Assertions.assertEquals(0, overlaps.get());
+        // 同一实例内的竞争只在本地排队，不会因为 Redis 锁被本实例其他线程持有而失败
+        Assertions.assertEquals(threads * rounds, acquired.get());
+        // 最后一个持有者释放后 Redis 锁不再保留
+        Assertions.assertNull(redisDistributedLock.get(LOCK_KEY));
+    }
+
+    @Test
+    void localWaitTimeoutKeepsHolderRedisLock() throws InterruptedException {
+        Object maxHandoffs = ReflectionTestUtils.getField(twoLevelDistributedLock, "maxHandoffs");
+        Object localWaitMillis = ReflectionTestUtils.getField(twoLevelDistributedLock, "localWaitMillis");
+        // 交接次数从一开始就已满，等待超时的线程离开时不能替持有者释放 Redis 锁
+        ReflectionTestUtils.setField(twoLevelDistributedLock, "maxHandoffs", 0);
+        ReflectionTestUtils.setField(twoLevelDistributedLock, "localWaitMillis", 50L);
+        try {
+            Assertions.assertTrue(twoLevelDistributedLock.tryLock(TIMEOUT_LOCK_KEY, 60));
+            String value = redisDistributedLock.get(TIMEOUT_LOCK_KEY);
+            try {
+                AtomicInteger acquired = new AtomicInteger(-1);
+                Thread waiter = new Thread(() -> acquired.set(twoLevelDistributedLock.tryLock(TIMEOUT_LOCK_KEY, 60) ? 1 : 0));
+                waiter.start();
+                waiter.join();
+
+                Assertions.assertEquals(0, acquired.get());
+                Assertions.assertNotNull(value);
+                Assertions.assertEquals(value, redisDistributedLock.get(TIMEOUT_LOCK_KEY));
+            } finally {
+                twoLevelDistributedLock.unlock(TIMEOUT_LOCK_KEY);
+            }
+            Assertions.assertNull(redisDistributedLock.get(TIMEOUT_LOCK_KEY));
+        } finally {
+            ReflectionTestUtils.setField(twoLevelDistributedLock, "maxHandoffs", maxHandoffs);
+            ReflectionTestUtils.setField(twoLevelDistributedLock, "localWaitMillis", localWaitMillis);
+        }
+    }
+}
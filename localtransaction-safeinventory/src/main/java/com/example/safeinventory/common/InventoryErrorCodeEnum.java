@@ -0,0 +1,40 @@
+package com.example.safeinventory.common;
+
+/**
+ * 库存扣减的错误码，通过 BusinessException(int, String) 抛出，调用方据此判断是否可以重试
+ */
+public enum InventoryErrorCodeEnum {
+    STOCK_IS_NULL(1001, "库存不存在"),
+    STOCK_IS_NOT_ENOUGH(1002, "库存不足"),
+    VERSION_CONFLICT(1003, "版本冲突"),
+    RETRY_EXHAUSTED(1004, "重试次数耗尽"),
+    BUSINESS_FAILED(1005, "业务逻辑执行失败");
+
+
+    private int value;
+
+    private String des;
+
+
+    InventoryErrorCodeEnum(int value, String des) {
+        this.value = value;
+        this.des = des;
+    }
+
+    public int getValue() {
+        return this.value;
+    }
+
+    public String getDes() {
+        return des;
+    }
+
+    public static InventoryErrorCodeEnum valueOf(int value) {
+        for (InventoryErrorCodeEnum m : InventoryErrorCodeEnum.values()) {
+            if (m.getValue() == value) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("Invalid InventoryErrorCodeEnum value: " + value);
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.safeinventory.common;
 
 public enum RedisReduceStockEnum {
+    JOURNAL_BACKLOG(-3, "扣减流水积压，暂停扣减"),
     STOCK_IS_NULL(-2, "库存不存在"),
     STOCK_IS_NOT_ENOUGH(-1, "库存不足"),
     STOCK_EXHAUSTED(0, "库存已完全使用"),
@@ -0,0 +1,62 @@
+package com.example.safeinventory.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+
+/**
+ * Redis 连接池配置
+ * JedisPooled 内部维护连接池，每个命令从池中借出连接、执行完成后归还，可以被多个请求线程安全地共享
+ */
+@Configuration
+public class RedisConfig {
+
+    @Value("${spring.data.redis.host:localhost}")
+    private String redisHost;
+
+    @Value("${spring.data.redis.port:6379}")
+    private int redisPort;
+
+    @Value("${spring.data.redis.password:}")
+    private String redisPassword;
+
+    @Value("${spring.data.redis.timeout:2000ms}")
+    private Duration timeout;
+
+    @Value("${spring.data.redis.jedis.pool.max-active:64}")
+    private int maxActive;
+
+    @Value("${spring.data.redis.jedis.pool.max-idle:32}")
+    private int maxIdle;
+
+    @Value("${spring.data.redis.jedis.pool.min-idle:8}")
+    private int minIdle;
+
+    @Value("${spring.data.redis.jedis.pool.max-wait:1000ms}")
+    private Duration maxWait;
+
+    @Bean(destroyMethod = "close")
+    public JedisPooled jedisPooled() {
+        ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+        poolConfig.setMaxTotal(maxActive);
+        poolConfig.setMaxIdle(maxIdle);
+        poolConfig.setMinIdle(minIdle);
+        // 连接池耗尽时最多等待 maxWait，避免请求线程无限期阻塞
+        poolConfig.setMaxWait(maxWait);
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setTestWhileIdle(true);
+
+        DefaultJedisClientConfig clientConfig = DefaultJedisClientConfig.builder()
+                .timeoutMillis((int) timeout.toMillis())
+                .password(redisPassword.isEmpty() ? null : redisPassword)
+                .build();
+
+        return new JedisPooled(new HostAndPort(redisHost, redisPort), clientConfig, poolConfig);
+    }
+}
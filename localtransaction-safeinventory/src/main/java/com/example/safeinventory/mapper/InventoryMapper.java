@@ -2,6 +2,7 @@ package com.example.safeinventory.mapper;
 
 
 import com.example.safeinventory.model.InventoryModel;
+import com.example.safeinventory.model.StockDeductionModel;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
@@ -23,9 +24,24 @@ public interface InventoryMapper {
     int reduceAvailableStockWithCheckingStock(@Param("productId") Integer productId,
                                               @Param("quantity") Integer quantity);
 
+    /**
+     * 库存足够时扣减，同时通过 LAST_INSERT_ID(expr) 带回扣减前的库存，见 StockDeductionModel
+     * 依赖驱动默认的 found rows 语义：行存在时返回 1，无论是否扣减
+     */
+    int reduceAvailableStockReportingStock(StockDeductionModel deduction);
+
     int reduceAvailableStockWithVersion(@Param("productId") Integer productId,
                                         @Param("quantity") Integer quantity,
                                         @Param("version") Integer version);
 
+    /**
+     * 异步落库：应用 (fromSeq, toSeq] 区间内的扣减流水
+     * 只有库存行上已落库的流水序号恰好等于 fromSeq 时才会更新，保证同一段流水只落库一次
+     */
+    int reduceAvailableStockWithJournal(@Param("productId") Integer productId,
+                                        @Param("quantity") Integer quantity,
+                                        @Param("fromSeq") Long fromSeq,
+                                        @Param("toSeq") Long toSeq);
+
 }
 
@@ -10,6 +10,7 @@ public class InventoryModel {
     private Integer availableStock;
 
     private Integer version;
+    private Long journalSeq;
     private LocalDateTime createTime;
     private LocalDateTime updateTime;
 
@@ -55,6 +56,14 @@ public class InventoryModel {
         this.version = version;
     }
 
+    public Long getJournalSeq() {
+        return journalSeq;
+    }
+
+    public void setJournalSeq(Long journalSeq) {
+        this.journalSeq = journalSeq;
+    }
+
     public LocalDateTime getCreateTime() {
         return createTime;
     }
@@ -79,6 +88,7 @@ public class InventoryModel {
                 ", totalStock=" + totalStock +
                 ", availableStock=" + availableStock +
                 ", version=" + version +
+                ", journalSeq=" + journalSeq +
                 ", createTime=" + createTime +
                 ", updateTime=" + updateTime +
                 '}';
@@ -0,0 +1,41 @@
+package com.example.safeinventory.model;
+
+/**
+ * 单语句扣减的参数和结果
+ * observedStock 为扣减语句执行时看到的库存加 1，由 LAST_INSERT_ID(expr) 随 OK 包返回，库存行不存在时为 null
+ */
+public class StockDeductionModel {
+
+    private Integer productId;
+    private Integer quantity;
+    private Long observedStock;
+
+    public StockDeductionModel(Integer productId, Integer quantity) {
+        this.productId = productId;
+        this.quantity = quantity;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public Long getObservedStock() {
+        return observedStock;
+    }
+
+    public void setObservedStock(Long observedStock) {
+        this.observedStock = observedStock;
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.safeinventory.service;
+
+/**
+ * 单个商品的冲突率估计
+ * <p>
+ * 每次乐观扣减尝试记录一个样本，冲突为 1、成功为 0，用指数加权移动平均(EWMA)估计近期冲突率。
+ * 样本数达到 minSamples 且冲突率超过阈值时切换到悲观模式，保持 holdMillis 后回到乐观模式重新估计。
+ */
+public class ContentionEstimator {
+
+    private final double alpha;
+    private final double threshold;
+    private final int minSamples;
+    private final long holdMillis;
+
+    private double conflictRate;
+    private int samples;
+
+    /**
+     * 悲观模式的结束时间，0 表示乐观模式
+     */
+    private long pessimisticUntil;
+
+    public ContentionEstimator(double alpha, double threshold, int minSamples, long holdMillis) {
+        this.alpha = alpha;
+        this.threshold = threshold;
+        this.minSamples = minSamples;
+        this.holdMillis = holdMillis;
+    }
+
+    public synchronized void recordSuccess() {
+        record(0);
+    }
+
+    /**
+     * 记录一次版本冲突
+     *
+     * @return true 本次冲突使商品切换到悲观模式
+     */
+    public synchronized boolean recordConflict(long now) {
+        record(1);
+        if (pessimisticUntil == 0 && samples >= minSamples && conflictRate > threshold) {
+            pessimisticUntil = now + holdMillis;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 悲观模式到期后清空估计，回到乐观模式
+     */
+    public synchronized boolean isPessimistic(long now) {
+        if (pessimisticUntil == 0) {
+            return false;
+        }
+        if (now < pessimisticUntil) {
+            return true;
+        }
+        pessimisticUntil = 0;
+        conflictRate = 0;
+        samples = 0;
+        return false;
+    }
+
+    public synchronized double getConflictRate() {
+        return conflictRate;
+    }
+
+    private void record(int sample) {
+        conflictRate = samples == 0 ? sample : alpha * sample + (1 - alpha) * conflictRate;
+        samples++;
+    }
+}
@@ -3,9 +3,11 @@ package com.example.safeinventory.service;
 import com.example.safeinventory.common.BusinessException;
 import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.model.InventoryModel;
+import com.example.safeinventory.model.StockDeductionModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -21,6 +23,21 @@ public class InventoryByCheckingStockService {
     @Autowired
     private BusinessService businessService;
 
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 不先查询库存，只用带库存条件的 UPDATE 的影响行数判断扣减结果，每次扣减少一次往返
+     */
+    @Value("${checkingStock.singleStatement:false}")
+    private boolean singleStatement;
+
+    /**
+     * 单语句模式下由扣减语句同时带回库存，区分库存不足和库存行不存在，不需要再查询
+     */
+    @Value("${checkingStock.reportStock:false}")
+    private boolean reportStock;
+
     /**
      * 如果希望 @Transactional(rollbackFor = Exception.class) 能保证事务回滚，
      * 需要让 BusinessException 继承自 RuntimeException，这样 Spring 会默认回滚。
@@ -36,10 +53,39 @@ public class InventoryByCheckingStockService {
     public boolean reduceInventory(Integer productId, Integer quantity) {
         logger.info("reduceInventory begin productId: {}, quantity: {}", productId, quantity);
 
+        if (soldOutRegistry.isSoldOut(productId)) {
+            throw new BusinessException("库存不足，无法扣减库存");
+        }
+
+        if (!singleStatement) {
+            deductAfterChecking(productId, quantity);
+        } else if (reportStock) {
+            deductReportingStock(productId, quantity);
+        } else {
+            deductInSingleStatement(productId, quantity);
+        }
+        // 执行业务逻辑
+        boolean result = businessService.createBusinessDate();
+
+        if (!result) {
+            // 抛出异常以便事务回滚
+            logger.warn("业务逻辑执行失败  productId: {}, quantity: {}", productId, quantity);
+            throw new BusinessException("业务逻辑执行失败");
+        }
+        return true;
+    }
+
+    /**
+     * 先查询库存，库存足够再执行带库存条件的扣减
+     */
+    private void deductAfterChecking(Integer productId, Integer quantity) {
         InventoryModel inventory = inventoryMapper.selectByProductId(productId);
         if (inventory.getAvailableStock() < quantity) {
             logger.warn("库存不足: productId={}, requestedQuantity={}, availableStock={}",
                     productId, quantity, inventory.getAvailableStock());
+            if (inventory.getAvailableStock() == 0) {
+                soldOutRegistry.markSoldOut(productId);
+            }
             throw new BusinessException("库存不足，无法扣减库存");
         }
         // 扣减库存 - 库存条件控制
@@ -52,14 +98,37 @@ public class InventoryByCheckingStockService {
             logger.warn("库存扣减失败  productId: {}, quantity: {}", productId, quantity);
             throw new BusinessException("库存扣减失败");
         }
-        // 执行业务逻辑
-        boolean result = businessService.createBusinessDate();
+    }
 
-        if (!result) {
-            // 抛出异常以便事务回滚
-            logger.warn("业务逻辑执行失败  productId: {}, quantity: {}", productId, quantity);
-            throw new BusinessException("业务逻辑执行失败");
+    /**
+     * 只执行带库存条件的扣减，影响行数为 0 时库存不足或库存行不存在
+     */
+    private void deductInSingleStatement(Integer productId, Integer quantity) {
+        int updatedRows = inventoryMapper.reduceAvailableStockWithCheckingStock(productId, quantity);
+        if (updatedRows == 0) {
+            logger.warn("库存不足或商品不存在 productId: {}, quantity: {}", productId, quantity);
+            throw new BusinessException("库存不足，无法扣减库存");
+        }
+    }
+
+    /**
+     * 扣减语句同时带回扣减前的库存，据此区分扣减成功、库存不足和库存行不存在
+     */
+    private void deductReportingStock(Integer productId, Integer quantity) {
+        StockDeductionModel deduction = new StockDeductionModel(productId, quantity);
+        inventoryMapper.reduceAvailableStockReportingStock(deduction);
+        if (deduction.getObservedStock() == null) {
+            logger.warn("商品库存不存在 productId: {}", productId);
+            throw new BusinessException("商品库存不存在");
+        }
+        long stockBefore = deduction.getObservedStock() - 1;
+        if (stockBefore < quantity) {
+            logger.warn("库存不足: productId={}, requestedQuantity={}, availableStock={}",
+                    productId, quantity, stockBefore);
+            if (stockBefore == 0) {
+                soldOutRegistry.markSoldOut(productId);
+            }
+            throw new BusinessException("库存不足，无法扣减库存");
         }
-        return true;
     }
 }
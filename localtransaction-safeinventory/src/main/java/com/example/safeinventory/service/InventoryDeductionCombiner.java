@@ -0,0 +1,183 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.BusinessException;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 同一商品扣减请求合并器
+ * <p>
+ * 悲观锁方案中，热点商品每卖出一次都需要一次 SELECT ... FOR UPDATE 和一次事务提交。
+ * 合并器参考组提交的思路：同一商品在一个时间窗口内到达的扣减请求放入同一批次，
+ * 第一个到达的请求线程作为 leader，等待窗口结束或批次已满后，调用
+ * InventoryForUpdateService.reduceInventoryInBatch 在一个事务中完成整批扣减，
+ * 再把每个请求各自的结果通知给等待中的线程。
+ * <p>
+ * 待合并批次按 productId 分散到多个分段(stripe)中，不同分段之间互不阻塞。
+ */
+@Service
+public class InventoryDeductionCombiner {
+    private static final Logger logger = LoggerFactory.getLogger(InventoryDeductionCombiner.class);
+
+    @Autowired
+    private InventoryForUpdateService inventoryForUpdateService;
+
+    /**
+     * 合并窗口，单位毫秒
+     */
+    @Value("${combine.windowMillis:2}")
+    private long windowMillis;
+
+    /**
+     * 单批次最多合并的请求数，达到后立即执行，不再等待窗口结束
+     */
+    @Value("${combine.maxBatchSize:64}")
+    private int maxBatchSize;
+
+    @Value("${combine.stripes:64}")
+    private int stripeCount;
+
+    private Stripe[] stripes;
+
+    @PostConstruct
+    public void init() {
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * 合并模式下扣减库存，阻塞直到所在批次执行完成
+     *
+     * @return true 扣减成功
+     * @throws BusinessException 库存不足或扣减失败
+     */
+    public boolean reduceInventory(Integer productId, Integer quantity) {
+        Stripe stripe = stripes[Math.floorMod(productId.hashCode(), stripes.length)];
+        DeductionRequest request = new DeductionRequest(quantity);
+
+        Batch batch;
+        boolean leader;
+        synchronized (stripe) {
+            batch = stripe.openBatches.get(productId);
+            leader = batch == null;
+            if (leader) {
+                batch = new Batch();
+                stripe.openBatches.put(productId, batch);
+            }
+            batch.requests.add(request);
+            if (batch.requests.size() >= maxBatchSize) {
+                closeBatch(stripe, productId, batch);
+                stripe.notifyAll();
+            }
+        }
+
+        if (leader) {
+            awaitWindow(stripe, productId, batch);
+            execute(productId, batch);
+        }
+        return request.await();
+    }
+
+    /**
+     * leader 等待合并窗口结束或批次被填满
+     */
+    private void awaitWindow(Stripe stripe, Integer productId, Batch batch) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        synchronized (stripe) {
+            long remaining;
+            while (!batch.closed && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(stripe, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closeBatch(stripe, productId, batch);
+        }
+    }
+
+    /**
+     * 关闭批次，之后到达的请求进入新的批次，调用方需持有 stripe 锁
+     */
+    private void closeBatch(Stripe stripe, Integer productId, Batch batch) {
+        if (!batch.closed) {
+            batch.closed = true;
+            stripe.openBatches.remove(productId, batch);
+        }
+    }
+
+    private void execute(Integer productId, Batch batch) {
+        List<DeductionRequest> requests = batch.requests;
+        List<Integer> quantities = new ArrayList<>(requests.size());
+        for (DeductionRequest request : requests) {
+            quantities.add(request.quantity);
+        }
+
+        try {
+            List<Boolean> results = inventoryForUpdateService.reduceInventoryInBatch(productId, quantities);
+            for (int i = 0; i < requests.size(); i++) {
+                requests.get(i).future.complete(results.get(i));
+            }
+            logger.info("合并扣减完成 productId: {}, batchSize: {}", productId, requests.size());
+        } catch (Throwable e) {
+            // Error 也要通知到每个等待者，否则其他请求线程会一直阻塞在 await 上
+            logger.warn("合并扣减失败 productId: {}, batchSize: {}, error:{}", productId, requests.size(), e.toString());
+            for (DeductionRequest request : requests) {
+                request.future.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private static class Stripe {
+        private final Map<Integer, Batch> openBatches = new HashMap<>();
+    }
+
+    private static class Batch {
+        private final List<DeductionRequest> requests = new ArrayList<>();
+        private boolean closed;
+    }
+
+    private static class DeductionRequest {
+        private final int quantity;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        DeductionRequest(int quantity) {
+            this.quantity = quantity;
+        }
+
+        boolean await() {
+            boolean success;
+            try {
+                success = future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+            if (!success) {
+                throw new BusinessException("库存不足，无法扣减库存");
+            }
+            return true;
+        }
+    }
+}
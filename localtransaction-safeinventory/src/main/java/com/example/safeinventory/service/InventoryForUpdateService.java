@@ -9,6 +9,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 @Service
 public class InventoryForUpdateService {
@@ -20,15 +23,26 @@ public class InventoryForUpdateService {
     // 执行不同业务场景下，具体的业务逻辑，商品售卖就是创建订单数据， 营销发券就是生成用户券数
     @Autowired
     private BusinessService businessService;
+
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
     @Transactional(rollbackFor = Exception.class)
     public boolean reduceInventory(Integer productId, Integer quantity) {
         logger.info("reduceInventory productId: {}, quantity: {}", productId, quantity);
 
+        if (soldOutRegistry.isSoldOut(productId)) {
+            throw new BusinessException("库存不足，无法扣减库存");
+        }
+
         // 悲观锁锁住该行数据， 防止其他事务进行修改
         InventoryModel inventory = inventoryMapper.selectByProductIdForUpdate(productId);
         if (inventory.getAvailableStock() < quantity){
             logger.warn("库存不足: productId={}, requestedQuantity={}, availableStock={}",
                     productId, quantity, inventory.getAvailableStock());
+            if (inventory.getAvailableStock() == 0) {
+                soldOutRegistry.markSoldOut(productId);
+            }
             throw new BusinessException("库存不足，无法扣减库存");
         }
         int updatedRows = inventoryMapper.reduceAvailableStock(
@@ -51,4 +65,57 @@ public class InventoryForUpdateService {
         }
         return true;
     }
+
+    /**
+     * 合并扣减：同一商品的一批扣减请求只加一次行锁、执行一次库存更新
+     * 按请求顺序分配库存，库存不足的请求单独失败，不影响同批次的其他请求；
+     * 业务逻辑执行失败时整批回滚，与组提交中一次提交失败影响整组的语义一致
+     *
+     * @param productId  商品ID
+     * @param quantities 同一商品的多个扣减数量
+     * @return 与 quantities 顺序一致的扣减结果
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<Boolean> reduceInventoryInBatch(Integer productId, List<Integer> quantities) {
+        logger.info("reduceInventoryInBatch productId: {}, batchSize: {}", productId, quantities.size());
+
+        InventoryModel inventory = inventoryMapper.selectByProductIdForUpdate(productId);
+        if (inventory == null) {
+            logger.warn("库存不存在: productId={}", productId);
+            throw new BusinessException("库存不存在");
+        }
+
+        int remaining = inventory.getAvailableStock();
+        int totalQuantity = 0;
+        List<Boolean> results = new ArrayList<>(quantities.size());
+        for (Integer quantity : quantities) {
+            if (quantity <= remaining) {
+                remaining -= quantity;
+                totalQuantity += quantity;
+                results.add(true);
+            } else {
+                results.add(false);
+            }
+        }
+
+        if (totalQuantity == 0) {
+            logger.warn("库存不足: productId={}, availableStock={}", productId, inventory.getAvailableStock());
+            return results;
+        }
+
+        int updatedRows = inventoryMapper.reduceAvailableStock(productId, totalQuantity);
+        if (updatedRows == 0) {
+            logger.warn("库存扣减失败  productId: {}, quantity: {}", productId, totalQuantity);
+            throw new BusinessException("库存扣减失败");
+        }
+
+        // 每个扣减成功的请求分别执行业务逻辑
+        for (Boolean success : results) {
+            if (success && !businessService.createBusinessDate()) {
+                logger.warn("业务逻辑执行失败  productId: {}, quantity: {}", productId, totalQuantity);
+                throw new BusinessException("业务逻辑执行失败");
+            }
+        }
+        return results;
+    }
 }
@@ -11,20 +11,27 @@ public class InventoryWithDistributeLockService {
 
 
     @Autowired
-    RedisDistributedLock redisDistributedLock;
+    TwoLevelDistributedLock twoLevelDistributedLock;
 
 
     @Autowired
     InventoryWithVersionService inventoryWithVersionService;
 
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
     private static final int EXPIRE_TIME = 5 * 60;
 
     private static final String LOCK_KEY_PREFIX = "product_lock:";
 
     public boolean reduceInventory(Integer productId, Integer quantity, String requestId) {
+        // 已售罄的商品不再争抢分布式锁
+        if (soldOutRegistry.isSoldOut(productId)) {
+            return false;
+        }
         String lockKey = LOCK_KEY_PREFIX + productId;
-        // 模拟获取redis 分布式锁逻辑
-        boolean lockAcquired = redisDistributedLock.acquireLock(lockKey, requestId, EXPIRE_TIME);
+        // 同一实例内的请求先在本地锁上排队，Redis 锁在本地等待者之间交接
+        boolean lockAcquired = twoLevelDistributedLock.tryLock(lockKey, EXPIRE_TIME);
         if (!lockAcquired) {
             logger.info("未获取到锁 productId: {}, quantity: {}", productId, quantity);
             // 获取锁失败，返回或重试
@@ -33,10 +40,7 @@ public class InventoryWithDistributeLockService {
         try {
             return inventoryWithVersionService.reduceInventory(productId, quantity);
         } finally {
-            // 如果释放失败则重试或者等待过期
-            if (lockAcquired) {
-                redisDistributedLock.releaseLock(lockKey, requestId);
-            }
+            twoLevelDistributedLock.unlock(lockKey);
         }
     }
 
@@ -20,15 +20,33 @@ public class InventoryWithRedisService {
     @Autowired
     InventoryForUpdateService inventoryForUpdateService;
 
+    @Autowired
+    InventoryWriteBehindService inventoryWriteBehindService;
+
+    @Autowired
+    BusinessService businessService;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
     private static final String LOCK_KEY_PREFIX = "product_stock:";
 
     public boolean reduceInventory(Integer productId, Integer quantity, String requestId) {
+        if (soldOutRegistry.isSoldOut(productId)) {
+            return false;
+        }
+        if (inventoryWriteBehindService.isEnabled()) {
+            return reduceInventoryWriteBehind(productId, quantity, requestId);
+        }
         String lockKey = LOCK_KEY_PREFIX + productId;
         // redis 扣减库存
         long redisReduceResult = redisDistributedLock.reduceStock(lockKey, quantity);
 
         if (redisReduceResult != RedisReduceStockEnum.REDUCE_SUCCESS.getValue()) {
             logger.warn("库存扣减失败 productId: {}, quantity: {},reduceResult:{}", productId, quantity, redisReduceResult);
+            if (redisReduceResult == RedisReduceStockEnum.STOCK_EXHAUSTED.getValue()) {
+                soldOutRegistry.markSoldOut(productId);
+            }
             return false;
 
         }
@@ -39,6 +57,31 @@ public class InventoryWithRedisService {
         if (!result) {
             // 万一redis 库存回滚失败，靠异步同步任务保证 redis库存 与 数据库库存 的一致性
             redisDistributedLock.rollbackStock(lockKey, quantity);
+            soldOutRegistry.rearm(productId);
+        }
+        return result;
+    }
+
+    /**
+     * 异步落库模式：Redis 扣减成功即视为售出，数据库库存由 InventoryWriteBehindService 批量更新，
+     * 请求链路上不再持有数据库行锁
+     */
+    private boolean reduceInventoryWriteBehind(Integer productId, Integer quantity, String requestId) {
+        long redisReduceResult = inventoryWriteBehindService.reduceStock(productId, quantity, requestId);
+
+        if (redisReduceResult != RedisReduceStockEnum.REDUCE_SUCCESS.getValue()) {
+            logger.warn("库存扣减失败 productId: {}, quantity: {},reduceResult:{}", productId, quantity, redisReduceResult);
+            if (redisReduceResult == RedisReduceStockEnum.STOCK_EXHAUSTED.getValue()) {
+                soldOutRegistry.markSoldOut(productId);
+            }
+            return false;
+        }
+
+        boolean result = businessService.createBusinessDate();
+        if (!result) {
+            logger.warn("业务逻辑执行失败  productId: {}, quantity: {}", productId, quantity);
+            inventoryWriteBehindService.rollbackStock(productId, quantity, requestId);
+            soldOutRegistry.rearm(productId);
         }
         return result;
     }
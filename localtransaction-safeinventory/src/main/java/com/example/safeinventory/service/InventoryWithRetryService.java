@@ -0,0 +1,273 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.BusinessException;
+import com.example.safeinventory.common.InventoryErrorCodeEnum;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带冲突感知重试的乐观锁扣减
+ * <p>
+ * InventoryWithVersionService 遇到版本冲突直接失败。这里每次尝试是一个独立事务（可重复读下同一事务内重新读取仍是旧快照），
+ * 冲突后按带随机抖动的指数退避等待再重试；其他错误（库存不足、库存不存在、业务失败）不重试。
+ * <p>
+ * 每个商品用 ContentionEstimator 估计冲突率，超过阈值后该商品在一段时间内改走悲观路径：
+ * 合并扣减（InventoryDeductionCombiner）或逐个 SELECT ... FOR UPDATE（InventoryForUpdateService），
+ * 到期后回到乐观路径重新估计。每个商品的吞吐量和成功率定期打印到日志。
+ */
+@Service
+public class InventoryWithRetryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryWithRetryService.class);
+
+    @Autowired
+    private InventoryWithVersionService inventoryWithVersionService;
+
+    @Autowired
+    private InventoryForUpdateService inventoryForUpdateService;
+
+    @Autowired
+    private InventoryDeductionCombiner inventoryDeductionCombiner;
+
+    @Value("${retry.maxAttempts:5}")
+    private int maxAttempts;
+
+    /**
+     * 第一次重试的退避上限，之后每次翻倍，单位毫秒
+     */
+    @Value("${retry.baseBackoffMillis:2}")
+    private long baseBackoffMillis;
+
+    @Value("${retry.maxBackoffMillis:50}")
+    private long maxBackoffMillis;
+
+    /**
+     * 冲突率 EWMA 的平滑系数，越大越偏重最近的样本
+     */
+    @Value("${retry.ewmaAlpha:0.1}")
+    private double ewmaAlpha;
+
+    /**
+     * 冲突率超过该值时切换到悲观路径
+     */
+    @Value("${retry.conflictThreshold:0.5}")
+    private double conflictThreshold;
+
+    @Value("${retry.minSamples:20}")
+    private int minSamples;
+
+    /**
+     * 切换到悲观路径后保持的时间，单位毫秒
+     */
+    @Value("${retry.pessimisticHoldMillis:10000}")
+    private long pessimisticHoldMillis;
+
+    /**
+     * 悲观路径使用合并扣减，false 时逐个 SELECT ... FOR UPDATE
+     */
+    @Value("${retry.combineOnContention:true}")
+    private boolean combineOnContention;
+
+    @Value("${retry.reportIntervalMillis:10000}")
+    private long reportIntervalMillis;
+
+    private final Map<Integer, ContentionEstimator> estimators = new ConcurrentHashMap<>();
+
+    private final Map<Integer, ProductStats> stats = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService reporter;
+
+    @PostConstruct
+    public void start() {
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "inventory-retry-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleWithFixedDelay(this::report, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        reporter.shutdownNow();
+    }
+
+    /**
+     * 扣减库存，版本冲突时自动重试，热点商品自动切换到悲观路径
+     *
+     * @throws BusinessException 库存不足、库存不存在、业务失败，或重试次数耗尽（RETRY_EXHAUSTED）
+     */
+    public boolean reduceInventory(Integer productId, Integer quantity) {
+        ContentionEstimator estimator = estimators.computeIfAbsent(productId, k ->
+                new ContentionEstimator(ewmaAlpha, conflictThreshold, minSamples, pessimisticHoldMillis));
+        ProductStats productStats = stats.computeIfAbsent(productId, k -> new ProductStats());
+        productStats.requests.increment();
+
+        try {
+            if (!estimator.isPessimistic(System.currentTimeMillis())) {
+                if (reduceOptimistically(productId, quantity, estimator, productStats)) {
+                    productStats.successes.increment();
+                    return true;
+                }
+            }
+            productStats.pessimistic.increment();
+            boolean result = reducePessimistically(productId, quantity);
+            productStats.successes.increment();
+            return result;
+        } catch (RuntimeException e) {
+            productStats.failures.increment();
+            throw e;
+        }
+    }
+
+    public ProductStats getStats(Integer productId) {
+        return stats.get(productId);
+    }
+
+    /**
+     * 乐观路径，带退避重试
+     *
+     * @return true 扣减成功；false 重试过程中切换到了悲观路径，由调用方改走悲观路径
+     */
+    private boolean reduceOptimistically(Integer productId, Integer quantity,
+                                         ContentionEstimator estimator, ProductStats productStats) {
+        for (int attempt = 0; attempt < maxAttempts; attempt++) {
+            productStats.attempts.increment();
+            try {
+                inventoryWithVersionService.reduceInventory(productId, quantity);
+                estimator.recordSuccess();
+                return true;
+            } catch (BusinessException e) {
+                if (e.getErrorCode() != InventoryErrorCodeEnum.VERSION_CONFLICT.getValue()) {
+                    throw e;
+                }
+            }
+            productStats.conflicts.increment();
+            if (estimator.recordConflict(System.currentTimeMillis())) {
+                logger.info("商品冲突率过高，切换到悲观路径 productId:{}, conflictRate:{}",
+                        productId, String.format("%.2f", estimator.getConflictRate()));
+                return false;
+            }
+            if (attempt + 1 < maxAttempts) {
+                backoff(attempt);
+            }
+        }
+        logger.warn("版本冲突重试次数耗尽 productId: {}, quantity: {}, attempts: {}", productId, quantity, maxAttempts);
+        throw new BusinessException(InventoryErrorCodeEnum.RETRY_EXHAUSTED.getValue(), "库存扣减失败");
+    }
+
+    private boolean reducePessimistically(Integer productId, Integer quantity) {
+        if (combineOnContention) {
+            return inventoryDeductionCombiner.reduceInventory(productId, quantity);
+        }
+        return inventoryForUpdateService.reduceInventory(productId, quantity);
+    }
+
+    /**
+     * 全抖动退避：在 [0, min(max, base * 2^attempt)] 中随机等待，避免冲突的请求同时重试再次冲突
+     */
+    private void backoff(int attempt) {
+        long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 20));
+        long sleepMillis = ThreadLocalRandom.current().nextLong(cap + 1);
+        if (sleepMillis == 0) {
+            return;
+        }
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BusinessException(InventoryErrorCodeEnum.RETRY_EXHAUSTED.getValue(), "库存扣减失败");
+        }
+    }
+
+    private void report() {
+        stats.forEach((productId, productStats) -> {
+            long successes = productStats.successes.sum();
+            long requests = productStats.requests.sum();
+            long intervalSuccesses = successes - productStats.reportedSuccesses;
+            long intervalRequests = requests - productStats.reportedRequests;
+            if (intervalRequests == 0) {
+                return;
+            }
+            productStats.reportedSuccesses = successes;
+            productStats.reportedRequests = requests;
+            productStats.throughput = intervalSuccesses * 1000.0 / reportIntervalMillis;
+
+            ContentionEstimator estimator = estimators.get(productId);
+            logger.info("商品扣减统计 productId:{}, throughput:{}/s, successRatio:{}, conflictRate:{}, pessimistic:{}, attempts:{}, conflicts:{}",
+                    productId,
+                    String.format("%.1f", productStats.throughput),
+                    String.format("%.3f", (double) intervalSuccesses / intervalRequests),
+                    estimator == null ? "-" : String.format("%.2f", estimator.getConflictRate()),
+                    estimator != null && estimator.isPessimistic(System.currentTimeMillis()),
+                    productStats.attempts.sum(),
+                    productStats.conflicts.sum());
+        });
+    }
+
+    /**
+     * 单个商品的累计扣减统计
+     */
+    public static class ProductStats {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+        private final LongAdder pessimistic = new LongAdder();
+
+        private long reportedSuccesses;
+        private long reportedRequests;
+
+        /**
+         * 最近一个统计周期内每秒成功扣减数
+         */
+        private volatile double throughput;
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getAttempts() {
+            return attempts.sum();
+        }
+
+        public long getConflicts() {
+            return conflicts.sum();
+        }
+
+        public long getPessimistic() {
+            return pessimistic.sum();
+        }
+
+        public double getSuccessRatio() {
+            long total = requests.sum();
+            return total == 0 ? 0 : (double) successes.sum() / total;
+        }
+
+        public double getThroughput() {
+            return throughput;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.safeinventory.service;
 
 import com.example.safeinventory.common.BusinessException;
+import com.example.safeinventory.common.InventoryErrorCodeEnum;
 import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.model.InventoryModel;
 import org.slf4j.Logger;
@@ -20,15 +21,29 @@ public class InventoryWithVersionService {
     @Autowired
     private BusinessService businessService;
 
+    @Autowired
+    private SoldOutRegistry soldOutRegistry;
+
     @Transactional(rollbackFor = Exception.class)
     public boolean reduceInventory(Integer productId, Integer quantity) {
         logger.info("reduceInventory productId: {}, quantity: {}", productId, quantity);
 
+        if (soldOutRegistry.isSoldOut(productId)) {
+            throw new BusinessException(InventoryErrorCodeEnum.STOCK_IS_NOT_ENOUGH.getValue(), "库存不足，无法扣减库存");
+        }
+
         InventoryModel inventory = inventoryMapper.selectByProductId(productId);
+        if (inventory == null) {
+            logger.warn("库存不存在: productId={}", productId);
+            throw new BusinessException(InventoryErrorCodeEnum.STOCK_IS_NULL.getValue(), "库存不存在");
+        }
         if (inventory.getAvailableStock() < quantity) {
             logger.warn("库存不足: productId={}, requestedQuantity={}, availableStock={}",
                     productId, quantity, inventory.getAvailableStock());
-            throw new BusinessException("库存不足，无法扣减库存");
+            if (inventory.getAvailableStock() == 0) {
+                soldOutRegistry.markSoldOut(productId);
+            }
+            throw new BusinessException(InventoryErrorCodeEnum.STOCK_IS_NOT_ENOUGH.getValue(), "库存不足，无法扣减库存");
         }
         // 库存扣减 - 使用乐观锁（版本号）控制
         int updatedRows = inventoryMapper.reduceAvailableStockWithVersion(
@@ -37,9 +52,10 @@ public class InventoryWithVersionService {
                 inventory.getVersion()
         );
 
+        // 读取之后版本已被其他事务修改，可以在新事务中重试
         if (updatedRows == 0) {
             logger.warn("库存扣减失败  productId: {}, quantity: {}", productId, quantity);
-            throw new BusinessException("库存扣减失败");
+            throw new BusinessException(InventoryErrorCodeEnum.VERSION_CONFLICT.getValue(), "库存扣减失败");
         }
 
         // 执行业务逻辑
@@ -47,7 +63,7 @@ public class InventoryWithVersionService {
         if (!result) {
             // 抛出异常以便事务回滚
             logger.warn("业务逻辑执行失败  productId: {}, quantity: {}", productId, quantity);
-            throw new BusinessException("业务逻辑执行失败");
+            throw new BusinessException(InventoryErrorCodeEnum.BUSINESS_FAILED.getValue(), "业务逻辑执行失败");
         }
         return true;
     }
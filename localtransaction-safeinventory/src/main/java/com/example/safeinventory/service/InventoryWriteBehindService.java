@@ -0,0 +1,409 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.mapper.InventoryMapper;
+import com.example.safeinventory.model.InventoryModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 库存异步落库（write-behind）
+ * <p>
+ * 扣减时以 Redis DECRBY 的结果作为是否售出的唯一依据，同一个 Lua 脚本中把扣减流水追加到该商品的流水列表，
+ * 流水在 Redis 中持久化（依赖 AOF），后台线程定时把流水按商品聚合后批量更新到 inventory 表。
+ * <p>
+ * 流水格式：seq:quantity:timestamp:requestId，seq 为商品维度单调递增的序号。
+ * inventory.journal_seq 记录已落库的最大序号，落库语句要求 journal_seq 恰好等于本批次第一条流水的前一个序号，
+ * 因此多个实例同时落库、或落库成功后实例崩溃未来得及删除流水，都不会重复扣减数据库库存。
+ * <p>
+ * 序号计数器只保存在 Redis 中，初始化库存（initStock）时把计数器提升到 journal_seq，
+ * 计数器丢失后重新分配的序号会与已落库的序号重复，落库时发现这种情况只告警、不删除流水，等待人工对账。
+ */
+@Service
+public class InventoryWriteBehindService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryWriteBehindService.class);
+
+    private static final String STOCK_KEY_PREFIX = "product_stock:";
+
+    private static final String JOURNAL_KEY_PREFIX = "inventory:journal:";
+
+    private static final String JOURNAL_SEQ_KEY_PREFIX = "inventory:journal:seq:";
+
+    /**
+     * 有未落库流水的商品集合
+     */
+    private static final String DIRTY_PRODUCTS_KEY = "inventory:journal:dirty";
+
+    /**
+     * 使用异步落库的商品集合，对账任务遍历该集合
+     */
+    private static final String TRACKED_PRODUCTS_KEY = "inventory:writebehind:products";
+
+    /**
+     * 扣减库存并追加流水，返回值见 RedisReduceStockEnum
+     * 流水积压超过最大条数，或最早一条未落库流水超过最大延迟时拒绝扣减（返回 -3），以此限制落库延迟
+     * 序号计数器不存在时按库存不存在处理（返回 -2），避免从 1 重新分配已落库的序号
+     */
+    private static final String REDUCE_WITH_JOURNAL_SCRIPT =
+            "local current_stock = tonumber(redis.call('GET', KEYS[1])) " +
+                    "local deduct_amount = tonumber(ARGV[1]) " +
+                    "if current_stock == nil then return -2 end " +
+                    "if redis.call('EXISTS', KEYS[3]) == 0 then return -2 end " +
+                    "if current_stock == 0 then return 0 end " +
+                    "if current_stock < deduct_amount then return -1 end " +
+                    "if redis.call('LLEN', KEYS[2]) >= tonumber(ARGV[4]) then return -3 end " +
+                    "local head = redis.call('LINDEX', KEYS[2], 0) " +
+                    "if head then " +
+                    "    local ts = tonumber(string.match(head, '^%d+:%-?%d+:(%d+):')) " +
+                    "    if ts and tonumber(ARGV[3]) - ts > tonumber(ARGV[5]) then return -3 end " +
+                    "end " +
+                    "redis.call('DECRBY', KEYS[1], deduct_amount) " +
+                    "local seq = redis.call('INCR', KEYS[3]) " +
+                    "redis.call('RPUSH', KEYS[2], seq .. ':' .. deduct_amount .. ':' .. ARGV[3] .. ':' .. ARGV[2]) " +
+                    "redis.call('SADD', KEYS[4], ARGV[6]) " +
+                    "redis.call('SADD', KEYS[5], ARGV[6]) " +
+                    "return 1";
+
+    /**
+     * 归还库存，并追加一条数量为负的补偿流水，序号计数器不存在时不归还（返回 -2）
+     */
+    private static final String ROLLBACK_WITH_JOURNAL_SCRIPT =
+            "if redis.call('EXISTS', KEYS[3]) == 0 then return -2 end " +
+                    "redis.call('INCRBY', KEYS[1], ARGV[1]) " +
+                    "local seq = redis.call('INCR', KEYS[3]) " +
+                    "redis.call('RPUSH', KEYS[2], seq .. ':-' .. ARGV[1] .. ':' .. ARGV[3] .. ':' .. ARGV[2]) " +
+                    "redis.call('SADD', KEYS[4], ARGV[4]) " +
+                    "return 1";
+
+    /**
+     * 删除序号不大于 ARGV[1] 的流水，流水清空后把商品移出待落库集合
+     */
+    private static final String TRIM_JOURNAL_SCRIPT =
+            "local removed = 0 " +
+                    "while true do " +
+                    "    local head = redis.call('LINDEX', KEYS[1], 0) " +
+                    "    if not head then break end " +
+                    "    if tonumber(string.match(head, '^(%d+):')) > tonumber(ARGV[1]) then break end " +
+                    "    redis.call('LPOP', KEYS[1]) " +
+                    "    removed = removed + 1 " +
+                    "end " +
+                    "if redis.call('LLEN', KEYS[1]) == 0 then redis.call('SREM', KEYS[2], ARGV[2]) end " +
+                    "return removed";
+
+    /**
+     * 库存不存在时按数据库可用库存初始化，序号计数器小于已落库序号时提升到已落库序号
+     */
+    private static final String INIT_STOCK_SCRIPT =
+            "local seq = tonumber(redis.call('GET', KEYS[2]) or '0') " +
+                    "if seq < tonumber(ARGV[2]) then redis.call('SET', KEYS[2], ARGV[2]) end " +
+                    "if redis.call('EXISTS', KEYS[1]) == 0 then redis.call('SET', KEYS[1], ARGV[1]) end " +
+                    "return 1";
+
+    /**
+     * 原子读取 Redis 库存和全部未落库流水，用于对账
+     */
+    private static final String SNAPSHOT_SCRIPT =
+            "return {redis.call('GET', KEYS[1]), redis.call('LRANGE', KEYS[2], 0, -1)}";
+
+    @Autowired
+    private RedisDistributedLock redisDistributedLock;
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    @Value("${writeBehind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${writeBehind.flushIntervalMillis:100}")
+    private long flushIntervalMillis;
+
+    @Value("${writeBehind.flushBatchSize:500}")
+    private int flushBatchSize;
+
+    @Value("${writeBehind.maxJournalLength:100000}")
+    private int maxJournalLength;
+
+    @Value("${writeBehind.maxLagMillis:5000}")
+    private long maxLagMillis;
+
+    @Value("${writeBehind.reconcileIntervalMillis:60000}")
+    private long reconcileIntervalMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.scheduleWithFixedDelay(this::flushSafely,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::reconcileSafely,
+                reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("异步落库已启动 flushIntervalMillis:{}, flushBatchSize:{}, maxJournalLength:{}, maxLagMillis:{}",
+                flushIntervalMillis, flushBatchSize, maxJournalLength, maxLagMillis);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 停机前尽量把剩余流水落库，未落库的部分由其他实例或下次启动继续处理
+        flushSafely();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 从数据库初始化 Redis 库存和流水序号计数器，Redis 重启或主从切换后必须先调用再开始扣减
+     * Redis 中已有库存时保留，其中可能包含尚未落库的扣减
+     *
+     * @return 数据库中没有该商品时返回 false
+     */
+    public boolean initStock(Integer productId) {
+        InventoryModel inventory = inventoryMapper.selectByProductId(productId);
+        if (inventory == null) {
+            logger.warn("初始化库存失败，库存不存在 productId:{}", productId);
+            return false;
+        }
+        redisDistributedLock.evalScript(INIT_STOCK_SCRIPT,
+                Arrays.asList(STOCK_KEY_PREFIX + productId, JOURNAL_SEQ_KEY_PREFIX + productId),
+                Arrays.asList(String.valueOf(inventory.getAvailableStock()), String.valueOf(inventory.getJournalSeq())));
+        return true;
+    }
+
+    /**
+     * 扣减 Redis 库存并记录流水
+     *
+     * @return 扣减结果，见 RedisReduceStockEnum
+     */
+    public long reduceStock(Integer productId, Integer quantity, String requestId) {
+        List<String> keys = Arrays.asList(
+                STOCK_KEY_PREFIX + productId,
+                JOURNAL_KEY_PREFIX + productId,
+                JOURNAL_SEQ_KEY_PREFIX + productId,
+                DIRTY_PRODUCTS_KEY,
+                TRACKED_PRODUCTS_KEY);
+        List<String> args = Arrays.asList(
+                String.valueOf(quantity),
+                requestId,
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(maxJournalLength),
+                String.valueOf(maxLagMillis),
+                String.valueOf(productId));
+        return (long) redisDistributedLock.evalScript(REDUCE_WITH_JOURNAL_SCRIPT, keys, args);
+    }
+
+    /**
+     * 业务逻辑失败时归还 Redis 库存，补偿流水同样会异步落库
+     */
+    public void rollbackStock(Integer productId, Integer quantity, String requestId) {
+        List<String> keys = Arrays.asList(
+                STOCK_KEY_PREFIX + productId,
+                JOURNAL_KEY_PREFIX + productId,
+                JOURNAL_SEQ_KEY_PREFIX + productId,
+                DIRTY_PRODUCTS_KEY);
+        List<String> args = Arrays.asList(
+                String.valueOf(quantity),
+                requestId,
+                String.valueOf(System.currentTimeMillis()),
+                String.valueOf(productId));
+        long result = (long) redisDistributedLock.evalScript(ROLLBACK_WITH_JOURNAL_SCRIPT, keys, args);
+        if (result != 1) {
+            logger.error("归还库存失败，流水序号计数器不存在，需要人工对账 productId:{}, quantity:{}, requestId:{}",
+                    productId, quantity, requestId);
+        }
+    }
+
+    /**
+     * 把所有商品的待落库流水写入数据库
+     */
+    public void flush() {
+        for (String productId : redisDistributedLock.smembers(DIRTY_PRODUCTS_KEY)) {
+            try {
+                flushProduct(Integer.valueOf(productId));
+            } catch (Exception e) {
+                logger.error("流水落库失败 productId:{}, error:{}", productId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 分批把单个商品的流水聚合成一条 UPDATE 落库
+     */
+    private void flushProduct(Integer productId) {
+        String journalKey = JOURNAL_KEY_PREFIX + productId;
+        while (true) {
+            List<JournalEntry> entries = parse(redisDistributedLock.lrange(journalKey, 0, flushBatchSize - 1));
+            if (entries.isEmpty()) {
+                trimJournal(productId, 0);
+                return;
+            }
+
+            long fromSeq = entries.get(0).seq - 1;
+            long toSeq = entries.get(entries.size() - 1).seq;
+            int quantity = 0;
+            for (JournalEntry entry : entries) {
+                quantity += entry.quantity;
+            }
+
+            long appliedSeq;
+            if (inventoryMapper.reduceAvailableStockWithJournal(productId, quantity, fromSeq, toSeq) == 1) {
+                appliedSeq = toSeq;
+                logger.info("流水落库成功 productId:{}, quantity:{}, seq:({}, {}]", productId, quantity, fromSeq, toSeq);
+            } else {
+                // 其他实例已经落库了部分或全部流水，以数据库记录的序号为准
+                InventoryModel inventory = inventoryMapper.selectByProductId(productId);
+                if (inventory == null) {
+                    logger.error("流水落库失败，库存不存在 productId:{}", productId);
+                    return;
+                }
+                appliedSeq = inventory.getJournalSeq();
+                if (appliedSeq < fromSeq) {
+                    logger.error("流水不连续，需要人工介入 productId:{}, journalSeq:{}, firstSeq:{}",
+                            productId, appliedSeq, fromSeq + 1);
+                    return;
+                }
+                if (!isAligned(productId, entries, appliedSeq)) {
+                    // 序号计数器丢失后重新分配了已落库的序号，这些流水并未落库，不能按已落库删除
+                    logger.error("流水序号与已落库序号不一致，序号计数器可能丢失，需要人工对账 productId:{}, journalSeq:{}, seq:({}, {}]",
+                            productId, appliedSeq, fromSeq, toSeq);
+                    return;
+                }
+            }
+
+            trimJournal(productId, appliedSeq);
+            if (entries.size() < flushBatchSize) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 已落库序号落在本批次内时必须恰好是某条流水的序号；超过本批次时说明其他实例落库了更多流水，
+     * 这些序号都由计数器分配，计数器不可能小于已落库序号
+     */
+    private boolean isAligned(Integer productId, List<JournalEntry> entries, long appliedSeq) {
+        if (appliedSeq <= entries.get(entries.size() - 1).seq) {
+            long expectedSeq = entries.get(0).seq;
+            for (JournalEntry entry : entries) {
+                if (entry.seq != expectedSeq++) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        String seq = redisDistributedLock.get(JOURNAL_SEQ_KEY_PREFIX + productId);
+        return seq != null && Long.parseLong(seq) >= appliedSeq;
+    }
+
+    private void trimJournal(Integer productId, long appliedSeq) {
+        redisDistributedLock.evalScript(TRIM_JOURNAL_SCRIPT,
+                Arrays.asList(JOURNAL_KEY_PREFIX + productId, DIRTY_PRODUCTS_KEY),
+                Arrays.asList(String.valueOf(appliedSeq), String.valueOf(productId)));
+    }
+
+    /**
+     * 对账：Redis 库存应等于数据库可用库存减去尚未落库的流水数量
+     *
+     * @return Redis 库存与期望值的差值，0 表示一致
+     */
+    @SuppressWarnings("unchecked")
+    public long reconcile(Integer productId) {
+        List<Object> snapshot = (List<Object>) redisDistributedLock.evalScript(SNAPSHOT_SCRIPT,
+                Arrays.asList(STOCK_KEY_PREFIX + productId, JOURNAL_KEY_PREFIX + productId),
+                Collections.emptyList());
+        String redisStock = (String) snapshot.get(0);
+        List<JournalEntry> entries = parse((List<String>) snapshot.get(1));
+
+        InventoryModel inventory = inventoryMapper.selectByProductId(productId);
+        if (redisStock == null || inventory == null) {
+            logger.warn("对账跳过，库存不存在 productId:{}, redisStock:{}", productId, redisStock);
+            return 0;
+        }
+
+        long pending = 0;
+        for (JournalEntry entry : entries) {
+            if (entry.seq > inventory.getJournalSeq()) {
+                pending += entry.quantity;
+            }
+        }
+        return Long.parseLong(redisStock) - (inventory.getAvailableStock() - pending);
+    }
+
+    /**
+     * 对所有使用异步落库的商品对账
+     * 读取 Redis 快照与读取数据库之间可能恰好有流水落库，出现差异时复查一次，两次结果一致才告警
+     */
+    public void reconcileAll() {
+        for (String productId : redisDistributedLock.smembers(TRACKED_PRODUCTS_KEY)) {
+            Integer id = Integer.valueOf(productId);
+            long drift = reconcile(id);
+            if (drift == 0) {
+                continue;
+            }
+            long recheck = reconcile(id);
+            if (recheck == drift) {
+                logger.error("redis库存与数据库库存不一致 productId:{}, drift:{}", productId, drift);
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("异步落库执行失败 error:{}", e.getMessage());
+        }
+    }
+
+    private void reconcileSafely() {
+        try {
+            reconcileAll();
+        } catch (Exception e) {
+            logger.error("库存对账执行失败 error:{}", e.getMessage());
+        }
+    }
+
+    private List<JournalEntry> parse(List<String> rawEntries) {
+        List<JournalEntry> entries = new ArrayList<>(rawEntries.size());
+        for (String raw : rawEntries) {
+            String[] parts = raw.split(":", 4);
+            entries.add(new JournalEntry(Long.parseLong(parts[0]), Integer.parseInt(parts[1])));
+        }
+        return entries;
+    }
+
+    private static class JournalEntry {
+        private final long seq;
+        private final int quantity;
+
+        JournalEntry(long seq, int quantity) {
+            this.seq = seq;
+            this.quantity = quantity;
+        }
+    }
+}
@@ -3,14 +3,21 @@ package com.example.safeinventory.service;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.resps.Tuple;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 
 @Service
@@ -18,20 +25,16 @@ public class RedisDistributedLock {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisDistributedLock.class);
 
-    @Value("${spring.data.redis.host:localhost}")
-    private String redisHost;
-
-    @Value("${spring.data.redis.port:6379}")
-    private int redisPort;
-
-    private Jedis jedis;
-
+    /**
+     * 锁释放通知频道，消息内容为锁的 key，见 BlockingDistributedLock
+     */
+    public static final String RELEASED_CHANNEL = "lock:released";
 
-    // 构造函数初始化 Jedis 连接
-    public RedisDistributedLock() {
-        // 在构造函数中初始化 Jedis
-        this.jedis = new Jedis("localhost", 6379);
-    }
+    /**
+     * 连接池客户端，线程安全，每次调用从池中借出连接，见 RedisConfig
+     */
+    @Autowired
+    private JedisPooled jedis;
 
     /**
      * 尝试获取锁
@@ -75,14 +78,17 @@ public class RedisDistributedLock {
         try {
             logger.info("releaseLock，key:{}， value:{}", lockKey, lockValue);
 
-            // Lua 脚本，保证原子性：只有持有锁的客户端才能释放锁
-            String luaScript = "if redis.call('get', KEYS[1]) == false then" +
-                    "    return 1" +
-                    "elseif redis.call('get', KEYS[1]) == ARGV[1] then" +
-                    "    return redis.call('del', KEYS[1])" +
-                    "else" +
-                    "    return 2" +
-                    "end";
+            // Lua 脚本，保证原子性：只有持有锁的客户端才能释放锁，释放后通知等待者
+            String luaScript =
+                    "if redis.call('get', KEYS[1]) == false then " +
+                            "    return 1 " +
+                            "elseif redis.call('get', KEYS[1]) == ARGV[1] then " +
+                            "    redis.call('del', KEYS[1]) " +
+                            "    redis.call('publish', '" + RELEASED_CHANNEL + "', KEYS[1]) " +
+                            "    return 1 " +
+                            "else " +
+                            "    return 2 " +
+                            "end";
 
             List<String> keys = Collections.singletonList(lockKey);
             List<String> values = Collections.singletonList(lockValue);
@@ -112,14 +118,15 @@ public class RedisDistributedLock {
      * @param lockValue
      * @param additionalTime
      */
-    public void extendLock(String lockKey, String lockValue, long additionalTime) {
+    public boolean extendLock(String lockKey, String lockValue, long additionalTime) {
         String luaScript = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
                 "    return redis.call('expire', KEYS[1], ARGV[2]) " +
                 "else " +
                 "    return 0 " +
                 "end";
-        jedis.eval(luaScript, Collections.singletonList(lockKey),
+        Object result = jedis.eval(luaScript, Collections.singletonList(lockKey),
                 Arrays.asList(lockValue, String.valueOf(additionalTime)));
+        return result.equals(1L);
     }
 
 
@@ -147,4 +154,110 @@ public class RedisDistributedLock {
     public void rollbackStock(String key, Integer requestQuality) {
         jedis.incrBy(key, requestQuality);
     }
+
+    /**
+     * 批量获取多个key的值，一次网络往返
+     *
+     * @param keys key列表
+     * @return 与 keys 顺序一致的值列表，不存在的key对应null
+     */
+    public List<String> mget(List<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return jedis.mget(keys.toArray(new String[0]));
+    }
+
+    /**
+     * 使用管道批量执行命令
+     * 管道独占一个连接，命令在客户端缓冲后一次性发送，所有响应在关闭管道时统一读取
+     *
+     * @param commands 在管道上追加命令的回调
+     * @return 按追加顺序排列的命令执行结果
+     */
+    public List<Object> executePipelined(Consumer<Pipeline> commands) {
+        try (Pipeline pipeline = jedis.pipelined()) {
+            commands.accept(pipeline);
+            return pipeline.syncAndReturnAll();
+        } catch (Exception e) {
+            logger.error("管道执行失败 error:{}", e.getMessage());
+            throw new RuntimeException("管道执行失败", e);
+        }
+    }
+
+    /**
+     * 执行Lua脚本
+     *
+     * @param script Lua脚本内容
+     * @param keys   KEYS参数列表
+     * @param args   ARGV参数列表
+     * @return 脚本执行结果
+     */
+    public Object evalScript(String script, List<String> keys, List<String> args) {
+        try {
+            return jedis.eval(script, keys, args);
+        } catch (Exception e) {
+            logger.error("执行Lua脚本失败 keys:{}, args:{}, error:{}", keys, args, e.getMessage());
+            throw new RuntimeException("执行Lua脚本失败", e);
+        }
+    }
+
+    /**
+     * 获取List中指定区间的元素
+     */
+    public List<String> lrange(String key, long start, long stop) {
+        return jedis.lrange(key, start, stop);
+    }
+
+    /**
+     * 获取Set中的所有成员
+     */
+    public Set<String> smembers(String key) {
+        return jedis.smembers(key);
+    }
+
+    public long sadd(String key, String... members) {
+        return jedis.sadd(key, members);
+    }
+
+    public long srem(String key, String... members) {
+        return jedis.srem(key, members);
+    }
+
+    /**
+     * 向有序集合中添加成员，成员已存在时更新分数
+     */
+    public long zadd(String key, double score, String member) {
+        return jedis.zadd(key, score, member);
+    }
+
+    public long zrem(String key, String... members) {
+        return jedis.zrem(key, members);
+    }
+
+    /**
+     * 按分数范围获取有序集合的成员，成员 -> 分数
+     */
+    public Map<String, Double> zrangeByScoreWithScores(String key, double min, double max) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Tuple tuple : jedis.zrangeByScoreWithScores(key, min, max)) {
+            result.put(tuple.getElement(), tuple.getScore());
+        }
+        return result;
+    }
+
+    public long zremrangeByScore(String key, double min, double max) {
+        return jedis.zremrangeByScore(key, min, max);
+    }
+
+    public long publish(String channel, String message) {
+        return jedis.publish(channel, message);
+    }
+
+    /**
+     * 订阅频道，阻塞当前线程直到 pubSub 取消订阅或连接断开
+     */
+    public void subscribe(JedisPubSub pubSub, String... channels) {
+        jedis.subscribe(pubSub, channels);
+    }
 }
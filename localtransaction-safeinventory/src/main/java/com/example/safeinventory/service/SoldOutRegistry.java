@@ -0,0 +1,172 @@
+package com.example.safeinventory.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 售罄商品的进程内登记表，扣减前先查这里，已售罄的商品不再访问 Redis 和数据库
+ * <p>
+ * 扣减结果确认库存为 0 时调用 markSoldOut，写入 Redis 有序集合 inventory:soldout（分数为标记的过期时间）
+ * 并在 inventory:soldout:changed 频道广播 "SOLD_OUT:{productId}"；补货或回滚使库存恢复时调用 rearm 广播 "REARM:{productId}"。
+ * 启动和订阅重连时从 Redis 重新加载未过期的标记，并删除已过期的成员，漏掉 rearm 的标记不会一直留在 Redis 中。
+ * 每个标记最多保留 ttlMillis，过期后下一次扣减重新走完整链路确认，消息乱序或丢失导致的误判最多持续这么久。
+ */
+@Component
+public class SoldOutRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(SoldOutRegistry.class);
+
+    public static final String SOLD_OUT_KEY = "inventory:soldout";
+
+    public static final String CHANGED_CHANNEL = "inventory:soldout:changed";
+
+    private static final String SOLD_OUT = "SOLD_OUT";
+
+    private static final String REARM = "REARM";
+
+    private static final long RESUBSCRIBE_INTERVAL_MILLIS = 1000;
+
+    @Autowired
+    RedisDistributedLock redisDistributedLock;
+
+    @Value("${soldOut.ttlMillis:60000}")
+    private long ttlMillis;
+
+    /**
+     * productId -> 标记过期时间
+     */
+    private final Map<Integer, Long> soldOut = new ConcurrentHashMap<>();
+
+    private final JedisPubSub subscriber = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            reload();
+        }
+
+        @Override
+        public void onMessage(String channel, String message) {
+            onChanged(message);
+        }
+    };
+
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        Thread subscribeThread = new Thread(this::subscribeLoop, "sold-out-subscriber");
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    public boolean isSoldOut(int productId) {
+        Long expireAt = soldOut.get(productId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            soldOut.remove(productId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 商品库存已为 0，通知所有实例
+     */
+    public void markSoldOut(int productId) {
+        // 本地已标记说明已经广播过，售罄后的大量失败请求不会重复广播
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+        if (soldOut.put(productId, expireAt) != null) {
+            return;
+        }
+        logger.info("商品已售罄 productId:{}", productId);
+        try {
+            redisDistributedLock.zadd(SOLD_OUT_KEY, expireAt, String.valueOf(productId));
+            redisDistributedLock.publish(CHANGED_CHANNEL, SOLD_OUT + ":" + productId);
+        } catch (Exception e) {
+            logger.warn("广播售罄失败 productId:{}, error:{}", productId, e.getMessage());
+        }
+    }
+
+    /**
+     * 商品补货或回滚后恢复扣减，通知所有实例
+     */
+    public void rearm(int productId) {
+        soldOut.remove(productId);
+        try {
+            if (redisDistributedLock.zrem(SOLD_OUT_KEY, String.valueOf(productId)) > 0) {
+                redisDistributedLock.publish(CHANGED_CHANNEL, REARM + ":" + productId);
+                logger.info("商品恢复可售 productId:{}", productId);
+            }
+        } catch (Exception e) {
+            logger.warn("广播恢复可售失败 productId:{}, error:{}", productId, e.getMessage());
+        }
+    }
+
+    private void onChanged(String message) {
+        // 消息格式 SOLD_OUT:{productId} 或 REARM:{productId}
+        String[] parts = message.split(":");
+        if (parts.length != 2) {
+            logger.warn("无法解析售罄变更消息 message:{}", message);
+            return;
+        }
+        int productId = Integer.parseInt(parts[1]);
+        if (SOLD_OUT.equals(parts[0])) {
+            soldOut.put(productId, System.currentTimeMillis() + ttlMillis);
+        } else {
+            soldOut.remove(productId);
+        }
+    }
+
+    private void reload() {
+        try {
+            long now = System.currentTimeMillis();
+            redisDistributedLock.zremrangeByScore(SOLD_OUT_KEY, Double.NEGATIVE_INFINITY, now);
+            Map<String, Double> members =
+                    redisDistributedLock.zrangeByScoreWithScores(SOLD_OUT_KEY, now, Double.POSITIVE_INFINITY);
+            soldOut.clear();
+            members.forEach((member, expireAt) -> soldOut.put(Integer.parseInt(member), expireAt.longValue()));
+        } catch (Exception e) {
+            logger.warn("加载售罄商品失败 error:{}", e.getMessage());
+        }
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try {
+                redisDistributedLock.subscribe(subscriber, CHANGED_CHANNEL);
+            } catch (Exception e) {
+                logger.warn("售罄变更订阅断开，稍后重试 error:{}", e.getMessage());
+            }
+            if (!running) {
+                return;
+            }
+            // 断线期间可能错过恢复消息，清空后由扣减重新确认
+            soldOut.clear();
+            try {
+                Thread.sleep(RESUBSCRIBE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
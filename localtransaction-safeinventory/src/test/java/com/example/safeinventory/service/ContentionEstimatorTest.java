@@ -0,0 +1,46 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ContentionEstimatorTest {
+
+    @Test
+    void switchesToPessimisticAboveThreshold() {
+        ContentionEstimator estimator = new ContentionEstimator(0.5, 0.5, 4, 1000);
+
+        // 样本不足时不切换
+        Assertions.assertFalse(estimator.recordConflict(0));
+        Assertions.assertFalse(estimator.recordConflict(0));
+        Assertions.assertFalse(estimator.recordConflict(0));
+        Assertions.assertFalse(estimator.isPessimistic(0));
+
+        Assertions.assertTrue(estimator.recordConflict(0));
+        Assertions.assertTrue(estimator.isPessimistic(999));
+        // 已处于悲观模式时不重复切换
+        Assertions.assertFalse(estimator.recordConflict(10));
+    }
+
+    @Test
+    void successesLowerConflictRate() {
+        ContentionEstimator estimator = new ContentionEstimator(0.5, 0.7, 4, 1000);
+        estimator.recordConflict(0);
+        estimator.recordSuccess();
+        estimator.recordSuccess();
+
+        Assertions.assertEquals(0.25, estimator.getConflictRate(), 1e-9);
+        // 0.5 * 1 + 0.5 * 0.25 = 0.625，未超过阈值
+        Assertions.assertFalse(estimator.recordConflict(0));
+        Assertions.assertFalse(estimator.isPessimistic(0));
+    }
+
+    @Test
+    void returnsToOptimisticAfterHold() {
+        ContentionEstimator estimator = new ContentionEstimator(0.5, 0.5, 1, 1000);
+        Assertions.assertTrue(estimator.recordConflict(0));
+
+        Assertions.assertFalse(estimator.isPessimistic(1000));
+        Assertions.assertEquals(0, estimator.getConflictRate());
+        Assertions.assertTrue(estimator.recordConflict(1000));
+    }
+}
@@ -1,19 +1,35 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.common.BusinessException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootTest
 class InventoryByCheckingStockServiceTest {
+    private static final Logger logger = LoggerFactory.getLogger(InventoryByCheckingStockServiceTest.class);
 
     @Autowired
     InventoryByCheckingStockService inventoryByCheckingStockService;
 
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
     @Test
     void reduceInventory() {
 
@@ -36,4 +52,79 @@ class InventoryByCheckingStockServiceTest {
             executorService.shutdownNow();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 64 个买家并发扣减同一商品，对比先查询再扣减和单语句扣减的每次扣减语句数和吞吐量
+     * 运行方式：mvn test -Dbenchmark=true -Dtest=InventoryByCheckingStockServiceTest#singleStatementBenchmark
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void singleStatementBenchmark() throws InterruptedException {
+        runBenchmark("preRead", false, false);
+        runBenchmark("singleStatement", true, false);
+        runBenchmark("reportStock", true, true);
+    }
+
+    private void runBenchmark(String name, boolean singleStatement, boolean reportStock) throws InterruptedException {
+        int productId = 1;
+        int buyers = 64;
+        int ordersPerBuyer = 200;
+        jdbcTemplate.update("UPDATE inventory SET available_stock = ? WHERE product_id = ?",
+                buyers * ordersPerBuyer, productId);
+        soldOutRegistry.rearm(productId);
+
+        // 开关改在共享的 bean 上，结束后恢复，不影响同一上下文中的其他测试
+        Object target = AopTestUtils.getTargetObject(inventoryByCheckingStockService);
+        Object originalSingleStatement = ReflectionTestUtils.getField(target, "singleStatement");
+        Object originalReportStock = ReflectionTestUtils.getField(target, "reportStock");
+        ReflectionTestUtils.setField(target, "singleStatement", singleStatement);
+        ReflectionTestUtils.setField(target, "reportStock", reportStock);
+        try {
+            benchmark(name, productId, buyers, ordersPerBuyer);
+        } finally {
+            ReflectionTestUtils.setField(target, "singleStatement", originalSingleStatement);
+            ReflectionTestUtils.setField(target, "reportStock", originalReportStock);
+        }
+    }
+
+    private void benchmark(String name, int productId, int buyers, int ordersPerBuyer) throws InterruptedException {
+
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(buyers);
+        ExecutorService executor = Executors.newFixedThreadPool(buyers);
+        long questionsBefore = questions();
+        long start = System.nanoTime();
+        for (int i = 0; i < buyers; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < ordersPerBuyer; j++) {
+                    try {
+                        inventoryByCheckingStockService.reduceInventory(productId, 1);
+                        success.incrementAndGet();
+                    } catch (BusinessException e) {
+                        failed.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        long elapsedNanos = System.nanoTime() - start;
+        // 减去读取计数器本身的一条语句
+        long questions = questions() - questionsBefore - 1;
+        executor.shutdown();
+
+        int orders = buyers * ordersPerBuyer;
+        logger.info("{} success:{}/{}, failed:{}, statements/order:{}, throughput:{}/s",
+                name, success.get(), orders, failed.get(), String.format("%.2f", (double) questions / orders),
+                (long) (orders / (elapsedNanos / 1e9)));
+    }
+
+    /**
+     * 服务端收到的语句数，包括事务的 BEGIN/COMMIT
+     */
+    private long questions() {
+        return Long.parseLong(jdbcTemplate.queryForObject(
+                "SHOW GLOBAL STATUS LIKE 'Questions'", (rs, rowNum) -> rs.getString(2)));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest
+class InventoryDeductionCombinerTest {
+
+    @Autowired
+    InventoryDeductionCombiner inventoryDeductionCombiner;
+
+    @Test
+    void reduceInventory() {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(10); // 创建线程池
+
+        // 启动 100 个线程并发调用 targetMethod
+        for (int i = 0; i < 100; i++) {
+            executorService.submit(() -> {
+                inventoryDeductionCombiner.reduceInventory(1, 1);
+            });
+        }
+
+        executorService.shutdown(); // 停止接受新任务
+        try {
+            // 等待所有任务完成
+            if (!executorService.awaitTermination(60, TimeUnit.SECONDS)) {
+                executorService.shutdownNow(); // 如果超时则强制停止
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * leader 执行批次时抛出 Error，同批次的其他请求也要收到失败而不是一直等待
+     */
+    @Test
+    void errorInLeaderFailsWholeBatch() throws Exception {
+        InventoryDeductionCombiner combiner = new InventoryDeductionCombiner();
+        ReflectionTestUtils.setField(combiner, "inventoryForUpdateService", new InventoryForUpdateService() {
+            @Override
+            public List<Boolean> reduceInventoryInBatch(Integer productId, List<Integer> quantities) {
+                throw new StackOverflowError();
+            }
+        });
+        ReflectionTestUtils.setField(combiner, "windowMillis", 200L);
+        ReflectionTestUtils.setField(combiner, "maxBatchSize", 64);
+        ReflectionTestUtils.setField(combiner, "stripeCount", 1);
+        combiner.init();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<CompletableFuture<Boolean>> futures = List.of(
+                    CompletableFuture.supplyAsync(() -> combiner.reduceInventory(1, 1), executorService),
+                    CompletableFuture.supplyAsync(() -> combiner.reduceInventory(1, 1), executorService),
+                    CompletableFuture.supplyAsync(() -> combiner.reduceInventory(1, 1), executorService));
+            for (CompletableFuture<Boolean> future : futures) {
+                ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                        () -> future.get(5, TimeUnit.SECONDS));
+                Assertions.assertInstanceOf(StackOverflowError.class, e.getCause());
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.BusinessException;
+import com.example.safeinventory.common.InventoryErrorCodeEnum;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 冲突重试、重试耗尽和热点商品切换悲观路径
+ * 乐观扣减和悲观扣减都替换为计数的桩，只验证重试服务自身的决策，不依赖数据库
+ */
+class InventoryWithRetryServiceTest {
+
+    private static final int PRODUCT_ID = 1;
+
+    private InventoryWithRetryService inventoryWithRetryService;
+
+    /**
+     * 乐观扣减前 conflictsBeforeSuccess 次抛出版本冲突，之后成功
+     */
+    private int conflictsBeforeSuccess;
+
+    private final AtomicInteger optimisticCalls = new AtomicInteger();
+
+    private final AtomicInteger pessimisticCalls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        optimisticCalls.set(0);
+        pessimisticCalls.set(0);
+        inventoryWithRetryService = new InventoryWithRetryService();
+        ReflectionTestUtils.setField(inventoryWithRetryService, "inventoryWithVersionService", new InventoryWithVersionService() {
+            @Override
+            public boolean reduceInventory(Integer productId, Integer quantity) {
+                if (optimisticCalls.incrementAndGet() <= conflictsBeforeSuccess) {
+                    throw new BusinessException(InventoryErrorCodeEnum.VERSION_CONFLICT.getValue(), "库存扣减失败");
+                }
+                return true;
+            }
+        });
+        ReflectionTestUtils.setField(inventoryWithRetryService, "inventoryDeductionCombiner", new InventoryDeductionCombiner() {
+            @Override
+            public boolean reduceInventory(Integer productId, Integer quantity) {
+                pessimisticCalls.incrementAndGet();
+                return true;
+            }
+        });
+        ReflectionTestUtils.setField(inventoryWithRetryService, "maxAttempts", 5);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "baseBackoffMillis", 1L);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "maxBackoffMillis", 2L);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "ewmaAlpha", 0.5);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "conflictThreshold", 0.5);
+        // 默认样本数足够大，单次请求内的冲突不会触发切换
+        ReflectionTestUtils.setField(inventoryWithRetryService, "minSamples", 100);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "pessimisticHoldMillis", 60000L);
+        ReflectionTestUtils.setField(inventoryWithRetryService, "combineOnContention", true);
+    }
+
+    @Test
+    void retryOnVersionConflict() {
+        conflictsBeforeSuccess = 2;
+
+        Assertions.assertTrue(inventoryWithRetryService.reduceInventory(PRODUCT_ID, 1));
+
+        Assertions.assertEquals(3, optimisticCalls.get());
+        Assertions.assertEquals(0, pessimisticCalls.get());
+        InventoryWithRetryService.ProductStats stats = inventoryWithRetryService.getStats(PRODUCT_ID);
+        Assertions.assertEquals(3, stats.getAttempts());
+        Assertions.assertEquals(2, stats.getConflicts());
+        Assertions.assertEquals(1, stats.getSuccesses());
+        Assertions.assertEquals(0, stats.getFailures());
+    }
+
+    @Test
+    void giveUpAfterMaxAttempts() {
+        conflictsBeforeSuccess = Integer.MAX_VALUE;
+
+        BusinessException e = Assertions.assertThrows(BusinessException.class,
+                () -> inventoryWithRetryService.reduceInventory(PRODUCT_ID, 1));
+
+        Assertions.assertEquals(InventoryErrorCodeEnum.RETRY_EXHAUSTED.getValue(), e.getErrorCode());
+        Assertions.assertEquals(5, optimisticCalls.get());
+        Assertions.assertEquals(0, pessimisticCalls.get());
+        InventoryWithRetryService.ProductStats stats = inventoryWithRetryService.getStats(PRODUCT_ID);
+        Assertions.assertEquals(5, stats.getConflicts());
+        Assertions.assertEquals(1, stats.getFailures());
+    }
+
+    @Test
+    void otherErrorsAreNotRetried() {
+        ReflectionTestUtils.setField(inventoryWithRetryService, "inventoryWithVersionService", new InventoryWithVersionService() {
+            @Override
+            public boolean reduceInventory(Integer productId, Integer quantity) {
+                optimisticCalls.incrementAndGet();
+                throw new BusinessException(InventoryErrorCodeEnum.STOCK_IS_NOT_ENOUGH.getValue(), "库存不足");
+            }
+        });
+
+        BusinessException e = Assertions.assertThrows(BusinessException.class,
+                () -> inventoryWithRetryService.reduceInventory(PRODUCT_ID, 1));
+
+        Assertions.assertEquals(InventoryErrorCodeEnum.STOCK_IS_NOT_ENOUGH.getValue(), e.getErrorCode());
+        Assertions.assertEquals(1, optimisticCalls.get());
+    }
+
+    @Test
+    void hotProductSwitchesToPessimisticPath() {
+        ReflectionTestUtils.setField(inventoryWithRetryService, "minSamples", 3);
+        conflictsBeforeSuccess = Integer.MAX_VALUE;
+
+        // 连续 3 次冲突后冲突率超过阈值，本次请求改走悲观路径，不再等到重试耗尽
+        Assertions.assertTrue(inventoryWithRetryService.reduceInventory(PRODUCT_ID, 1));
+        Assertions.assertEquals(3, optimisticCalls.get());
+        Assertions.assertEquals(1, pessimisticCalls.get());
+
+        // 保持期内的后续请求直接走悲观路径，不再尝试乐观扣减
+        Assertions.assertTrue(inventoryWithRetryService.reduceInventory(PRODUCT_ID, 1));
+        Assertions.assertEquals(3, optimisticCalls.get());
+        Assertions.assertEquals(2, pessimisticCalls.get());
+
+        InventoryWithRetryService.ProductStats stats = inventoryWithRetryService.getStats(PRODUCT_ID);
+        Assertions.assertEquals(2, stats.getPessimistic());
+        Assertions.assertEquals(2, stats.getSuccesses());
+        Assertions.assertEquals(0, stats.getFailures());
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisReduceStockEnum;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.clients.jedis.JedisPooled;
+
+import java.util.UUID;
+
+/**
+ * 异步落库：扣减只写 Redis 和流水，flush 后数据库库存与 Redis 一致，流水重复落库不会重复扣减
+ * 默认配置下 writeBehind.enabled=false，后台落库线程不启动，测试中手动调用 flush
+ */
+@SpringBootTest
+class InventoryWriteBehindServiceTest {
+
+    private static final int PRODUCT_ID = 900004;
+
+    private static final int STOCK = 100;
+
+    @Autowired
+    InventoryWriteBehindService inventoryWriteBehindService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    JedisPooled jedis;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO inventory (product_id, total_stock, available_stock, journal_seq) VALUES (?, ?, ?, 0) " +
+                "ON DUPLICATE KEY UPDATE total_stock = VALUES(total_stock), available_stock = VALUES(available_stock), journal_seq = 0",
+                PRODUCT_ID, STOCK, STOCK);
+        jedis.del("inventory:journal:" + PRODUCT_ID, "inventory:journal:seq:" + PRODUCT_ID, "product_stock:" + PRODUCT_ID);
+        jedis.srem("inventory:journal:dirty", String.valueOf(PRODUCT_ID));
+        Assertions.assertTrue(inventoryWriteBehindService.initStock(PRODUCT_ID));
+        ReflectionTestUtils.setField(inventoryWriteBehindService, "maxJournalLength", 100000);
+    }
+
+    @Test
+    void flushAppliesJournalToDatabase() {
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(2));
+        }
+        // 落库前数据库库存不变，未落库流水计入对账
+        Assertions.assertEquals(STOCK, availableStock());
+        Assertions.assertEquals(0, inventoryWriteBehindService.reconcile(PRODUCT_ID));
+
+        inventoryWriteBehindService.flush();
+
+        Assertions.assertEquals(STOCK - 6, availableStock());
+        Assertions.assertEquals(3L, journalSeq());
+        Assertions.assertEquals(0, jedis.llen("inventory:journal:" + PRODUCT_ID));
+        Assertions.assertFalse(jedis.sismember("inventory:journal:dirty", String.valueOf(PRODUCT_ID)));
+        Assertions.assertEquals(0, inventoryWriteBehindService.reconcile(PRODUCT_ID));
+    }
+
+    @Test
+    void rollbackWritesCompensatingEntry() {
+        String requestId = UUID.randomUUID().toString();
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(),
+                inventoryWriteBehindService.reduceStock(PRODUCT_ID, 5, requestId));
+        inventoryWriteBehindService.rollbackStock(PRODUCT_ID, 5, requestId);
+
+        inventoryWriteBehindService.flush();
+
+        Assertions.assertEquals(String.valueOf(STOCK), jedis.get("product_stock:" + PRODUCT_ID));
+        Assertions.assertEquals(STOCK, availableStock());
+        Assertions.assertEquals(2L, journalSeq());
+    }
+
+    @Test
+    void replayedJournalIsNotAppliedTwice() {
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(4));
+        inventoryWriteBehindService.flush();
+        Assertions.assertEquals(STOCK - 4, availableStock());
+
+        // 模拟落库成功后实例崩溃、流水未删除：同一条流水再次出现在待落库列表中
+        jedis.rpush("inventory:journal:" + PRODUCT_ID, "1:4:" + System.currentTimeMillis() + ":replay");
+        jedis.sadd("inventory:journal:dirty", String.valueOf(PRODUCT_ID));
+        inventoryWriteBehindService.flush();
+
+        Assertions.assertEquals(STOCK - 4, availableStock());
+        Assertions.assertEquals(0, jedis.llen("inventory:journal:" + PRODUCT_ID));
+    }
+
+    @Test
+    void rejectsWhenJournalBacklogIsFull() {
+        ReflectionTestUtils.setField(inventoryWriteBehindService, "maxJournalLength", 2);
+
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(1));
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(1));
+        Assertions.assertEquals(RedisReduceStockEnum.JOURNAL_BACKLOG.getValue(), reduce(1));
+        // 被拒绝的请求不扣减 Redis 库存
+        Assertions.assertEquals(String.valueOf(STOCK - 2), jedis.get("product_stock:" + PRODUCT_ID));
+
+        inventoryWriteBehindService.flush();
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(1));
+    }
+
+    @Test
+    void reduceRequiresJournalSeq() {
+        jedis.del("inventory:journal:seq:" + PRODUCT_ID);
+
+        Assertions.assertEquals(RedisReduceStockEnum.STOCK_IS_NULL.getValue(), reduce(1));
+        Assertions.assertEquals(String.valueOf(STOCK), jedis.get("product_stock:" + PRODUCT_ID));
+    }
+
+    @Test
+    void initStockRaisesJournalSeq() {
+        // Redis 丢失了序号计数器，数据库已落库到序号 7
+        jdbcTemplate.update("UPDATE inventory SET journal_seq = 7 WHERE product_id = ?", PRODUCT_ID);
+        jedis.del("inventory:journal:seq:" + PRODUCT_ID);
+        Assertions.assertTrue(inventoryWriteBehindService.initStock(PRODUCT_ID));
+
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(2));
+        inventoryWriteBehindService.flush();
+
+        Assertions.assertEquals(STOCK - 2, availableStock());
+        Assertions.assertEquals(8L, journalSeq());
+    }
+
+    @Test
+    void reusedSeqIsNotTrimmed() {
+        // 计数器回退到旧值（例如从旧快照恢复），新流水的序号与已落库的序号重复
+        jdbcTemplate.update("UPDATE inventory SET journal_seq = 7 WHERE product_id = ?", PRODUCT_ID);
+        jedis.set("inventory:journal:seq:" + PRODUCT_ID, "0");
+        Assertions.assertEquals(RedisReduceStockEnum.REDUCE_SUCCESS.getValue(), reduce(3));
+
+        inventoryWriteBehindService.flush();
+
+        // 流水既不落库也不删除，商品留在待落库集合中等待人工对账
+        Assertions.assertEquals(STOCK, availableStock());
+        Assertions.assertEquals(7L, journalSeq());
+        Assertions.assertEquals(1, jedis.llen("inventory:journal:" + PRODUCT_ID));
+        Assertions.assertTrue(jedis.sismember("inventory:journal:dirty", String.valueOf(PRODUCT_ID)));
+    }
+
+    private long reduce(int quantity) {
+        return inventoryWriteBehindService.reduceStock(PRODUCT_ID, quantity, UUID.randomUUID().toString());
+    }
+
+    private int availableStock() {
+        return jdbcTemplate.queryForObject("SELECT available_stock FROM inventory WHERE product_id = ?",
+                Integer.class, PRODUCT_ID);
+    }
+
+    private long journalSeq() {
+        return jdbcTemplate.queryForObject("SELECT journal_seq FROM inventory WHERE product_id = ?",
+                Long.class, PRODUCT_ID);
+    }
+}
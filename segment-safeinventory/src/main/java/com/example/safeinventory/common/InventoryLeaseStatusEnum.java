@@ -0,0 +1,36 @@
+package com.example.safeinventory.common;
+
+/**
+ * 节点库存租约状态枚举
+ */
+public enum InventoryLeaseStatusEnum {
+
+    ACTIVE(1, "租约生效中"),
+    RELEASED(2, "租约已归还"),
+    ABANDONED(3, "持有节点失联，租约作废");
+
+    private final int code;
+    private final String description;
+
+    InventoryLeaseStatusEnum(int code, String description) {
+        this.code = code;
+        this.description = description;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static InventoryLeaseStatusEnum getByCode(int code) {
+        for (InventoryLeaseStatusEnum status : values()) {
+            if (status.getCode() == code) {
+                return status;
+            }
+        }
+        throw new IllegalArgumentException("Unknown status code: " + code);
+    }
+}
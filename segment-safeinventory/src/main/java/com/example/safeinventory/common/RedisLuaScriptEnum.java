@@ -0,0 +1,361 @@
+package com.example.safeinventory.common;
+
+/**
+ * 项目中使用的 Lua 脚本
+ * 启动时由 RedisScriptRegistry 通过 SCRIPT LOAD 预加载，运行时只通过 EVALSHA 传输 40 字节的脚本摘要
+ */
+public enum RedisLuaScriptEnum {
+
+    /**
+     * 使用 SET NX PX 实现分布式锁，加锁和设置过期时间在同一条命令中完成
+     * KEYS[1]: 锁key, ARGV[1]: 锁的值, ARGV[2]: 过期时间(毫秒)
+     */
+    ACQUIRE_LOCK("acquireLock",
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+                    "    return 1 " +
+                    "else " +
+                    "    return 0 " +
+                    "end"),
+
+    /**
+     * 获取分布式锁并分配围栏令牌，令牌计数器只增不减，后获取锁的持有者令牌一定更大
+     * KEYS[1]: 锁key, KEYS[2]: 令牌计数器, ARGV[1]: 锁的值, ARGV[2]: 过期时间(毫秒)
+     * 返回令牌，锁被占用时返回 0
+     */
+    ACQUIRE_FENCED_LOCK("acquireFencedLock",
+            "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then " +
+                    "    return redis.call('incr', KEYS[2]) " +
+                    "else " +
+                    "    return 0 " +
+                    "end"),
+
+    /**
+     * 只有持有锁的客户端才能释放锁
+     * KEYS[1]: 锁key, ARGV[1]: 锁的值
+     */
+    RELEASE_LOCK("releaseLock",
+            "if redis.call('get', KEYS[1]) == false then" +
+                    "    return 1 " +
+                    "elseif redis.call('get', KEYS[1]) == ARGV[1] then" +
+                    "    return redis.call('del', KEYS[1])" +
+                    "else" +
+                    "    return 2 " +
+                    "end"),
+
+    /**
+     * 锁续期，过期时间从续期时刻重新计算
+     * KEYS[1]: 锁key, ARGV[1]: 锁的值, ARGV[2]: 过期时间(毫秒)
+     */
+    EXTEND_LOCK("extendLock",
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+                    "    return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+                    "else " +
+                    "    return 0 " +
+                    "end"),
+
+    /**
+     * 扣减单个key上的库存，返回值见 RedisReduceStockEnum
+     * KEYS[1]: 库存key, ARGV[1]: 扣减数量
+     */
+    REDUCE_STOCK("reduceStock",
+            "local current_stock = tonumber(redis.call('GET', KEYS[1])) " +
+                    "local deduct_amount = tonumber(ARGV[1]) " +
+                    "if current_stock == nil then " +
+                    "    return -2 " +
+                    "elseif current_stock == 0 then " +
+                    "    return 0 " +
+                    "elseif current_stock < deduct_amount then " +
+                    "    return -1 " +
+                    "else " +
+                    "    redis.call('DECRBY', KEYS[1], deduct_amount) " +
+                    "    return 1 " +
+                    "end"),
+
+    /**
+     * 扣减Hash中某个分段的库存，分段库存为 0 时删除该分段；分段不存在返回 -2，库存不足返回 -1
+     * KEYS[1]: 分段库存Hash, ARGV[1]: 分段ID, ARGV[2]: 扣减数量
+     */
+    REDUCE_SEGMENT_STOCK("reduceSegmentStock",
+            "local stock = tonumber(redis.call('hget', KEYS[1], ARGV[1])) " +
+                    "if not stock then return -2 end " +
+                    "if stock >= tonumber(ARGV[2]) then " +
+                    "   local newStock = stock - tonumber(ARGV[2]) " +
+                    "   if newStock == 0 then " +
+                    "       redis.call('hdel', KEYS[1], ARGV[1]) " +
+                    "   else " +
+                    "       redis.call('hset', KEYS[1], ARGV[1], newStock) " +
+                    "   end " +
+                    "   return 1 " +
+                    "else " +
+                    "   return -1 " +
+                    "end"),
+
+    /**
+     * 在一个库存足够的分段上扣减，分段库存为 0 时删除该分段
+     * 先用 HRANDFIELD 随机取 ARGV[2] 个分段检查，只有样本中没有库存足够的分段时才用 HSCAN 分批遍历，
+     * 常见路径的开销与分段数无关；样本已覆盖全部分段时不再遍历
+     * 一次往返完成分段定位和扣减，返回扣减成功的分段ID；-2 表示没有可用分段，-1 表示所有分段库存都不足
+     * KEYS[1]: 分段库存Hash, ARGV[1]: 扣减数量, ARGV[2]: 采样数，同时作为 HSCAN 每批的 COUNT
+     */
+    REDUCE_ANY_SEGMENT_STOCK("reduceAnySegmentStock",
+            "local quantity = tonumber(ARGV[1]) " +
+                    "local sampleSize = tonumber(ARGV[2]) " +
+                    "local function deduct(fields) " +
+                    "    for i = 1, #fields, 2 do " +
+                    "        local stock = tonumber(fields[i + 1]) " +
+                    "        if stock >= quantity then " +
+                    "            if stock == quantity then " +
+                    "                redis.call('hdel', KEYS[1], fields[i]) " +
+                    "            else " +
+                    "                redis.call('hset', KEYS[1], fields[i], stock - quantity) " +
+                    "            end " +
+                    "            return tonumber(fields[i]) " +
+                    "        end " +
+                    "    end " +
+                    "    return nil " +
+                    "end " +
+                    "local sample = redis.call('hrandfield', KEYS[1], sampleSize, 'WITHVALUES') " +
+                    "if #sample == 0 then return -2 end " +
+                    "local segmentId = deduct(sample) " +
+                    "if segmentId then return segmentId end " +
+                    "if #sample / 2 < sampleSize then return -1 end " +
+                    "local cursor = '0' " +
+                    "repeat " +
+                    "    local page = redis.call('hscan', KEYS[1], cursor, 'COUNT', sampleSize) " +
+                    "    cursor = page[1] " +
+                    "    segmentId = deduct(page[2]) " +
+                    "    if segmentId then return segmentId end " +
+                    "until cursor == '0' " +
+                    "return -1"),
+
+    /**
+     * 在分段可用位图中查找不小于 ARGV[1] 的第一个置位分段
+     * BITPOS 的起点按字节计算，起点所在字节内的位逐个用 GETBIT 检查，剩余部分交给 BITPOS
+     * 返回分段ID；-1 表示没有可用分段，-2 表示位图不存在
+     * KEYS[1]: 分段可用位图, ARGV[1]: 起始分段ID
+     */
+    NEXT_AVAILABLE_SEGMENT("nextAvailableSegment",
+            "if redis.call('exists', KEYS[1]) == 0 then return -2 end " +
+                    "local from = tonumber(ARGV[1]) " +
+                    "local byte = math.floor(from / 8) " +
+                    "for bit = from, byte * 8 + 7 do " +
+                    "    if redis.call('getbit', KEYS[1], bit) == 1 then return bit end " +
+                    "end " +
+                    "return redis.call('bitpos', KEYS[1], 1, byte + 1)"),
+
+    /**
+     * 位图存在时设置分段对应的位并刷新过期时间；位图不存在时不创建（返回 0），
+     * 否则会留下一个没有过期时间、只有这一位的位图，查找时被当作其他分段都已无库存
+     * KEYS[1]: 分段可用位图, ARGV[1]: 分段ID, ARGV[2]: 0 或 1, ARGV[3]: 过期时间
+     */
+    SET_SEGMENT_BIT("setSegmentBit",
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+                    "redis.call('setbit', KEYS[1], ARGV[1], ARGV[2]) " +
+                    "redis.call('expire', KEYS[1], ARGV[3]) " +
+                    "return 1"),
+
+    /**
+     * 重建分段可用位图
+     * KEYS[1]: 分段可用位图, ARGV[1]: 过期时间, ARGV[2..]: 有库存的分段ID
+     */
+    RESET_SEGMENT_BITMAP("resetSegmentBitmap",
+            "redis.call('del', KEYS[1]) " +
+                    "for i = 2, #ARGV do " +
+                    "    redis.call('setbit', KEYS[1], ARGV[i], 1) " +
+                    "end " +
+                    "if #ARGV > 1 then redis.call('expire', KEYS[1], ARGV[1]) end " +
+                    "return #ARGV - 1"),
+
+    /**
+     * 版本号大于当前版本时才更新分段指针，更新后在 activeSegmentInfo:changed 频道发布 "KEYS[1]:版本号"
+     * KEYS[1]: 分段信息Hash, ARGV[1]: 新指针, ARGV[2]: 新版本号, ARGV[3]: 过期时间
+     */
+    UPDATE_SEGMENT_POINTER("updateSegmentPointer",
+            "local currentVersion = tonumber(redis.call('hget', KEYS[1], 'version') or '0') " +
+                    "local newVersion = tonumber(ARGV[2]) " +
+                    "if newVersion > currentVersion then " +
+                    "    redis.call('hmset', KEYS[1], " +
+                    "        'pointer', ARGV[1], " +
+                    "        'version', ARGV[2]) " +
+                    "    redis.call('expire', KEYS[1], ARGV[3]) " +
+                    "    redis.call('publish', 'activeSegmentInfo:changed', KEYS[1] .. ':' .. ARGV[2]) " +
+                    "    return 1 " +
+                    "else " +
+                    "    return 0 " +
+                    "end"),
+
+    /**
+     * 分段重新有了库存时把指针回退到该分段：指针已耗尽（-1）或已越过该分段时才修改，分段数不足时扩大到该分段ID，
+     * 版本号取当前版本加一与 ARGV[2] 中的较大值，修改后在 activeSegmentInfo:changed 频道发布 "KEYS[1]:版本号"
+     * 分段信息不存在时不创建，由下次初始化从数据库加载
+     * KEYS[1]: 分段信息Hash, ARGV[1]: 分段ID, ARGV[2]: 新版本号, ARGV[3]: 过期时间
+     */
+    REWIND_SEGMENT_POINTER("rewindSegmentPointer",
+            "if redis.call('exists', KEYS[1]) == 0 then return 0 end " +
+                    "local segmentId = tonumber(ARGV[1]) " +
+                    "local pointer = tonumber(redis.call('hget', KEYS[1], 'pointer') or '-1') " +
+                    "local count = tonumber(redis.call('hget', KEYS[1], 'count') or '0') " +
+                    "if pointer ~= -1 and pointer <= segmentId and count >= segmentId then return 0 end " +
+                    "local version = math.max(tonumber(redis.call('hget', KEYS[1], 'version') or '0') + 1, tonumber(ARGV[2])) " +
+                    "if pointer == -1 or pointer > segmentId then pointer = segmentId end " +
+                    "redis.call('hmset', KEYS[1], 'pointer', pointer, 'count', math.max(count, segmentId), 'version', version) " +
+                    "redis.call('expire', KEYS[1], ARGV[3]) " +
+                    "redis.call('publish', 'activeSegmentInfo:changed', KEYS[1] .. ':' .. version) " +
+                    "return 1"),
+
+    /**
+     * 初始化分段信息，并在 activeSegmentInfo:changed 频道发布 "KEYS[1]:版本号"
+     * KEYS[1]: 分段信息Hash, ARGV[1]: 指针, ARGV[2]: 分段数, ARGV[3]: 版本号, ARGV[4]: 过期时间
+     */
+    INIT_SEGMENT_INFO("initSegmentInfo",
+            "redis.call('hmset', KEYS[1], " +
+                    "   'pointer', ARGV[1], " +
+                    "   'count', ARGV[2], " +
+                    "   'version', ARGV[3]) " +
+                    "redis.call('expire', KEYS[1], ARGV[4]) " +
+                    "redis.call('publish', 'activeSegmentInfo:changed', KEYS[1] .. ':' .. ARGV[3]) " +
+                    "return 1"),
+
+    /**
+     * 预热单个商品：分段信息和分段库存Hash不存在时才写入，不覆盖运行中已被修改的数据
+     * KEYS[1]: 分段信息Hash, KEYS[2]: 分段库存Hash,
+     * ARGV[1]: 指针, ARGV[2]: 分段数, ARGV[3]: 版本号, ARGV[4]: 过期时间, ARGV[5..]: [segmentId1, stock1, ...]
+     */
+    PREWARM_SEGMENTS("prewarmSegments",
+            "local written = 0 " +
+                    "if redis.call('exists', KEYS[1]) == 0 then " +
+                    "   redis.call('hmset', KEYS[1], 'pointer', ARGV[1], 'count', ARGV[2], 'version', ARGV[3]) " +
+                    "   redis.call('expire', KEYS[1], ARGV[4]) " +
+                    "   written = written + 1 " +
+                    "end " +
+                    "if #ARGV > 4 and redis.call('exists', KEYS[2]) == 0 then " +
+                    "   redis.call('hset', KEYS[2], unpack(ARGV, 5)) " +
+                    "   written = written + 1 " +
+                    "end " +
+                    "return written"),
+
+    /**
+     * 原子获取分段信息 {pointer, count, version}
+     * KEYS[1]: 分段信息Hash
+     */
+    GET_SEGMENT_INFO("getSegmentInfo",
+            "return {" +
+                    "  redis.call('hget', KEYS[1], 'pointer')," +
+                    "  redis.call('hget', KEYS[1], 'count')," +
+                    "  redis.call('hget', KEYS[1], 'version')" +
+                    "}"),
+
+    /**
+     * 获取Hash的所有字段和值，Hash不存在时返回nil
+     * KEYS[1]: 分段库存Hash
+     */
+    GET_SEGMENTS_STOCK("getSegmentsStock",
+            "local result = {}; " +
+                    "local fields = redis.call('hgetall', KEYS[1]); " +
+                    "if #fields == 0 then return nil end; " +
+                    "for i = 1, #fields, 2 do " +
+                    "  table.insert(result, {fields[i], fields[i+1]}); " +
+                    "end; " +
+                    "return result;"),
+
+    /**
+     * 使用HSET一次性设置多个分段库存
+     * KEYS[1]: 分段库存Hash, ARGV: [segmentId1, stock1, segmentId2, stock2, ...]
+     */
+    SET_SEGMENTS_STOCK("setSegmentsStock",
+            "return redis.call('hset', KEYS[1], unpack(ARGV))"),
+
+    /**
+     * 在线合并碎片分段：删除碎片分段字段，剩余库存按分段大小拆到新的分段字段中
+     * 已退役分段Hash记录碎片分段 -> 吸收其库存的第一个新分段ID（没有剩余库存时为 0），供 ROLLBACK_SEGMENT_STOCK 转投
+     * 之后的扣减不会再落到碎片分段上，返回每个碎片分段被删除时的库存（不存在为 0）
+     * KEYS[1]: 分段库存Hash, KEYS[2]: 已退役分段Hash, ARGV[1]: 新分段大小, ARGV[2]: 第一个新分段ID, ARGV[3..]: 碎片分段ID
+     */
+    COMPACT_SEGMENTS("compactSegments",
+            "local stocks = {} " +
+                    "local total = 0 " +
+                    "for i = 3, #ARGV do " +
+                    "  local stock = tonumber(redis.call('hget', KEYS[1], ARGV[i])) or 0 " +
+                    "  redis.call('hdel', KEYS[1], ARGV[i]) " +
+                    "  stocks[#stocks + 1] = stock " +
+                    "  total = total + stock " +
+                    "end " +
+                    "local absorbedBy = total > 0 and ARGV[2] or '0' " +
+                    "for i = 3, #ARGV do " +
+                    "  redis.call('hset', KEYS[2], ARGV[i], absorbedBy) " +
+                    "end " +
+                    "redis.call('expire', KEYS[2], 86400) " +
+                    "local size = tonumber(ARGV[1]) " +
+                    "local segmentId = tonumber(ARGV[2]) " +
+                    "while total > 0 do " +
+                    "  local stock = math.min(size, total) " +
+                    "  redis.call('hset', KEYS[1], segmentId, stock) " +
+                    "  total = total - stock " +
+                    "  segmentId = segmentId + 1 " +
+                    "end " +
+                    "return stocks"),
+
+    /**
+     * 撤销在线合并：删除新分段字段，碎片分段按合并前的库存恢复并移出已退役分段Hash
+     * 撤销期间已转投到新分段的回滚数量（{碎片分段ID}:credited）一并加回碎片分段；
+     * 新分段记为 discarded 墓碑，新分段上的扣减已随撤销作废，之后到达的回滚不能让新分段在Hash中复活
+     * KEYS[1]: 分段库存Hash, KEYS[2]: 已退役分段Hash, ARGV: [新分段ID数量, 新分段ID..., 碎片分段ID1, 库存1, ...]
+     */
+    RESTORE_COMPACTED_SEGMENTS("restoreCompactedSegments",
+            "local count = tonumber(ARGV[1]) " +
+                    "for i = 2, count + 1 do " +
+                    "  redis.call('hdel', KEYS[1], ARGV[i]) " +
+                    "  redis.call('hset', KEYS[2], ARGV[i], 'discarded') " +
+                    "end " +
+                    "for i = count + 2, #ARGV, 2 do " +
+                    "  local credited = tonumber(redis.call('hget', KEYS[2], ARGV[i] .. ':credited')) or 0 " +
+                    "  redis.call('hdel', KEYS[2], ARGV[i], ARGV[i] .. ':credited') " +
+                    "  local stock = tonumber(ARGV[i + 1]) + credited " +
+                    "  if stock > 0 then " +
+                    "    redis.call('hset', KEYS[1], ARGV[i], stock) " +
+                    "  end " +
+                    "end " +
+                    "redis.call('expire', KEYS[2], 86400) " +
+                    "return 1"),
+
+    /**
+     * 回滚某个分段的扣减
+     * 分段已被在线合并退役时，回滚数量转投到吸收其库存的分段（沿退役链查找），退役分段不会在Hash中复活；
+     * 分段是被撤销的合并的新分段（discarded）时不回滚，该分段上的扣减已随撤销作废
+     * 返回实际加回库存的分段ID；0 表示无需回滚；-1 表示合并时没有剩余库存、没有可转投的分段
+     * KEYS[1]: 分段库存Hash, KEYS[2]: 已退役分段Hash, ARGV[1]: 分段ID, ARGV[2]: 回滚数量
+     */
+    ROLLBACK_SEGMENT_STOCK("rollbackSegmentStock",
+            "local segmentId = ARGV[1] " +
+                    "for hop = 1, 16 do " +
+                    "  local absorbedBy = redis.call('hget', KEYS[2], segmentId) " +
+                    "  if not absorbedBy then " +
+                    "    redis.call('hincrby', KEYS[1], segmentId, ARGV[2]) " +
+                    "    if hop > 1 then " +
+                    "      redis.call('hincrby', KEYS[2], ARGV[1] .. ':credited', ARGV[2]) " +
+                    "    end " +
+                    "    return tonumber(segmentId) " +
+                    "  end " +
+                    "  if absorbedBy == 'discarded' then return 0 end " +
+                    "  if absorbedBy == '0' then return -1 end " +
+                    "  segmentId = absorbedBy " +
+                    "end " +
+                    "return -1");
+
+    private final String name;
+
+    private final String script;
+
+    RedisLuaScriptEnum(String name, String script) {
+        this.name = name;
+        this.script = script;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getScript() {
+        return script;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.safeinventory.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import redis.clients.jedis.ConnectionPoolConfig;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Redis 连接池配置
+ * JedisPooled 内部维护连接池，每个命令从池中借出连接、执行完成后归还，可以被多个请求线程安全地共享。
+ * 配置了 spring.data.redis.cluster.nodes 时改用 JedisCluster，客户端维护槽位表，按 key 的槽位把命令路由到对应节点；
+ * 集群模式下一个脚本或 MGET 涉及的 key 必须在同一个槽位，商品分段库存的分片见 RedisOperationService.stockShardKey
+ */
+@Configuration
+public class RedisConfig {
+
+    @Value("${spring.data.redis.host:localhost}")
+    private String redisHost;
+
+    @Value("${spring.data.redis.port:6379}")
+    private int redisPort;
+
+    /**
+     * 集群节点列表，格式 host1:port1,host2:port2，为空时使用单节点
+     */
+    @Value("${spring.data.redis.cluster.nodes:}")
+    private String clusterNodes;
+
+    @Value("${spring.data.redis.cluster.max-redirects:5}")
+    private int maxRedirects;
+
+    @Value("${spring.data.redis.password:}")
+    private String redisPassword;
+
+    @Value("${spring.data.redis.timeout:2000ms}")
+    private Duration timeout;
+
+    @Value("${spring.data.redis.jedis.pool.max-active:64}")
+    private int maxActive;
+
+    @Value("${spring.data.redis.jedis.pool.max-idle:32}")
+    private int maxIdle;
+
+    @Value("${spring.data.redis.jedis.pool.min-idle:8}")
+    private int minIdle;
+
+    @Value("${spring.data.redis.jedis.pool.max-wait:1000ms}")
+    private Duration maxWait;
+
+    @Bean(destroyMethod = "close")
+    public UnifiedJedis unifiedJedis() {
+        ConnectionPoolConfig poolConfig = new ConnectionPoolConfig();
+        poolConfig.setMaxTotal(maxActive);
+        poolConfig.setMaxIdle(maxIdle);
+        poolConfig.setMinIdle(minIdle);
+        // 连接池耗尽时最多等待 maxWait，避免请求线程无限期阻塞
+        poolConfig.setMaxWait(maxWait);
+        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setTestWhileIdle(true);
+
+        DefaultJedisClientConfig clientConfig = DefaultJedisClientConfig.builder()
+                .timeoutMillis((int) timeout.toMillis())
+                .password(redisPassword.isEmpty() ? null : redisPassword)
+                .build();
+
+        if (!clusterNodes.isBlank()) {
+            // 集群模式下每个节点一个连接池
+            return new JedisCluster(parseClusterNodes(), clientConfig, maxRedirects, poolConfig);
+        }
+        return new JedisPooled(new HostAndPort(redisHost, redisPort), clientConfig, poolConfig);
+    }
+
+    private Set<HostAndPort> parseClusterNodes() {
+        return Arrays.stream(clusterNodes.split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .map(HostAndPort::from)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.safeinventory.mapper;
+
+
+import com.example.safeinventory.model.InventoryLeaseModel;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface InventoryLeaseMapper {
+
+    /**
+     * 新增租约，到期时间以数据库时间计算
+     */
+    int insertLease(@Param("lease") InventoryLeaseModel lease,
+                    @Param("ttlMillis") long ttlMillis);
+
+    /**
+     * 归还租约，记录归还的数量
+     */
+    int releaseLease(@Param("leaseId") String leaseId,
+                     @Param("returnedQuantity") int returnedQuantity);
+
+    /**
+     * 续期
+     */
+    int renewLease(@Param("leaseId") String leaseId,
+                   @Param("ttlMillis") long ttlMillis);
+
+    /**
+     * 将过期超过 graceMillis 仍未归还的租约标记为作废
+     */
+    int abandonExpiredLeases(@Param("graceMillis") long graceMillis);
+}
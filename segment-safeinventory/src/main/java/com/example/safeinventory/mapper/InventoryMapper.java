@@ -5,6 +5,8 @@ import com.example.safeinventory.model.InventoryModel;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.List;
+
 @Mapper
 public interface InventoryMapper {
 
@@ -14,5 +16,20 @@ public interface InventoryMapper {
 
     InventoryModel selectByProductIdForUpdate(@Param("productId") Integer productId);
 
+    /**
+     * 按 product_id 键集分页，返回大于 lastProductId 的至多 limit 个商品ID
+     */
+    List<Integer> selectProductIdsAfter(@Param("lastProductId") int lastProductId,
+                                        @Param("limit") int limit);
+
+    /**
+     * 把商品的围栏令牌推进到 fencingToken，令牌小于已接受的最大令牌时不更新
+     * 在事务中执行时同时持有商品行锁直到提交，持有过期令牌的写入在此之后也会被拒绝
+     *
+     * @return 1 令牌有效，0 令牌已过期
+     */
+    int advanceFencingToken(@Param("productId") int productId,
+                            @Param("fencingToken") long fencingToken);
+
 }
 
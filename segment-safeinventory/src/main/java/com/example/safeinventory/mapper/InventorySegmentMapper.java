@@ -4,6 +4,7 @@ package com.example.safeinventory.mapper;
 import com.example.safeinventory.model.InventorySegmentModel;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 import java.util.List;
 
@@ -13,34 +14,67 @@ public interface InventorySegmentMapper {
     // 批量插入 InventorySegment
     int batchInsert(@Param("segments") List<InventorySegmentModel> segments);
 
+    // 插入单个分段，配合 BATCH 执行器和 rewriteBatchedStatements 批量写入
+    int insertSegment(InventorySegmentModel segment);
+
     // 根据商品ID获取所有库存分段，并且只返回有可用库存的分段
     List<InventorySegmentModel> getSegmentsByProductId(@Param("productId") int productId);
 
     InventorySegmentModel getSegmentForUpdate(@Param("productId") int productId,
                                               @Param("segmentId") int segmentId);
 
+    /**
+     * 一次查询定位 segmentId 不小于 fromSegmentId、库存足够的第一个有效分段，并加锁
+     */
+    InventorySegmentModel getFirstAvailableSegmentForUpdate(@Param("productId") int productId,
+                                                            @Param("fromSegmentId") int fromSegmentId,
+                                                            @Param("quantity") int quantity);
+
+    /**
+     * 有库存的有效分段ID，用于重建分段可用位图
+     */
+    List<Integer> getAvailableSegmentIds(@Param("productId") int productId);
+
     int reduceAvailableStockWithVersion(@Param("productId") int productId,
                                         @Param("segmentId") int segmentId,
                                         @Param("quantity") int quantity,
                                         @Param("version") int version);
 
+    /**
+     * 向有效分段归还库存
+     */
+    int returnAvailableStock(@Param("productId") int productId,
+                             @Param("segmentId") int segmentId,
+                             @Param("quantity") int quantity);
+
     /**
      * 将指定商品的所有分段标记为无效
      */
     int invalidateSegments(@Param("productId") int productId);
 
+    /**
+     * 将商品的指定分段标记为无效，用于在线合并
+     */
+    int invalidateSegmentsByIds(@Param("productId") int productId,
+                                @Param("segmentIds") List<Integer> segmentIds);
+
     /**
      * 获取商品的有效分段
      */
     List<InventorySegmentModel> getValidSegmentsByProductId(@Param("productId") int productId);
 
+    /**
+     * 批量获取多个商品有库存的有效分段，按商品和分段ID排序
+     */
+    List<InventorySegmentModel> getAvailableSegmentsByProductIds(@Param("productIds") List<Integer> productIds);
+
     /**
      * 获取指定商品的最大分段ID
      */
     Integer getMaxSegmentId(@Param("productId") int productId);
 
     /**
-     * 获取所有有效的库存分段
+     * 流式读取商品的有效分段，需在事务中使用并在读取完后关闭
      */
-    List<InventorySegmentModel> getAllValidSegments();
+    Cursor<InventorySegmentModel> streamValidSegmentsByProductId(@Param("productId") int productId);
 }
@@ -15,6 +15,13 @@ public class ActiveSegmentInfo {
         this.version = version;
     }
 
+    /**
+     * 复制一份，近端缓存中的对象不直接交给调用方修改
+     */
+    public ActiveSegmentInfo copy() {
+        return new ActiveSegmentInfo(currentPointer, totalSegments, version);
+    }
+
     public void setCurrentPointer(int currentPointer) {
         this.currentPointer = currentPointer;
     }
@@ -0,0 +1,132 @@
+package com.example.safeinventory.model;
+
+import java.time.LocalDateTime;
+
+public class InventoryLeaseModel {
+    private Long id;
+
+    private String leaseId;
+
+    private String nodeId;
+
+    private Integer productId;
+
+    private Integer segmentId;
+
+    private Integer quantity;
+
+    private Integer returnedQuantity;
+
+    private Integer status;
+
+    private LocalDateTime expireTime;
+
+    private LocalDateTime createTime;
+
+    private LocalDateTime updateTime;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public void setLeaseId(String leaseId) {
+        this.leaseId = leaseId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public Integer getProductId() {
+        return productId;
+    }
+
+    public void setProductId(Integer productId) {
+        this.productId = productId;
+    }
+
+    public Integer getSegmentId() {
+        return segmentId;
+    }
+
+    public void setSegmentId(Integer segmentId) {
+        this.segmentId = segmentId;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public Integer getReturnedQuantity() {
+        return returnedQuantity;
+    }
+
+    public void setReturnedQuantity(Integer returnedQuantity) {
+        this.returnedQuantity = returnedQuantity;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getExpireTime() {
+        return expireTime;
+    }
+
+    public void setExpireTime(LocalDateTime expireTime) {
+        this.expireTime = expireTime;
+    }
+
+    public LocalDateTime getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(LocalDateTime createTime) {
+        this.createTime = createTime;
+    }
+
+    public LocalDateTime getUpdateTime() {
+        return updateTime;
+    }
+
+    public void setUpdateTime(LocalDateTime updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "InventoryLeaseModel{" +
+                "id=" + id +
+                ", leaseId='" + leaseId + '\'' +
+                ", nodeId='" + nodeId + '\'' +
+                ", productId=" + productId +
+                ", segmentId=" + segmentId +
+                ", quantity=" + quantity +
+                ", returnedQuantity=" + returnedQuantity +
+                ", status=" + status +
+                ", expireTime=" + expireTime +
+                ", createTime=" + createTime +
+                ", updateTime=" + updateTime +
+                '}';
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.model.ActiveSegmentInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ActiveSegmentInfo 的进程内近端缓存
+ * <p>
+ * 分段指针只在 UPDATE_SEGMENT_POINTER / REWIND_SEGMENT_POINTER / INIT_SEGMENT_INFO 脚本中修改，脚本修改后在 activeSegmentInfo:changed
+ * 频道发布 "activeSegmentInfo:{productId}:version"，收到比本地更新的版本时删除本地缓存，下次读取时从 Redis 重新加载。
+ * 订阅连接断开期间可能漏掉消息，因此重连时清空缓存，并以 maxAgeMillis 兜底限制缓存最长存活时间。
+ * <p>
+ * 缓存中的指针过期只会导致扣减落到已耗尽的分段上失败，数据库 FOR UPDATE 仍会校验分段库存，不会超卖；
+ * 扣减失败时调用方应 invalidate 后再走重新定位分段的流程。
+ */
+@Component
+public class ActiveSegmentInfoCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveSegmentInfoCache.class);
+
+    public static final String CHANGED_CHANNEL = "activeSegmentInfo:changed";
+
+    private static final long RESUBSCRIBE_INTERVAL_MILLIS = 1000;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Value("${segmentCache.maxAgeMillis:5000}")
+    private long maxAgeMillis;
+
+    private final Map<Integer, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    private final JedisPubSub subscriber = new JedisPubSub() {
+        @Override
+        public void onMessage(String channel, String message) {
+            onChanged(message);
+        }
+    };
+
+    private volatile boolean running;
+
+    private Thread subscribeThread;
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        subscribeThread = new Thread(this::subscribeLoop, "active-segment-info-subscriber");
+        subscribeThread.setDaemon(true);
+        subscribeThread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (subscriber.isSubscribed()) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    /**
+     * 获取缓存的分段信息副本，未命中或已超过最长存活时间时返回 null
+     */
+    public ActiveSegmentInfo get(int productId) {
+        CacheEntry entry = cache.get(productId);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadTime > maxAgeMillis) {
+            cache.remove(productId, entry);
+            return null;
+        }
+        return entry.info.copy();
+    }
+
+    /**
+     * 放入从 Redis 读到的分段信息，已缓存更新版本时忽略
+     */
+    public void put(int productId, ActiveSegmentInfo info) {
+        CacheEntry entry = new CacheEntry(info.copy(), System.currentTimeMillis());
+        cache.merge(productId, entry,
+                (oldEntry, newEntry) -> oldEntry.info.getVersion() > newEntry.info.getVersion() ? oldEntry : newEntry);
+    }
+
+    public void invalidate(int productId) {
+        cache.remove(productId);
+    }
+
+    private void onChanged(String message) {
+        // 消息格式 activeSegmentInfo:{productId}:version，商品ID带 hash tag 的花括号
+        String[] parts = message.split(":");
+        if (parts.length != 3 || !parts[1].startsWith("{") || !parts[1].endsWith("}")) {
+            logger.warn("无法解析分段信息变更消息 message:{}", message);
+            return;
+        }
+        int productId = Integer.parseInt(parts[1].substring(1, parts[1].length() - 1));
+        long version = Long.parseLong(parts[2]);
+        cache.computeIfPresent(productId, (k, entry) -> entry.info.getVersion() < version ? null : entry);
+    }
+
+    private void subscribeLoop() {
+        while (running) {
+            try {
+                // 订阅前清空，覆盖断线期间错过的变更
+                cache.clear();
+                redisOperationService.subscribe(subscriber, CHANGED_CHANNEL);
+            } catch (Exception e) {
+                logger.warn("分段信息变更订阅断开，稍后重试 error:{}", e.getMessage());
+            }
+            if (!running) {
+                return;
+            }
+            cache.clear();
+            try {
+                Thread.sleep(RESUBSCRIBE_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static class CacheEntry {
+        private final ActiveSegmentInfo info;
+        private final long loadTime;
+
+        CacheEntry(ActiveSegmentInfo info, long loadTime) {
+            this.info = info;
+            this.loadTime = loadTime;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.InventoryLeaseStatusEnum;
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import com.example.safeinventory.mapper.InventoryLeaseMapper;
+import com.example.safeinventory.mapper.InventorySegmentMapper;
+import com.example.safeinventory.model.InventoryLeaseModel;
+import com.example.safeinventory.model.InventorySegmentModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 节点库存租约的数据库操作
+ * 租出的库存在同一个事务中从分段扣除并记录租约，归还时加回分段，分段库存与租约合计始终等于剩余库存
+ * <p>
+ * 租约只在数据库分段上租出和归还，服务于 InventorySegmentService 的分段扣减；Redis 中的分段库存不随租约变化，
+ * 因此同一商品不能同时使用租约和 Redis 分段库存的扣减路径
+ */
+@Service
+public class InventoryLeaseService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventoryLeaseService.class);
+
+    @Autowired
+    private InventorySegmentMapper inventorySegmentMapper;
+
+    @Autowired
+    private InventoryLeaseMapper inventoryLeaseMapper;
+
+    @Autowired
+    SegmentAvailabilityBitmap segmentAvailabilityBitmap;
+
+    @Autowired
+    SegmentChangeTracker segmentChangeTracker;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    private static final String SEGMENT_INFO_KEY = "activeSegmentInfo:";
+
+    private static final int SEGMENT_INFO_EXPIRE_TIME = 24 * 60 * 60;
+
+    /**
+     * 从第一个库存足够的分段中租出库存，分段库存不足 quantity 时租出该分段的全部剩余库存
+     *
+     * @return 租约，没有可用库存时返回 null
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public InventoryLeaseModel claim(String nodeId, int productId, int minQuantity, int quantity, long ttlMillis) {
+        InventorySegmentModel segment =
+                inventorySegmentMapper.getFirstAvailableSegmentForUpdate(productId, 1, minQuantity);
+        if (segment == null) {
+            return null;
+        }
+        int leased = Math.min(quantity, segment.getAvailableStock());
+        int updated = inventorySegmentMapper.reduceAvailableStockWithVersion(
+                productId, segment.getSegmentId(), leased, segment.getVersion());
+        if (updated != 1) {
+            return null;
+        }
+
+        InventoryLeaseModel lease = new InventoryLeaseModel();
+        lease.setLeaseId(UUID.randomUUID().toString());
+        lease.setNodeId(nodeId);
+        lease.setProductId(productId);
+        lease.setSegmentId(segment.getSegmentId());
+        lease.setQuantity(leased);
+        lease.setStatus(InventoryLeaseStatusEnum.ACTIVE.getCode());
+        inventoryLeaseMapper.insertLease(lease, ttlMillis);
+        segmentChangeTracker.markDirty(productId);
+
+        if (leased == segment.getAvailableStock()) {
+            segmentAvailabilityBitmap.markEmpty(productId, segment.getSegmentId());
+        }
+        logger.info("租出库存 productId:{}, segmentId:{}, quantity:{}, leaseId:{}",
+                productId, segment.getSegmentId(), leased, lease.getLeaseId());
+        return lease;
+    }
+
+    /**
+     * 归还租约中未使用的库存
+     * 原分段已被合并作废时，剩余库存归还到最后一个有效分段，没有有效分段时才放入一个新分段；
+     * 归还后位图置位，分段指针已越过或已耗尽时回退到归还的分段，分段扣减才能找到这部分库存
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public void release(String leaseId, int productId, int segmentId, int remaining) {
+        // 先结束租约，已被作废的租约不再归还库存，由对账处理
+        if (inventoryLeaseMapper.releaseLease(leaseId, remaining) != 1) {
+            logger.warn("租约已不是生效状态，不归还库存 productId:{}, leaseId:{}, remaining:{}",
+                    productId, leaseId, remaining);
+            return;
+        }
+        if (remaining > 0) {
+            int targetSegmentId = segmentId;
+            if (inventorySegmentMapper.returnAvailableStock(productId, segmentId, remaining) == 0) {
+                targetSegmentId = returnToLiveSegment(productId, remaining);
+            }
+            segmentAvailabilityBitmap.markAvailable(productId, targetSegmentId);
+            rewindSegmentPointer(productId, targetSegmentId);
+            soldOutRegistry.rearm(productId);
+        }
+        logger.info("归还租约 productId:{}, segmentId:{}, remaining:{}, leaseId:{}",
+                productId, segmentId, remaining, leaseId);
+    }
+
+    /**
+     * 原分段已作废时归还到最后一个有效分段，它不会落在分段指针之前
+     *
+     * @return 实际归还的分段ID
+     */
+    private int returnToLiveSegment(int productId, int remaining) {
+        List<InventorySegmentModel> validSegments = inventorySegmentMapper.getValidSegmentsByProductId(productId);
+        if (!validSegments.isEmpty()) {
+            int liveSegmentId = validSegments.get(validSegments.size() - 1).getSegmentId();
+            if (inventorySegmentMapper.returnAvailableStock(productId, liveSegmentId, remaining) == 1) {
+                return liveSegmentId;
+            }
+        }
+        Integer maxSegmentId = inventorySegmentMapper.getMaxSegmentId(productId);
+        InventorySegmentModel segment = new InventorySegmentModel();
+        segment.setProductId(productId);
+        segment.setSegmentId(maxSegmentId == null ? 1 : maxSegmentId + 1);
+        segment.setTotalStock(remaining);
+        segment.setAvailableStock(remaining);
+        inventorySegmentMapper.insertSegment(segment);
+        return segment.getSegmentId();
+    }
+
+    private void rewindSegmentPointer(int productId, int segmentId) {
+        redisOperationService.evalScript(RedisLuaScriptEnum.REWIND_SEGMENT_POINTER,
+                Collections.singletonList(RedisOperationService.productKey(SEGMENT_INFO_KEY, productId)),
+                List.of(String.valueOf(segmentId), String.valueOf(System.currentTimeMillis()),
+                        String.valueOf(SEGMENT_INFO_EXPIRE_TIME)));
+    }
+
+    public boolean renew(String leaseId, long ttlMillis) {
+        return inventoryLeaseMapper.renewLease(leaseId, ttlMillis) == 1;
+    }
+
+    /**
+     * 持有节点失联的租约无法得知已使用数量，只能作废，对应库存少卖不会超卖
+     */
+    public int abandonExpiredLeases(long graceMillis) {
+        int count = inventoryLeaseMapper.abandonExpiredLeases(graceMillis);
+        if (count > 0) {
+            logger.error("作废失联节点的租约 count:{}，需与订单数据对账后人工回补库存", count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.BusinessException;
+import com.example.safeinventory.mapper.InventoryMapper;
+import com.example.safeinventory.mapper.InventorySegmentMapper;
+import com.example.safeinventory.model.InventoryModel;
+import com.example.safeinventory.model.InventorySegmentModel;
+import com.example.safeinventory.strategy.SegmentSizingStrategy;
+import jakarta.annotation.PostConstruct;
+import org.apache.ibatis.session.ExecutorType;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * 大库存商品的分段流式创建
+ * <p>
+ * createInventoryWithSegments 一次性构造全部分段并在一个事务中用一条多值 INSERT 写入，
+ * 库存很大时语句可能超过 max_allowed_packet，并长时间持有锁。这里按需生成分段，每 chunkSize 个分段一个事务，
+ * 使用 MyBatis BATCH 执行器配合驱动的 rewriteBatchedStatements 写库；每个分块提交后用管道把分段库存写入
+ * Redis 的 product_stock 分片 Hash（见 RedisOperationService.stockShardKey）和分段可用位图。
+ * <p>
+ * 分段内容只由 (totalStock, segmentStock, segmentId) 决定，可以从任意位置重新生成。进度记录在
+ * inventory:bulkload:{productId}：数据库以已提交的最大 segmentId 为准，Redis 以 redisSegmentId 为准，
+ * 中途崩溃后重新调用 load 会从断点继续，已写入的分段不会重复写。
+ * <p>
+ * 分段数受 segment.maxSegments 限制，默认配置下分段数不超过 chunkSize，整个商品在一个分块内写完；
+ * 调大 segment.maxSegments 后才会分多块写入。
+ */
+@Service
+public class InventorySegmentBulkLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventorySegmentBulkLoader.class);
+
+    private static final String PROGRESS_KEY_PREFIX = "inventory:bulkload:";
+
+    private static final String SEGMENT_STOCK_KEY_PREFIX = "product_stock:";
+
+    private static final String BITMAP_KEY_PREFIX = "segmentAvailable:";
+
+    private static final String STATUS_LOADING = "LOADING";
+
+    private static final String STATUS_COMPLETED = "COMPLETED";
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    @Autowired
+    private InventorySegmentMapper inventorySegmentMapper;
+
+    @Autowired
+    private SqlSessionFactory sqlSessionFactory;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    SegmentSizingStrategy segmentSizingStrategy;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Value("${bulkLoad.chunkSize:1000}")
+    private int chunkSize;
+
+    /**
+     * 使用 BATCH 执行器的 SqlSession，只在本类的分块事务中使用
+     */
+    private SqlSessionTemplate batchSqlSession;
+
+    @PostConstruct
+    public void init() {
+        batchSqlSession = new SqlSessionTemplate(sqlSessionFactory, ExecutorType.BATCH);
+    }
+
+    /**
+     * 创建或继续创建商品的全部库存分段
+     *
+     * @return 商品的分段总数
+     */
+    public int load(int productId, int totalStock) {
+        String progressKey = RedisOperationService.productKey(PROGRESS_KEY_PREFIX, productId);
+        Map<String, String> progress = redisOperationService.hgetAll(progressKey);
+        if (STATUS_COMPLETED.equals(progress.get("status"))) {
+            logger.info("分段已创建完成 productId:{}", productId);
+            return Integer.parseInt(progress.get("segmentCount"));
+        }
+
+        // 1. 确定分段大小，续跑时必须沿用第一次的分段大小
+        int segmentStock;
+        if (progress.isEmpty()) {
+            if (inventorySegmentMapper.getMaxSegmentId(productId) != null) {
+                throw new BusinessException("商品已存在库存分段，不能批量创建 productId:" + productId);
+            }
+            segmentStock = segmentSizingStrategy.segmentSize(productId, totalStock);
+            progress = new HashMap<>();
+            progress.put("totalStock", String.valueOf(totalStock));
+            progress.put("segmentStock", String.valueOf(segmentStock));
+            progress.put("segmentCount", String.valueOf(ceilDiv(totalStock, segmentStock)));
+            progress.put("redisSegmentId", "0");
+            progress.put("status", STATUS_LOADING);
+            redisOperationService.hsetAll(progressKey, progress);
+        } else {
+            if (Integer.parseInt(progress.get("totalStock")) != totalStock) {
+                throw new BusinessException("续跑的总库存与进度记录不一致 productId:" + productId);
+            }
+            segmentStock = Integer.parseInt(progress.get("segmentStock"));
+        }
+        int segmentCount = Integer.parseInt(progress.get("segmentCount"));
+
+        // 2. 主库存记录
+        if (inventoryMapper.selectByProductId(productId) == null) {
+            InventoryModel inventory = new InventoryModel();
+            inventory.setProductId(productId);
+            inventory.setTotalStock(totalStock);
+            inventoryMapper.insertInventory(inventory);
+        }
+
+        // 3. 补齐上次已提交到数据库、但未写入 Redis 的分段
+        Integer maxSegmentId = inventorySegmentMapper.getMaxSegmentId(productId);
+        int dbSegmentId = maxSegmentId == null ? 0 : maxSegmentId;
+        int redisSegmentId = Integer.parseInt(progress.get("redisSegmentId"));
+        if (redisSegmentId < dbSegmentId) {
+            logger.info("补写Redis分段 productId:{}, segmentId:({}, {}]", productId, redisSegmentId, dbSegmentId);
+            writeRedis(productId, progressKey,
+                    drain(new SegmentIterator(productId, totalStock, segmentStock, redisSegmentId + 1, dbSegmentId)));
+        }
+
+        // 4. 按块生成、写库、写 Redis
+        SegmentIterator segments = new SegmentIterator(productId, totalStock, segmentStock, dbSegmentId + 1, segmentCount);
+        while (segments.hasNext()) {
+            List<InventorySegmentModel> chunk = new ArrayList<>(chunkSize);
+            while (segments.hasNext() && chunk.size() < chunkSize) {
+                chunk.add(segments.next());
+            }
+            insertChunk(chunk);
+            writeRedis(productId, progressKey, chunk);
+            logger.info("分段创建进度 productId:{}, segmentId:{}/{}",
+                    productId, chunk.get(chunk.size() - 1).getSegmentId(), segmentCount);
+        }
+
+        redisOperationService.hset(progressKey, "status", STATUS_COMPLETED);
+        soldOutRegistry.rearm(productId);
+        logger.info("分段创建完成 productId:{}, totalStock:{}, segmentStock:{}, segmentCount:{}",
+                productId, totalStock, segmentStock, segmentCount);
+        return segmentCount;
+    }
+
+    /**
+     * 一个分块一个事务，BATCH 执行器在提交前把语句一次性发给驱动，由驱动改写为多值 INSERT
+     */
+    private void insertChunk(List<InventorySegmentModel> chunk) {
+        transactionTemplate.executeWithoutResult(status -> {
+            InventorySegmentMapper batchMapper = batchSqlSession.getMapper(InventorySegmentMapper.class);
+            for (InventorySegmentModel segment : chunk) {
+                batchMapper.insertSegment(segment);
+            }
+            batchSqlSession.flushStatements();
+        });
+    }
+
+    private void writeRedis(int productId, String progressKey, List<InventorySegmentModel> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        String bitmapKey = RedisOperationService.productKey(BITMAP_KEY_PREFIX, productId);
+        Map<String, Map<String, String>> stocksByShard = new HashMap<>();
+        for (InventorySegmentModel segment : chunk) {
+            String stockKey = redisOperationService.stockShardKeyOfSegment(
+                    SEGMENT_STOCK_KEY_PREFIX, productId, segment.getSegmentId());
+            stocksByShard.computeIfAbsent(stockKey, k -> new HashMap<>())
+                    .put(String.valueOf(segment.getSegmentId()), String.valueOf(segment.getAvailableStock()));
+        }
+        String lastSegmentId = String.valueOf(chunk.get(chunk.size() - 1).getSegmentId());
+        redisOperationService.executePipelined(pipeline -> {
+            stocksByShard.forEach(pipeline::hset);
+            for (InventorySegmentModel segment : chunk) {
+                pipeline.setbit(bitmapKey, segment.getSegmentId(), true);
+            }
+            pipeline.hset(progressKey, "redisSegmentId", lastSegmentId);
+        });
+    }
+
+    private static List<InventorySegmentModel> drain(Iterator<InventorySegmentModel> iterator) {
+        List<InventorySegmentModel> segments = new ArrayList<>();
+        iterator.forEachRemaining(segments::add);
+        return segments;
+    }
+
+    private static int ceilDiv(int total, int divisor) {
+        return (int) Math.ceil((double) total / divisor);
+    }
+
+    /**
+     * 按需生成 [fromSegmentId, toSegmentId] 的分段，最后一个分段可能不足 segmentStock
+     */
+    private static class SegmentIterator implements Iterator<InventorySegmentModel> {
+        private final int productId;
+        private final int totalStock;
+        private final int segmentStock;
+        private final int toSegmentId;
+        private int nextSegmentId;
+
+        SegmentIterator(int productId, int totalStock, int segmentStock, int fromSegmentId, int toSegmentId) {
+            this.productId = productId;
+            this.totalStock = totalStock;
+            this.segmentStock = segmentStock;
+            this.nextSegmentId = fromSegmentId;
+            this.toSegmentId = toSegmentId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextSegmentId <= toSegmentId;
+        }
+
+        @Override
+        public InventorySegmentModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            long allocated = (long) (nextSegmentId - 1) * segmentStock;
+            int stock = (int) Math.min(segmentStock, totalStock - allocated);
+
+            InventorySegmentModel segment = new InventorySegmentModel();
+            segment.setProductId(productId);
+            segment.setSegmentId(nextSegmentId);
+            segment.setTotalStock(stock);
+            segment.setAvailableStock(stock);
+            segment.setStatus(1);
+            nextSegmentId++;
+            return segment;
+        }
+    }
+}
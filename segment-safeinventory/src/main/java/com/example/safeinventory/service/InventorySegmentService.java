@@ -1,12 +1,13 @@
 package com.example.safeinventory.service;
 
 
+import com.example.safeinventory.common.RedisLuaScriptEnum;
 import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.mapper.InventorySegmentMapper;
 import com.example.safeinventory.model.ActiveSegmentInfo;
 import com.example.safeinventory.model.InventoryModel;
 import com.example.safeinventory.model.InventorySegmentModel;
-import jakarta.annotation.PostConstruct;
+import com.example.safeinventory.strategy.SegmentSizingStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -18,7 +19,6 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
-import java.util.UUID;
 
 @Service
 public class InventorySegmentService {
@@ -33,17 +33,35 @@ public class InventorySegmentService {
     @Autowired
     RedisOperationService redisOperationService;
 
+    @Autowired
+    ActiveSegmentInfoCache activeSegmentInfoCache;
 
-    private static final int SEGMENT_STOCK = 4;
+    @Autowired
+    SegmentAvailabilityBitmap segmentAvailabilityBitmap;
 
-    private static final int SEGMENT_INFO_EXPIRE_TIME = 24 * 60 * 60;
+    @Autowired
+    SegmentChangeTracker segmentChangeTracker;
 
-    private static int ALL_STOCK_HAS_REDUCED = -1;
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    SegmentSizingStrategy segmentSizingStrategy;
+
+    @Autowired
+    SegmentLeaseManager segmentLeaseManager;
 
 
-    private static final String PREWARM_LOCK_KEY = "inventory:prewarm:lock";
-    private static final int PREWARM_LOCK_TIMEOUT = 300;  // 预热锁超时时间，单位秒
-    private static final String PREWARM_STATUS_KEY = "inventory:prewarm:status";
+    /**
+     * 获取分段行锁耗时超过该值视为发生行锁排队，单位毫秒
+     */
+    private static final long CONTENTION_WAIT_MILLIS = 10;
+
+    private static final int SEGMENT_INFO_EXPIRE_TIME = 24 * 60 * 60;
+
+    private static final long SEGMENT_INFO_LOCK_TIMEOUT = 10000; // 初始化分段信息的锁，单位毫秒
+
+    private static int ALL_STOCK_HAS_REDUCED = -1;
 
     /**
      * Redis中存储分段信息的hash key前缀
@@ -51,7 +69,7 @@ public class InventorySegmentService {
      * - pointer: 当前使用的分段ID，-1表示所有分段已耗尽
      * - count: 该商品的分段总数
      * - version: 版本号
-     * 例如: "activeSegmentInfo:1001" = {
+     * 例如: "activeSegmentInfo:{1001}" = {
      * pointer: "-1",  // 表示已耗尽，从1开始的值表示当前活跃段
      * count: "5",
      * version: "1732002726000"
@@ -65,16 +83,24 @@ public class InventorySegmentService {
      * 多分段同时扣减实现
      */
     public boolean reduceFixedInventory(int productId, int quantity) {
-        // 1. 验证扣减量是否合法
-        if (quantity > SEGMENT_STOCK) {
-            logger.warn("扣减量{}大于分段库存容量{}", quantity, SEGMENT_STOCK);
+        // 1. 分段大小按商品自适应，扣减量大于所有分段时由 tryMoveToNextSegment 判断为库存不足
+
+        if (soldOutRegistry.isSoldOut(productId)) {
             return false;
         }
 
+        // 开启节点租约时，扣减在本节点租到的库存中完成，不访问分段
+        if (segmentLeaseManager.accepts(quantity)) {
+            return segmentLeaseManager.reduceInventory(productId, quantity);
+        }
+
         // 2. 获取当前活跃分段信息
         ActiveSegmentInfo segmentInfo = getCurrentSegmentInfo(productId);
         if (segmentInfo == null || segmentInfo.getCurrentPointer() == ALL_STOCK_HAS_REDUCED) {
             logger.warn("无可用库存分段信息 productId:{}", productId);
+            if (segmentInfo != null) {
+                soldOutRegistry.markSoldOut(productId);
+            }
             return false;
         }
 
@@ -84,50 +110,88 @@ public class InventorySegmentService {
             return true;
         }
 
-        // 4. 当前分段扣减失败，尝试移动到下一个可用分段
+        // 4. 当前分段扣减失败，本地缓存的指针可能已过期，尝试移动到下一个可用分段
+        activeSegmentInfoCache.invalidate(productId);
         return tryMoveToNextSegment(productId, quantity, segmentInfo);
     }
 
     /**
-     * 获取当前分段信息
+     * 获取当前分段信息，优先读本地近端缓存，未命中再读 Redis
      */
     private ActiveSegmentInfo getCurrentSegmentInfo(int productId) {
-
-        ActiveSegmentInfo segmentInfo = getSegmentInfoFromRedis(productId);
-
+        ActiveSegmentInfo segmentInfo = activeSegmentInfoCache.get(productId);
         if (segmentInfo != null) {
             return segmentInfo;
         }
-        return initializeSegmentInfo(productId);
+
+        segmentInfo = getSegmentInfoFromRedis(productId);
+        if (segmentInfo == null) {
+            segmentInfo = initializeSegmentInfo(productId);
+        }
+        if (segmentInfo != null) {
+            activeSegmentInfoCache.put(productId, segmentInfo);
+        }
+        return segmentInfo;
     }
 
     /**
      * 尝试移动到下一个可用分段并扣减库存
+     * 通过分段可用位图直接跳到下一个有库存的分段，不再逐个加锁检查空分段；位图不存在时用一次数据库查询定位
      */
     @Transactional
     public boolean tryMoveToNextSegment(int productId, int quantity, ActiveSegmentInfo segmentInfo) {
-        // 1. 遍历后续分段
-        for (int nextPointer = segmentInfo.getCurrentPointer() + 1;
-             nextPointer <= segmentInfo.getTotalSegments();
-             nextPointer++) {
-
-            // 2. 证分段是否有足够库存
-            InventorySegmentModel segment = inventorySegmentMapper.getSegmentForUpdate(productId, nextPointer);
-            if (segment == null || segment.getAvailableStock() < quantity) {
-                continue;
+        int fromSegmentId = segmentInfo.getCurrentPointer() + 1;
+        // 是否存在有库存但不够本次扣减的分段，存在时不能把商品标记为耗尽
+        boolean hasRemainingStock = false;
+        while (fromSegmentId <= segmentInfo.getTotalSegments()) {
+            // 1. 定位下一个有库存的分段
+            InventorySegmentModel segment;
+            int nextPointer = segmentAvailabilityBitmap.nextAvailable(productId, fromSegmentId);
+            if (nextPointer == SegmentAvailabilityBitmap.BITMAP_MISSING) {
+                segment = inventorySegmentMapper.getFirstAvailableSegmentForUpdate(productId, fromSegmentId, quantity);
+                List<Integer> availableSegmentIds = inventorySegmentMapper.getAvailableSegmentIds(productId);
+                segmentAvailabilityBitmap.reset(productId, availableSegmentIds);
+                if (segment == null) {
+                    int from = fromSegmentId;
+                    hasRemainingStock = availableSegmentIds.stream().anyMatch(id -> id >= from);
+                    break;
+                }
+            } else {
+                if (nextPointer == SegmentAvailabilityBitmap.NO_AVAILABLE_SEGMENT
+                        || nextPointer > segmentInfo.getTotalSegments()) {
+                    break;
+                }
+                // 2. 位图只是提示，加锁校验分段库存
+                segment = inventorySegmentMapper.getSegmentForUpdate(productId, nextPointer);
+                if (segment == null || segment.getAvailableStock() == 0) {
+                    segmentAvailabilityBitmap.markEmpty(productId, nextPointer);
+                    fromSegmentId = nextPointer + 1;
+                    continue;
+                }
+                if (segment.getAvailableStock() < quantity) {
+                    hasRemainingStock = true;
+                    fromSegmentId = nextPointer + 1;
+                    continue;
+                }
             }
 
-            segmentInfo.setCurrentPointer(nextPointer);
+            segmentInfo.setCurrentPointer(segment.getSegmentId());
             // 3. 尝试在新分段扣减
             if (doReduceInventoryInSegment(productId, segmentInfo, quantity)) {
-                // 6. 更新指针
-                updateSegmentPointerWithVersion(productId, nextPointer);
+                // 4. 更新指针
+                updateSegmentPointerWithVersion(productId, segment.getSegmentId());
                 return true;
             }
+            fromSegmentId = segment.getSegmentId() + 1;
         }
 
+        if (hasRemainingStock) {
+            logger.warn("剩余分段库存不足 productId:{}, quantity:{}", productId, quantity);
+            return false;
+        }
         updateSegmentPointerWithVersion(productId, ALL_STOCK_HAS_REDUCED);
-        logger.warn("所有分段库存都已耗尽或不足 productId:{}, quantity:{}", productId, quantity);
+        soldOutRegistry.markSoldOut(productId);
+        logger.warn("所有分段库存都已耗尽 productId:{}, quantity:{}", productId, quantity);
         return false;
     }
 
@@ -135,23 +199,9 @@ public class InventorySegmentService {
      * 更新分段指针，使用Hash结构和版本号控制并发
      */
     private boolean updateSegmentPointerWithVersion(int productId, int newPointer) {
-        String infoKey = SEGMENT_INFO_KEY + productId;
+        String infoKey = RedisOperationService.productKey(SEGMENT_INFO_KEY, productId);
 
         // 使用Lua脚本保证原子性
-        String luaScript =
-                "local currentVersion = tonumber(redis.call('hget', KEYS[1], 'version') or '0') " +
-                        "local newVersion = tonumber(ARGV[2]) " +
-                        "if newVersion > currentVersion then " +
-                        "    redis.call('hmset', KEYS[1], " +
-                        "        'pointer', ARGV[1], " +
-                        "        'version', newVersion) " +
-                        "    redis.call('expire', KEYS[1], ARGV[3]) " +
-                        "    return 1 " +  // 更新成功
-                        "else " +
-                        "    return 0 " +  // 版本号不符，更新失败
-                        "end";
-
-
         try {
             List<String> keys = List.of(infoKey);
             List<String> args = List.of(
@@ -160,8 +210,11 @@ public class InventorySegmentService {
                     String.valueOf(SEGMENT_INFO_EXPIRE_TIME)          // ARGV[3]: 过期时间
             );
 
-            Long result = (Long) redisOperationService.evalScript(luaScript, keys, args);
+            Long result = (Long) redisOperationService.evalScript(
+                    RedisLuaScriptEnum.UPDATE_SEGMENT_POINTER, keys, args);
             boolean success = result == 1;
+            // 无论成功与否本地缓存都已不是最新，成功时其他实例通过订阅消息失效
+            activeSegmentInfoCache.invalidate(productId);
 
             if (success) {
                 logger.info("更新分段指针成功 productId:{}, newPointer:{}, newVersion:{}",
@@ -184,7 +237,7 @@ public class InventorySegmentService {
      * 使用双重检查锁定模式(Double-Checked Locking)
      */
     private ActiveSegmentInfo initializeSegmentInfo(int productId) {
-        String infoKey = SEGMENT_INFO_KEY + productId;
+        String infoKey = RedisOperationService.productKey(SEGMENT_INFO_KEY, productId);
         String lockKey = "lock:" + infoKey;
         boolean lockAcquired = false;
 
@@ -196,7 +249,7 @@ public class InventorySegmentService {
             }
 
             // 2. 尝试获取分布式锁
-            lockAcquired = redisOperationService.acquireLock(lockKey, String.valueOf(productId), 10000);
+            lockAcquired = redisOperationService.acquireLock(lockKey, String.valueOf(productId), SEGMENT_INFO_LOCK_TIMEOUT);
             if (!lockAcquired) {
                 // 未获取到锁，等待一段时间后重试获取Redis据
                 Thread.sleep(100);
@@ -219,14 +272,6 @@ public class InventorySegmentService {
             int pointer = segments.get(0).getSegmentId();
             int count = segments.size();
 
-            String luaScript =
-                    "redis.call('hmset', KEYS[1], " +
-                            "   'pointer', ARGV[1], " +
-                            "   'count', ARGV[2], " +
-                            "   'version', ARGV[3]) " +
-                            "redis.call('expire', KEYS[1], ARGV[4]) " +
-                            "return 1";
-
             List<String> keys = List.of(infoKey);
             long version = System.currentTimeMillis();
             List<String> args = List.of(
@@ -236,7 +281,8 @@ public class InventorySegmentService {
                     String.valueOf(SEGMENT_INFO_EXPIRE_TIME)
             );
 
-            Long result = (Long) redisOperationService.evalScript(luaScript, keys, args);
+            Long result = (Long) redisOperationService.evalScript(
+                    RedisLuaScriptEnum.INIT_SEGMENT_INFO, keys, args);
 
             if (result == 1) {
                 logger.info("初始化分段信息成功 productId:{}, pointer:{}, count:{}",
@@ -261,18 +307,12 @@ public class InventorySegmentService {
      * 从Redis获取分段信息
      */
     private ActiveSegmentInfo getSegmentInfoFromRedis(int productId) {
-        String infoKey = SEGMENT_INFO_KEY + productId;
-
-        // 使用Lua脚本原子获取所有信息
-        String luaScript =
-                "return {" +
-                        "  redis.call('hget', KEYS[1], 'pointer')," +   // pointer
-                        "  redis.call('hget', KEYS[1], 'count')," +     // count
-                        "  redis.call('hget', KEYS[1], 'version')" +    // version
-                        "}";
+        String infoKey = RedisOperationService.productKey(SEGMENT_INFO_KEY, productId);
 
+        // 使用Lua脚本原子获取所有信息 {pointer, count, version}
         List<String> keys = Arrays.asList(infoKey);
-        List<String> result = (List<String>) redisOperationService.evalScript(luaScript, keys, Collections.emptyList());
+        List<String> result = (List<String>) redisOperationService.evalScript(
+                RedisLuaScriptEnum.GET_SEGMENT_INFO, keys, Collections.emptyList());
 
         if (result.get(0) == null || result.get(1) == null) {
             return null;
@@ -290,13 +330,16 @@ public class InventorySegmentService {
         int segmentId = segmentInfo.getCurrentPointer();
         logger.info("productId: {}, segmentId:{}, quantity: {}，", productId, segmentId, quantity);
 
+        long lockStart = System.currentTimeMillis();
         InventorySegmentModel segment = inventorySegmentMapper.getSegmentForUpdate(productId, segmentId);
+        boolean contended = System.currentTimeMillis() - lockStart > CONTENTION_WAIT_MILLIS;
         if (segment == null) {
             logger.warn("库存分段不存在 productId: {}, segmentId:{},quantity: {}，", productId, segmentId, quantity);
             return false;
         }
         if (segment.getAvailableStock() < quantity) {
             logger.info("库存不足 productId: {}, segmentId:{},quantity: {}，", productId, segmentId, quantity);
+            segmentSizingStrategy.recordDeduction(productId, quantity, segment.getAvailableStock() > 0, contended);
             return false;
         }
         // 尝试扣减库存
@@ -311,9 +354,12 @@ public class InventorySegmentService {
         if (result != 1) {
             return false;
         }
+        segmentSizingStrategy.recordDeduction(productId, quantity, false, contended);
+        segmentChangeTracker.markDirty(productId);
 
         //  如果当前分段刚好用完，则更新指针到下一个分段
         if (segment.getAvailableStock() == quantity) {
+            segmentAvailabilityBitmap.markEmpty(productId, segmentId);
             if (segmentId + 1 > segmentInfo.getTotalSegments()) {
                 updateSegmentPointerWithVersion(productId, ALL_STOCK_HAS_REDUCED);
             } else {
@@ -377,14 +423,25 @@ public class InventorySegmentService {
                 quantity,
                 segment.getVersion()
         );
-        return result == 1;
+        if (result != 1) {
+            return false;
+        }
+        segmentChangeTracker.markDirty(productId);
+        if (segment.getAvailableStock() == quantity) {
+            segmentAvailabilityBitmap.markEmpty(productId, segmentId);
+        }
+        return true;
     }
 
 
+    /**
+     * 一次性创建商品的全部分段，适用于分段数不多的商品；大库存商品使用 InventorySegmentBulkLoader 分块创建
+     */
     @Transactional
     public void createInventoryWithSegments(int productId, int totalStock) {
-        // 计算分段数量
-        int segmentCount = (int) Math.ceil((double) totalStock / SEGMENT_STOCK);
+        // 计算分段大小和数量
+        int segmentStock = segmentSizingStrategy.segmentSize(productId, totalStock);
+        int segmentCount = (int) Math.ceil((double) totalStock / segmentStock);
 
         // 插入主库存记录
         InventoryModel inventory = new InventoryModel();
@@ -395,7 +452,7 @@ public class InventorySegmentService {
         // 准备插入分段记录
         List<InventorySegmentModel> segments = new ArrayList<>();
         for (int i = 1; i <= segmentCount; i++) {
-            int stockForSegment = Math.min(SEGMENT_STOCK, totalStock); // 最后一段可能不足segmentStock
+            int stockForSegment = Math.min(segmentStock, totalStock); // 最后一段可能不足segmentStock
             totalStock -= stockForSegment; // 减去已分配给段的库存
             InventorySegmentModel segment = new InventorySegmentModel();
             segment.setProductId(productId);
@@ -406,82 +463,8 @@ public class InventorySegmentService {
         }
         // 插入所有分段库存
         inventorySegmentMapper.batchInsert(segments);
-    }
-
-
-    @PostConstruct
-    public void initializeService() {
-        if (!isPrewarmRequired()) {
-            logger.info("预热已完成，无需重复预热");
-            return;
-        }
-        String serviceId = generateServiceId();  // 生成唯一的服务标识
-        boolean lockAcquired = false;
-        try {
-            // 1. 尝试获取预热锁
-            lockAcquired = redisOperationService.acquireLock(
-                    PREWARM_LOCK_KEY,
-                    serviceId,
-                    PREWARM_LOCK_TIMEOUT * 1000
-            );
-
-            if (!lockAcquired) {
-                // 2. 未获取��锁，结束
-                return;
-            }
-
-            // 3. 获取到锁，执行预热
-            doPrewarm();
-
-            // 4. 标记预热完成
-            markPrewarmComplete();
-
-        } catch (Exception e) {
-            logger.error("服务预热失败", e);
-            throw new RuntimeException("服务预热失败，无法启动服务", e);
-        } finally {
-            if (lockAcquired) {
-                redisOperationService.releaseLock(PREWARM_LOCK_KEY, serviceId);
-            }
-        }
-    }
-
-    private boolean isPrewarmRequired() {
-        String status = redisOperationService.get(PREWARM_STATUS_KEY);
-        return !"COMPLETED".equals(status);
-    }
-
-
-    private void doPrewarm() {
-        logger.info("开始执行预热...");
-        try {
-            // todo  获取需要预热的商品列表, 需要分页查询
-            List<Integer> productIds = new ArrayList<>();
-
-            // 2. 批量预热
-            for (Integer productId : productIds) {
-                try {
-                    initializeSegmentInfo(productId);
-                    logger.info("商品{}预热成功", productId);
-                } catch (Exception e) {
-                    logger.error("商品{}预热失败", productId, e);
-                    throw e;  // 预热失败直接抛出异常
-                }
-            }
-
-            logger.info("预热完成，共预热{}个商品", productIds.size());
-        } catch (Exception e) {
-            logger.error("预热过程发生错误", e);
-            throw new RuntimeException("预热失败", e);
-        }
-    }
-
-    // todo
-    private void markPrewarmComplete() {
-        logger.info("预热状态已标记为完成");
-    }
-
-    private String generateServiceId() {
-        return UUID.randomUUID().toString();
+        segmentAvailabilityBitmap.reset(productId,
+                segments.stream().map(InventorySegmentModel::getSegmentId).toList());
+        soldOutRegistry.rearm(productId);
     }
 }
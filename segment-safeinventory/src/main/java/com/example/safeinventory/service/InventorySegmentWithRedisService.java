@@ -1,14 +1,10 @@
 package com.example.safeinventory.service;
 
-import com.example.safeinventory.common.RedisReduceStockEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Random;
-
 @Service
 public class InventorySegmentWithRedisService {
     private static final Logger logger = LoggerFactory.getLogger(InventorySegmentWithRedisService.class);
@@ -20,48 +16,40 @@ public class InventorySegmentWithRedisService {
     @Autowired
     InventorySegmentService inventorySegmentService;
 
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
     private static final String LOCK_KEY_PREFIX = "product_stock:";
 
     public boolean reduceInventory(Integer productId, Integer quantity, String requestId) {
         logger.info("reduceInventory productId: {}, quantity: {}", productId, quantity);
-        String lockKey = LOCK_KEY_PREFIX + productId;
-        List<String> segmentIds = redisDistributedLock.getInventorySegmentIds(lockKey);
-
-        int segmentCount = segmentIds.size();
-        if (segmentCount == 0) {
-            logger.info("无可用库存段 productId: {}, quantity: {}", productId, quantity);
+        if (soldOutRegistry.isSoldOut(productId)) {
             return false;
         }
-        Random random = new Random();
-        int startIndex = random.nextInt(segmentCount); // 使用随机数或其他方式选择起始索引
-
-        // 先随机再轮训所有redis库存字段
-        for (int i = 0; i < segmentIds.size(); i++) {
-            String segmentId = segmentIds.get((startIndex + i) % segmentIds.size()); // 轮询获取分段
-            // 在当前分段扣减库存
-            long redisReduceResult = redisDistributedLock.reduceStock(lockKey, segmentId, quantity);
-
-            if (redisReduceResult != RedisReduceStockEnum.REDUCE_SUCCESS.getValue()) {
-                logger.warn("库存扣减失败 productId: {}, quantity: {},segmentId:{}, reduceResult:{}",
-                        productId, quantity, segmentId, redisReduceResult);
-                continue;
-            }
-            logger.info("redisDistributedLock.reduceStock productId: {}, quantity: {},segmentId:{}",
-                    productId, quantity, segmentId);
-
-            // 数据库扣减库存，如果失败则不再重试，返回失败结果
-            boolean isSuccess = inventorySegmentService.doReduceInventoryInSegmentV2(productId, Integer.parseInt(segmentId), quantity);
-            logger.info("doReduceInventory productId: {}, quantity: {},segmentId:{}, reduceResult:{}",
-                    productId, Integer.parseInt(segmentId), quantity, isSuccess);
-
-            if (isSuccess) {
-                return true; // 扣减成功
-            } else {
-                redisDistributedLock.rollbackInventory(lockKey, segmentId, quantity);
-                return false;
+        // 随机选择起始分片，分片内随机起点轮询库存分段，分段定位和扣减在同一个脚本中完成
+        long segmentId = redisDistributedLock.reduceAnyShardedSegmentStock(LOCK_KEY_PREFIX, productId, quantity);
+        if (segmentId <= 0) {
+            logger.info("无可用库存段 productId: {}, quantity: {}, reduceResult:{}", productId, quantity, segmentId);
+            // -2 表示所有分片中都已没有任何分段，库存已耗尽
+            if (segmentId == -2) {
+                soldOutRegistry.markSoldOut(productId);
             }
+            return false;
+        }
+        logger.info("redisDistributedLock.reduceStock productId: {}, quantity: {},segmentId:{}",
+                productId, quantity, segmentId);
+
+        // 数据库扣减库存，如果失败则不再重试，返回失败结果
+        boolean isSuccess = inventorySegmentService.doReduceInventoryInSegmentV2(productId, (int) segmentId, quantity);
+        logger.info("doReduceInventory productId: {}, quantity: {},segmentId:{}, reduceResult:{}",
+                productId, quantity, segmentId, isSuccess);
+
+        if (!isSuccess) {
+            String stockKey = redisDistributedLock.stockShardKeyOfSegment(LOCK_KEY_PREFIX, productId, (int) segmentId);
+            redisDistributedLock.rollbackInventory(stockKey, String.valueOf(segmentId), quantity);
+            soldOutRegistry.rearm(productId);
         }
-        return false;
+        return isSuccess;
     }
 
 }
@@ -0,0 +1,180 @@
+package com.example.safeinventory.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带看门狗和围栏令牌的分布式锁租约
+ * <p>
+ * 锁以毫秒级的短租期（PX）持有，本实例持有的所有租约由一个共享的看门狗线程用一个管道统一续期，
+ * 持有者崩溃后锁在一个租期内自动释放，不会长时间阻塞热点商品。
+ * <p>
+ * 每次获取锁时从 {lockKey} 对应的计数器分配一个递增的围栏令牌。持有者因 GC 停顿或网络分区错过续期时，
+ * 锁可能已被其他实例获取，所以写数据库时必须带上令牌，由数据库拒绝比已见过的令牌更小的写入
+ * （见 InventoryMapper.advanceFencingToken）。
+ */
+@Service
+public class LockLeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockLeaseManager.class);
+
+    private static final String LEASE_KEY_PREFIX = "lease:";
+    private static final String FENCING_KEY_SUFFIX = ":fencing";
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    /**
+     * 租期，单位毫秒
+     */
+    @Value("${lockLease.ttlMillis:3000}")
+    private long ttlMillis;
+
+    /**
+     * 看门狗续期间隔，单位毫秒，应小于租期的一半
+     */
+    @Value("${lockLease.renewIntervalMillis:1000}")
+    private long renewIntervalMillis;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 本实例持有的租约，锁key -> 租约
+     */
+    private final Map<String, LockLease> held = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService watchdog;
+
+    @PostConstruct
+    public void start() {
+        watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lock-lease-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleWithFixedDelay(this::renewAll, renewIntervalMillis, renewIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        watchdog.shutdownNow();
+        for (LockLease lease : new ArrayList<>(held.values())) {
+            release(lease);
+        }
+    }
+
+    /**
+     * 获取锁，成功后由看门狗续期直到 release
+     *
+     * @return 租约，锁被其他持有者占用时返回 null
+     */
+    public LockLease acquire(String lockKey) {
+        String key = leaseKey(lockKey);
+        String value = nodeId + ":" + sequence.incrementAndGet();
+        long now = System.currentTimeMillis();
+        long fencingToken = redisOperationService.acquireFencedLock(key, key + FENCING_KEY_SUFFIX, value, ttlMillis);
+        if (fencingToken == 0) {
+            return null;
+        }
+        LockLease lease = new LockLease(lockKey, value, fencingToken, now + ttlMillis);
+        held.put(key, lease);
+        return lease;
+    }
+
+    /**
+     * 释放锁并停止续期
+     */
+    public void release(LockLease lease) {
+        String key = leaseKey(lease.lockKey);
+        held.remove(key, lease);
+        lease.lost = true;
+        redisOperationService.releaseLock(key, lease.value);
+    }
+
+    /**
+     * 续期失败的租约标记为已丢失并停止续期，持有者的数据库写入会因令牌过期被拒绝
+     */
+    private void renewAll() {
+        if (held.isEmpty()) {
+            return;
+        }
+        Map<String, String> locks = new HashMap<>();
+        held.forEach((key, lease) -> locks.put(key, lease.value));
+        long now = System.currentTimeMillis();
+        try {
+            List<String> lost = redisOperationService.extendLocks(locks, ttlMillis);
+            // 续期期间同一个 key 可能已释放并重新获取，只处理续期时的那个租约
+            held.forEach((key, lease) -> {
+                if (lease.value.equals(locks.get(key)) && !lost.contains(key)) {
+                    lease.validUntil = now + ttlMillis;
+                }
+            });
+            for (String key : lost) {
+                LockLease lease = held.get(key);
+                if (lease != null && lease.value.equals(locks.get(key)) && held.remove(key, lease)) {
+                    lease.lost = true;
+                    logger.warn("锁租约续期失败，租约已丢失 key:{}, fencingToken:{}", lease.lockKey, lease.fencingToken);
+                }
+            }
+        } catch (Exception e) {
+            // 续期失败不影响下一轮，租期内未续上的由 isValid 反映
+            logger.error("锁租约续期失败 count:{}, error:{}", locks.size(), e.getMessage());
+        }
+    }
+
+    private static String leaseKey(String lockKey) {
+        // 锁和令牌计数器使用同一个 hash tag，集群模式下在同一个槽
+        return LEASE_KEY_PREFIX + "{" + lockKey + "}";
+    }
+
+    /**
+     * 已获取的锁租约
+     */
+    public static final class LockLease {
+        private final String lockKey;
+        private final String value;
+        private final long fencingToken;
+        private volatile long validUntil;
+        private volatile boolean lost;
+
+        private LockLease(String lockKey, String value, long fencingToken, long validUntil) {
+            this.lockKey = lockKey;
+            this.value = value;
+            this.fencingToken = fencingToken;
+            this.validUntil = validUntil;
+        }
+
+        public String getLockKey() {
+            return lockKey;
+        }
+
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        /**
+         * 本地判断租约是否仍然有效，只能用于提前放弃；写入的正确性由围栏令牌保证
+         */
+        public boolean isValid() {
+            return !lost && System.currentTimeMillis() < validUntil;
+        }
+    }
+}
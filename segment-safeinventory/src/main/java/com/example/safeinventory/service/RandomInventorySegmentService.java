@@ -1,21 +1,32 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.common.BusinessException;
+import com.example.safeinventory.common.RedisLuaScriptEnum;
 import com.example.safeinventory.common.RedisReduceStockEnum;
+import com.example.safeinventory.mapper.InventoryMapper;
 import com.example.safeinventory.mapper.InventorySegmentMapper;
 import com.example.safeinventory.model.InventorySegmentModel;
-import com.example.safeinventory.strategy.SegmentSelectionStrategy;
-import com.example.safeinventory.strategy.SegmentStrategyFactory;
+import com.example.safeinventory.service.LockLeaseManager.LockLease;
+import com.example.safeinventory.strategy.BestMatchSegmentStrategy;
+import com.example.safeinventory.strategy.IndexedSegmentSelector;
+import com.example.safeinventory.strategy.MergeCheckStrategy;
+import com.example.safeinventory.strategy.MergeStrategyFactory;
+import com.example.safeinventory.strategy.SegmentSizingStrategy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 
@@ -25,67 +36,133 @@ public class RandomInventorySegmentService {
     private static final Logger logger = LoggerFactory.getLogger(RandomInventorySegmentService.class);
 
 
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
     @Autowired
     private InventorySegmentMapper inventorySegmentMapper;
 
     @Autowired
     RedisOperationService redisOperationService;
 
+    @Autowired
+    LockLeaseManager lockLeaseManager;
+
     private static final String MERGE_LOCK_KEY = "merge:lock:";
-    private static final int MERGE_LOCK_TIMEOUT = 10000; // 10秒
 
-    private static final int SEGMENT_STOCK = 4;
+    /**
+     * 扣减耗时超过该值视为发生行锁排队，单位毫秒
+     */
+    private static final long CONTENTION_WAIT_MILLIS = 10;
+
+    @Autowired
+    private BestMatchSegmentStrategy bestMatchSegmentStrategy;
+
+    @Autowired
+    SegmentAvailabilityBitmap segmentAvailabilityBitmap;
+
+    @Autowired
+    SegmentChangeTracker segmentChangeTracker;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
 
     @Autowired
-    private SegmentStrategyFactory strategyFactory;
+    SegmentSizingStrategy segmentSizingStrategy;
 
     private static final String SEGMENTS_CACHE_KEY = "inventory:segments:";
     private static final int SEGMENTS_CACHE_EXPIRE = 24 * 60 * 60; // 24小时
 
     private static final String SEGMENT_STOCK_KEY = "inventory:segments:stock:";
 
+    /**
+     * 被在线合并退役的分段Hash，退役分段ID -> 吸收其库存的分段ID，扣减回滚时据此转投（见 ROLLBACK_SEGMENT_STOCK）
+     */
+    private static final String RETIRED_SEGMENTS_KEY = "inventory:segments:retired:";
+
+    private final MergeCheckStrategy mergeCheckStrategy;
+
+    /**
+     * 合并的围栏令牌检查和数据库写入使用独立事务，不与调用方的扣减事务一起持有行锁；
+     * 重分配和在线合并都由本类内部调用，方法上的 @Transactional 不经过代理不会生效，所以用编程式事务。
+     * 扣减事务中读取分段也走独立事务且不加锁（见 readAvailableSegments），否则独立事务中的合并写入
+     * 要等待同一线程的外层事务释放行锁，直到锁等待超时
+     */
+    private final TransactionTemplate compactionTransaction;
+
+    public RandomInventorySegmentService(MergeStrategyFactory mergeStrategyFactory,
+                                         PlatformTransactionManager transactionManager) {
+        this.mergeCheckStrategy = mergeStrategyFactory.getStrategy(
+                MergeStrategyFactory.MergeStrategyType.USAGE_RATIO);
+        this.compactionTransaction = new TransactionTemplate(transactionManager);
+        this.compactionTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
     /**
      * 动态库存扣减入口
+     * 分段选择走本实例内存中的分段索引，不再每次从Redis读取全部分段；索引与Redis不一致时扣减失败并重建索引
      */
     @Transactional
     public boolean reduceInventory(int productId, int quantity) {
-        // 1. 获取库存状态
-        InventoryStatus status = getInventorySegment(productId);
-        if (!status.isValid() || status.getTotalAvailable() < quantity) {
-            logger.warn("库存状态不可用 productId:{}, status:{}", productId, status);
+        if (soldOutRegistry.isSoldOut(productId)) {
             return false;
         }
 
-        // 2. 尝试直接扣减
-        SegmentSelectionStrategy strategy = strategyFactory.getStrategy(
-                SegmentStrategyFactory.StrategyType.BEST_MATCH);
+        // 1. 索引未加载时从缓存加载库存状态
+        if (!bestMatchSegmentStrategy.isIndexed(productId)) {
+            InventoryStatus status = getInventorySegment(productId);
+            if (!status.isValid()) {
+                logger.warn("库存状态不可用 productId:{}, status:{}", productId, status);
+                // 没有可用分段时只有已建过库存的商品才是售罄，未建库存的商品不标记，否则建库存后仍会被拦截到标记过期
+                if (inventoryMapper.selectByProductId(productId) != null) {
+                    soldOutRegistry.markSoldOut(productId);
+                }
+                return false;
+            }
+            bestMatchSegmentStrategy.reload(productId, status.getSegments());
+        }
+        if (bestMatchSegmentStrategy.getTotalAvailable(productId) < quantity) {
+            logger.warn("库存不足 productId:{}, quantity:{}", productId, quantity);
+            // 索引可能落后于其他实例的回滚或补货，下次重新加载
+            bestMatchSegmentStrategy.invalidate(productId);
+            return false;
+        }
 
-        InventorySegmentModel selectedSegment = strategy.selectSegment(status.getSegments(), quantity);
+        // 2. 尝试直接扣减
+        int segmentId = bestMatchSegmentStrategy.selectSegmentId(productId, quantity);
 
         // 3. 如果没有找到合适的分段，才触发合并
-        if (selectedSegment == null) {
+        if (segmentId == IndexedSegmentSelector.NOT_FOUND) {
+            segmentSizingStrategy.recordDeduction(productId, quantity, true, false);
             logger.info("未找到合适分段，触发合并 productId:{}, quantity:{}", productId, quantity);
 
             // 根据请求量选择合适的合并策略,并同步等待重试
-            boolean mergeSuccess = triggerMerge(productId, quantity);
+            boolean mergeSuccess = Boolean.TRUE.equals(triggerMerge(productId, quantity));
             if (!mergeSuccess) {
                 return false;
             }
-            // 合并后重试
-            status = getInventorySegment(productId);
-            selectedSegment = strategy.selectSegment(status.getSegments(), quantity);
+            // 重分配时已按新分段重建索引，在线合并只作废了索引，按合并后的分段重新加载
+            if (!bestMatchSegmentStrategy.isIndexed(productId)) {
+                bestMatchSegmentStrategy.reload(productId, getInventorySegment(productId).getSegments());
+            }
+            segmentId = bestMatchSegmentStrategy.selectSegmentId(productId, quantity);
         }
 
         // 4. 尝试在选中的分段中扣减
-        if (selectedSegment == null) {
+        if (segmentId == IndexedSegmentSelector.NOT_FOUND) {
             logger.warn("未找到合适分段 productId:{}, quantity:{}", productId, quantity);
             return false;
         }
 
-        boolean success = doReduceInventoryInSegment(selectedSegment, quantity);
-        if (!success) {
-            logger.info("扣减失败， productId:{}, segmentId:{}",
-                    productId, selectedSegment.getSegmentId());
+        long reduceStart = System.currentTimeMillis();
+        boolean success = doReduceInventoryInSegment(productId, segmentId, quantity);
+        segmentSizingStrategy.recordDeduction(productId, quantity, false,
+                System.currentTimeMillis() - reduceStart > CONTENTION_WAIT_MILLIS);
+        if (success) {
+            bestMatchSegmentStrategy.onDeducted(productId, segmentId, quantity);
+        } else {
+            bestMatchSegmentStrategy.invalidate(productId);
+            logger.info("扣减失败， productId:{}, segmentId:{}", productId, segmentId);
         }
         return success;
     }
@@ -93,8 +170,8 @@ public class RandomInventorySegmentService {
     /**
      * 根据请求量选择并触发合适的合并策略
      */
-    private boolean triggerMerge(int productId, int quantity) {
-        if (quantity > SEGMENT_STOCK) {
+    private Boolean triggerMerge(int productId, int quantity) {
+        if (quantity > segmentSizingStrategy.currentSegmentSize(productId)) {
             logger.info("大额请求，使用特殊合并策略 productId:{}, quantity:{}", productId, quantity);
             return triggerLargeQuantityMerge(productId, quantity);
         }
@@ -107,27 +184,24 @@ public class RandomInventorySegmentService {
      * 特殊合并策略 - 用于大额请求
      * 尝试创建足够大的分段来满足请求
      */
-    private boolean triggerLargeQuantityMerge(int productId, int quantity) {
-        return triggerMergeWithLock(productId, totalStock ->
-                redistributeStockWithStrategy(productId, totalStock, quantity, true));
+    private Boolean triggerLargeQuantityMerge(int productId, int quantity) {
+        return triggerMergeWithLock(productId, (totalStock, fencingToken) ->
+                redistributeStockWithStrategy(productId, totalStock, quantity, true, fencingToken));
     }
 
     /**
-     * 通用的合并锁控制逻辑
+     * 通用的合并锁控制逻辑，合并函数的参数为总可用库存和合并锁的围栏令牌
      */
-    private <T> T triggerMergeWithLock(int productId, Function<Integer, T> mergeFunction) {
-        String mergeLockKey = MERGE_LOCK_KEY + productId;
-
-        if (!redisOperationService.acquireLock(mergeLockKey,
-                String.valueOf(productId), MERGE_LOCK_TIMEOUT)) {
+    private <T> T triggerMergeWithLock(int productId, BiFunction<Integer, Long, T> mergeFunction) {
+        LockLease lease = lockLeaseManager.acquire(MERGE_LOCK_KEY + productId);
+        if (lease == null) {
             logger.info("其他线程正在进行合并，跳过 productId:{}", productId);
             return null;
         }
 
         try {
-            // 1. 获取所有分段
-            List<InventorySegmentModel> segments =
-                    inventorySegmentMapper.getSegmentsByProductId(productId);
+            // 1. 获取所有分段，不加锁，写库时在合并事务中锁定分段并重新计算
+            List<InventorySegmentModel> segments = readAvailableSegments(productId);
 
             // 2. 计算总可用库存
             int totalAvailable = segments.stream()
@@ -140,70 +214,52 @@ public class RandomInventorySegmentService {
             }
 
             // 3. 执行合并函数
-            return mergeFunction.apply(totalAvailable);
+            return mergeFunction.apply(totalAvailable, lease.getFencingToken());
 
         } catch (Exception e) {
             logger.error("合并库存失败 productId:{}, error:{}", productId, e.getMessage());
             throw e;
         } finally {
-            redisOperationService.releaseLock(mergeLockKey, String.valueOf(productId));
+            lockLeaseManager.release(lease);
+        }
+    }
+
+    /**
+     * 合并写库前检查围栏令牌，合并锁的租约已丢失且其他实例已开始合并时拒绝写入
+     */
+    private void checkFencingToken(int productId, long fencingToken) {
+        if (inventoryMapper.advanceFencingToken(productId, fencingToken) == 0) {
+            logger.warn("合并锁的围栏令牌已过期，放弃写入 productId:{}, fencingToken:{}", productId, fencingToken);
+            throw new BusinessException("合并锁已失效");
         }
     }
 
     /**
      * 统一的库存重分配逻辑
+     * <p>
+     * 围栏令牌检查与旧分段作废、新分段插入在同一个事务中提交，令牌被拒绝时整个事务回滚，也不会写Redis。
+     * 新分段的总库存按该事务中锁定的旧分段计算，锁外读到的总库存可能已被并发扣减。
+     * 提交后按数据库重新读取的分段重建Redis分段库存、可用分段位图和本地索引。Redis的重建不受令牌保护：
+     * 持有者在提交之后才失去租约时，它的重建可能晚于新持有者的重建落地，Redis暂时与数据库不一致，
+     * 扣减仍以数据库的版本校验为准，不会超卖
      *
      * @param productId        商品ID
-     * @param totalStock       总库存
-     * @param firstSegmentSize 第一个分段的大小（大额请求时等于请求量，标准合并时等于SEGMENT_STOCK）
+     * @param totalStock       锁外读到的总库存，写库时以事务中锁定的分段为准
+     * @param firstSegmentSize 第一个分段的大小（大额请求时等于请求量，标准合并时为 0，表示按自适应分段大小）
      * @param isLargeQuantity  是否是大额请求
+     * @param fencingToken     合并锁的围栏令牌
      */
-    @Transactional
     public boolean redistributeStockWithStrategy(int productId, int totalStock,
-                                                 int firstSegmentSize, boolean isLargeQuantity) {
+                                                 int firstSegmentSize, boolean isLargeQuantity,
+                                                 long fencingToken) {
         try {
-            // 1. 获取当前最大的segmentId
-            Integer maxSegmentId = inventorySegmentMapper.getMaxSegmentId(productId);
-            int startSegmentId = (maxSegmentId == null) ? 1 : maxSegmentId + 1;
-
-            // 2. 将旧的分段标记为无效
-            inventorySegmentMapper.invalidateSegments(productId);
-            logger.info("标记旧分段无效 productId:{}", productId);
+            List<InventorySegmentModel> newSegments = compactionTransaction.execute(status ->
+                    replaceSegments(productId, totalStock, firstSegmentSize, fencingToken));
 
-            List<InventorySegmentModel> newSegments = new ArrayList<>();
-
-            // 3. 创建第一个分段（可能是大分段或标准分段）
-            InventorySegmentModel firstSegment = new InventorySegmentModel();
-            firstSegment.setProductId(productId);
-            firstSegment.setSegmentId(startSegmentId);
-            firstSegment.setTotalStock(firstSegmentSize);
-            firstSegment.setAvailableStock(firstSegmentSize);
-            firstSegment.setStatus(1);
-            newSegments.add(firstSegment);
-
-            // 4. 处理剩余库存
-            int remainingStock = totalStock - firstSegmentSize;
-            if (remainingStock > 0) {
-                int segmentCount = (int) Math.ceil((double) remainingStock / SEGMENT_STOCK);
-                for (int i = 0; i < segmentCount; i++) {
-                    int stockForSegment = Math.min(SEGMENT_STOCK, remainingStock);
-                    remainingStock -= stockForSegment;
-
-                    InventorySegmentModel segment = new InventorySegmentModel();
-                    segment.setProductId(productId);
-                    segment.setSegmentId(startSegmentId + i + 1);
-                    segment.setTotalStock(stockForSegment);
-                    segment.setAvailableStock(stockForSegment);
-                    segment.setStatus(1);
-                    newSegments.add(segment);
-                }
-            }
-
-            // 5. 批量插入新分段
-            inventorySegmentMapper.batchInsert(newSegments);
-
-            // 6. 更新缓存
-            loadAndCacheSegments(productId);
+            // 6. 提交后按数据库中的分段重建缓存和位图
+            List<InventorySegmentModel> segments = loadAndCacheSegments(productId);
+            segmentAvailabilityBitmap.reset(productId,
+                    segments.stream().map(InventorySegmentModel::getSegmentId).toList());
 
             logger.info("重新分配库存成功 productId:{}, segmentCount:{}, isLargeQuantity:{}",
                     productId, newSegments.size(), isLargeQuantity);
@@ -215,6 +271,73 @@ public class RandomInventorySegmentService {
         }
     }
 
+    /**
+     * 检查围栏令牌，锁定旧分段，作废后按新的分段大小插入新分段，只写数据库，在调用方的事务中执行
+     */
+    private List<InventorySegmentModel> replaceSegments(int productId, int totalStock,
+                                                        int firstSegmentSize, long fencingToken) {
+        checkFencingToken(productId, fencingToken);
+
+        int lockedStock = inventorySegmentMapper.getSegmentsByProductId(productId).stream()
+                .mapToInt(InventorySegmentModel::getAvailableStock)
+                .sum();
+        if (lockedStock != totalStock) {
+            logger.info("合并期间库存已变化 productId:{}, totalStock:{}, lockedStock:{}", productId, totalStock, lockedStock);
+            totalStock = lockedStock;
+        }
+        if (totalStock == 0) {
+            logger.warn("所有分段库存已耗尽 productId:{}", productId);
+            return Collections.emptyList();
+        }
+        firstSegmentSize = Math.min(firstSegmentSize, totalStock);
+
+        int segmentStock = segmentSizingStrategy.segmentSize(productId, totalStock);
+        if (firstSegmentSize <= 0) {
+            firstSegmentSize = Math.min(segmentStock, totalStock);
+        }
+
+        // 1. 获取当前最大的segmentId
+        Integer maxSegmentId = inventorySegmentMapper.getMaxSegmentId(productId);
+        int startSegmentId = (maxSegmentId == null) ? 1 : maxSegmentId + 1;
+
+        // 2. 将旧的分段标记为无效
+        inventorySegmentMapper.invalidateSegments(productId);
+        logger.info("标记旧分段无效 productId:{}", productId);
+
+        List<InventorySegmentModel> newSegments = new ArrayList<>();
+
+        // 3. 创建第一个分段（可能是大分段或标准分段）
+        InventorySegmentModel firstSegment = new InventorySegmentModel();
+        firstSegment.setProductId(productId);
+        firstSegment.setSegmentId(startSegmentId);
+        firstSegment.setTotalStock(firstSegmentSize);
+        firstSegment.setAvailableStock(firstSegmentSize);
+        firstSegment.setStatus(1);
+        newSegments.add(firstSegment);
+
+        // 4. 处理剩余库存
+        int remainingStock = totalStock - firstSegmentSize;
+        if (remainingStock > 0) {
+            int segmentCount = (int) Math.ceil((double) remainingStock / segmentStock);
+            for (int i = 0; i < segmentCount; i++) {
+                int stockForSegment = Math.min(segmentStock, remainingStock);
+                remainingStock -= stockForSegment;
+
+                InventorySegmentModel segment = new InventorySegmentModel();
+                segment.setProductId(productId);
+                segment.setSegmentId(startSegmentId + i + 1);
+                segment.setTotalStock(stockForSegment);
+                segment.setAvailableStock(stockForSegment);
+                segment.setStatus(1);
+                newSegments.add(segment);
+            }
+        }
+
+        // 5. 批量插入新分段，旧分段已全部失效
+        inventorySegmentMapper.batchInsert(newSegments);
+        return newSegments;
+    }
+
     /**
      * 获取当前库存状态
      */
@@ -242,20 +365,11 @@ public class RandomInventorySegmentService {
      * 从Redis获取分段信息
      */
     private List<InventorySegmentModel> getSegmentsFromCache(int productId) {
-        String key = SEGMENT_STOCK_KEY + productId;
+        String key = RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId);
 
         // Lua脚本：获取hash的所有字段和值
-        String script =
-                "local result = {}; " +
-                        "local fields = redis.call('hgetall', KEYS[1]); " +
-                        "if #fields == 0 then return nil end; " +
-                        "for i = 1, #fields, 2 do " +
-                        "  table.insert(result, {fields[i], fields[i+1]}); " +
-                        "end; " +
-                        "return result;";
-
         List<List<String>> result = (List<List<String>>) redisOperationService.evalScript(
-                script,
+                RedisLuaScriptEnum.GET_SEGMENTS_STOCK,
                 Collections.singletonList(key),
                 Collections.emptyList()
         );
@@ -280,8 +394,7 @@ public class RandomInventorySegmentService {
      * 从数据库加载并缓存分段信息
      */
     private List<InventorySegmentModel> loadAndCacheSegments(int productId) {
-        List<InventorySegmentModel> segments =
-                inventorySegmentMapper.getSegmentsByProductId(productId);
+        List<InventorySegmentModel> segments = readAvailableSegments(productId);
 
         if (!segments.isEmpty()) {
             // 转换为Hash结构并缓存
@@ -292,10 +405,20 @@ public class RandomInventorySegmentService {
                     ));
             setSegmentsStock(productId, stockMap);
         }
+        bestMatchSegmentStrategy.reload(productId, segments);
 
         return segments;
     }
 
+    /**
+     * 在独立事务中读取有库存的有效分段，不加锁
+     * 调用方的扣减事务不因此持有分段行锁；独立事务读到最新提交的分段，不受外层事务快照影响，合并提交后也能读到新分段
+     */
+    private List<InventorySegmentModel> readAvailableSegments(int productId) {
+        return compactionTransaction.execute(status ->
+                inventorySegmentMapper.getAvailableSegmentsByProductIds(List.of(productId)));
+    }
+
     /**
      * 库存状态封装类
      */
@@ -337,41 +460,185 @@ public class RandomInventorySegmentService {
      * 在选定分段中执行库存扣减
      */
     @Transactional
-    public boolean doReduceInventoryInSegment(InventorySegmentModel segment, int quantity) {
+    public boolean doReduceInventoryInSegment(int productId, int segmentId, int quantity) {
         // 1. 先尝试在Redis中扣减
-        // 在当前分段扣减库存
-        String lockKey = SEGMENTS_CACHE_KEY + segment.getProductId();
-        long redisReduceResult = redisOperationService.reduceStock(lockKey, String.valueOf(segment.getSegmentId()), quantity);
+        String stockKey = RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId);
+        long redisReduceResult = redisOperationService.reduceStock(stockKey, String.valueOf(segmentId), quantity);
 
         if (redisReduceResult != RedisReduceStockEnum.REDUCE_SUCCESS.getValue()) {
             logger.warn("redis 库存扣减失败 productId: {}, quantity: {},segmentId:{}, reduceResult:{}",
-                    segment.getProductId(), quantity, segment.getSegmentId(), redisReduceResult);
+                    productId, quantity, segmentId, redisReduceResult);
             return false;
         }
 
-        // 2. Redis扣减成功后更新数据库
-        // todo  redis 数据中没有version
-        boolean isSuccess = inventorySegmentMapper.reduceAvailableStockWithVersion(
-                segment.getProductId(),
-                segment.getSegmentId(),
+        // 2. Redis扣减成功后更新数据库，Redis中没有version，按数据库当前版本扣减
+        InventorySegmentModel segment = inventorySegmentMapper.getSegmentForUpdate(productId, segmentId);
+        boolean isSuccess = segment != null && inventorySegmentMapper.reduceAvailableStockWithVersion(
+                productId,
+                segmentId,
                 quantity,
                 segment.getVersion()
         ) == 1;
 
-        if (isSuccess) {
-            redisOperationService.rollbackInventory(lockKey, String.valueOf(segment.getSegmentId()), quantity);
+        if (!isSuccess) {
+            rollbackSegmentStock(productId, segmentId, quantity);
+            soldOutRegistry.rearm(productId);
             return false;
         }
+        segmentChangeTracker.markDirty(productId);
+        if (segment.getAvailableStock() == quantity) {
+            segmentAvailabilityBitmap.markEmpty(productId, segmentId);
+        }
         return true;
     }
 
 
+    /**
+     * 回滚Redis中的扣减
+     * 分段可能已在扣减期间被在线合并退役：合并时新分段的库存按Redis中已扣过的值计算，
+     * 回滚数量由脚本转投到吸收该分段的分段上，数据库中的对应分段同样加回，两边都不少这部分库存
+     */
+    private void rollbackSegmentStock(int productId, int segmentId, int quantity) {
+        long creditedSegmentId = (long) redisOperationService.evalScript(RedisLuaScriptEnum.ROLLBACK_SEGMENT_STOCK,
+                Arrays.asList(RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId), RedisOperationService.productKey(RETIRED_SEGMENTS_KEY, productId)),
+                Arrays.asList(String.valueOf(segmentId), String.valueOf(quantity)));
+        if (creditedSegmentId < 0) {
+            logger.warn("退役分段没有可转投的分段，回滚数量少卖 productId:{}, segmentId:{}, quantity:{}",
+                    productId, segmentId, quantity);
+            return;
+        }
+        if (creditedSegmentId == 0 || creditedSegmentId == segmentId) {
+            return;
+        }
+        if (inventorySegmentMapper.returnAvailableStock(productId, (int) creditedSegmentId, quantity) != 1) {
+            logger.warn("转投分段在数据库中已失效 productId:{}, segmentId:{}, creditedSegmentId:{}, quantity:{}",
+                    productId, segmentId, creditedSegmentId, quantity);
+            return;
+        }
+        segmentAvailabilityBitmap.markAvailable(productId, (int) creditedSegmentId);
+        logger.info("退役分段的回滚转投到新分段 productId:{}, segmentId:{}, creditedSegmentId:{}, quantity:{}",
+                productId, segmentId, creditedSegmentId, quantity);
+    }
+
     /**
      * 标准合并策略 - 用于小额请求 & 定时任务合并
+     * 优先在线合并碎片分段，没有可合并的碎片时才全量重新分配
      */
-    public boolean triggerStandardMerge(int productId) {
-        return triggerMergeWithLock(productId, totalStock ->
-                redistributeStockWithStrategy(productId, totalStock, SEGMENT_STOCK, false));
+    public Boolean triggerStandardMerge(int productId) {
+        Boolean compacted = triggerOnlineCompaction(productId);
+        if (compacted == null || compacted) {
+            return compacted;
+        }
+        return triggerMergeWithLock(productId, (totalStock, fencingToken) ->
+                redistributeStockWithStrategy(productId, totalStock, 0, false, fencingToken));
+    }
+
+    /**
+     * 在线合并，只把碎片分段合并成新分段，健康分段保持不变
+     *
+     * @return true 合并成功，false 没有可合并的碎片分段，null 其他线程正在合并
+     */
+    public Boolean triggerOnlineCompaction(int productId) {
+        LockLease lease = lockLeaseManager.acquire(MERGE_LOCK_KEY + productId);
+        if (lease == null) {
+            logger.info("其他线程正在进行合并，跳过 productId:{}", productId);
+            return null;
+        }
+        try {
+            return compactFragmentedSegments(productId, lease.getFencingToken());
+        } finally {
+            lockLeaseManager.release(lease);
+        }
+    }
+
+    /**
+     * 1. 在Redis中用一个脚本删除碎片分段字段、写入新分段字段，之后的扣减只会落在健康分段和新分段上；
+     *    扣减中途的碎片分段已在Redis中扣过，新分段的库存以Redis删除时的值为准
+     * 2. 在独立事务中检查合并锁的围栏令牌，作废碎片分段、插入新分段，不锁健康分段；失败时在Redis中撤销第 1 步
+     * <p>
+     * 第 1 步先于写库执行，数据库的令牌检查挡不住它，所以执行前先单独推进一次令牌，已被取代的持有者在这里就失败；
+     * 推进令牌之后、写库之前才失去租约的持有者，Redis中的合并仍可能与新持有者的合并交错，只由第 2 步失败后的撤销补偿。
+     * 成功后的位图更新在提交之后执行，同样不受令牌保护，位图只是选段的提示，扣减以分段库存为准
+     */
+    private boolean compactFragmentedSegments(int productId, long fencingToken) {
+        // 与 readAvailableSegments 相同，在独立事务中读取，不受外层扣减事务快照影响
+        List<InventorySegmentModel> validSegments = compactionTransaction.execute(status ->
+                inventorySegmentMapper.getValidSegmentsByProductId(productId));
+        List<Integer> fragmentIds = new ArrayList<>();
+        int fragmentStock = 0;
+        for (InventorySegmentModel segment : validSegments) {
+            if (mergeCheckStrategy.isFragmented(segment)) {
+                fragmentIds.add(segment.getSegmentId());
+                fragmentStock += segment.getAvailableStock();
+            }
+        }
+        if (fragmentIds.size() < 2) {
+            return false;
+        }
+
+        int segmentStock = segmentSizingStrategy.segmentSize(productId, fragmentStock);
+        Integer maxSegmentId = compactionTransaction.execute(status -> inventorySegmentMapper.getMaxSegmentId(productId));
+        int startSegmentId = (maxSegmentId == null) ? 1 : maxSegmentId + 1;
+
+        // 写Redis之前先单独推进一次令牌，已被新持有者取代的合并不会改动Redis
+        compactionTransaction.executeWithoutResult(status -> checkFencingToken(productId, fencingToken));
+
+        String stockKey = RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId);
+        String retiredKey = RedisOperationService.productKey(RETIRED_SEGMENTS_KEY, productId);
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(segmentStock));
+        args.add(String.valueOf(startSegmentId));
+        fragmentIds.forEach(id -> args.add(String.valueOf(id)));
+        List<?> compacted = (List<?>) redisOperationService.evalScript(
+                RedisLuaScriptEnum.COMPACT_SEGMENTS, Arrays.asList(stockKey, retiredKey), args);
+        List<Long> retiredStocks = new ArrayList<>(compacted.size());
+        for (Object stock : compacted) {
+            retiredStocks.add(((Number) stock).longValue());
+        }
+
+        long remaining = retiredStocks.stream().mapToLong(Long::longValue).sum();
+        List<InventorySegmentModel> newSegments = new ArrayList<>();
+        for (int segmentId = startSegmentId; remaining > 0; segmentId++) {
+            int stock = (int) Math.min(segmentStock, remaining);
+            remaining -= stock;
+            InventorySegmentModel segment = new InventorySegmentModel();
+            segment.setProductId(productId);
+            segment.setSegmentId(segmentId);
+            segment.setTotalStock(stock);
+            segment.setAvailableStock(stock);
+            segment.setStatus(1);
+            newSegments.add(segment);
+        }
+
+        try {
+            compactionTransaction.executeWithoutResult(status -> {
+                checkFencingToken(productId, fencingToken);
+                inventorySegmentMapper.invalidateSegmentsByIds(productId, fragmentIds);
+                if (!newSegments.isEmpty()) {
+                    inventorySegmentMapper.batchInsert(newSegments);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("在线合并写库失败，撤销Redis中的合并 productId:{}, error:{}", productId, e.getMessage());
+            List<String> restoreArgs = new ArrayList<>();
+            restoreArgs.add(String.valueOf(newSegments.size()));
+            newSegments.forEach(segment -> restoreArgs.add(String.valueOf(segment.getSegmentId())));
+            for (int i = 0; i < fragmentIds.size(); i++) {
+                restoreArgs.add(String.valueOf(fragmentIds.get(i)));
+                restoreArgs.add(String.valueOf(retiredStocks.get(i)));
+            }
+            redisOperationService.evalScript(RedisLuaScriptEnum.RESTORE_COMPACTED_SEGMENTS,
+                    Arrays.asList(stockKey, retiredKey), restoreArgs);
+            throw new RuntimeException("在线合并失败", e);
+        }
+
+        fragmentIds.forEach(id -> segmentAvailabilityBitmap.markEmpty(productId, id));
+        newSegments.forEach(segment -> segmentAvailabilityBitmap.markAvailable(productId, segment.getSegmentId()));
+        bestMatchSegmentStrategy.invalidate(productId);
+
+        logger.info("在线合并完成 productId:{}, fragmentCount:{}, newSegmentCount:{}, startSegmentId:{}",
+                productId, fragmentIds.size(), newSegments.size(), startSegmentId);
+        return true;
     }
 
     /**
@@ -380,8 +647,9 @@ public class RandomInventorySegmentService {
     @Transactional
     public boolean redistributeStock(int productId, int totalStock) {
         try {
-            // 1. 计算需要的分段数
-            int segmentCount = (int) Math.ceil((double) totalStock / SEGMENT_STOCK);
+            // 1. 计算分段大小和需要的分段数
+            int segmentStock = segmentSizingStrategy.segmentSize(productId, totalStock);
+            int segmentCount = (int) Math.ceil((double) totalStock / segmentStock);
 
             // 2. 获取当前最大的segmentId
             Integer maxSegmentId = inventorySegmentMapper.getMaxSegmentId(productId);
@@ -394,7 +662,7 @@ public class RandomInventorySegmentService {
             // 4. 创建新的分段
             List<InventorySegmentModel> newSegments = new ArrayList<>();
             for (int i = 0; i < segmentCount; i++) {
-                int stockForSegment = Math.min(SEGMENT_STOCK, totalStock);
+                int stockForSegment = Math.min(segmentStock, totalStock);
                 totalStock -= stockForSegment;
 
                 InventorySegmentModel segment = new InventorySegmentModel();
@@ -406,12 +674,15 @@ public class RandomInventorySegmentService {
                 newSegments.add(segment);
             }
 
-            // 5. 批量插入新分段
+            // 5. 批量插入新分段，旧分段已全部失效，位图按新分段重建
             inventorySegmentMapper.batchInsert(newSegments);
+            segmentAvailabilityBitmap.reset(productId,
+                    newSegments.stream().map(InventorySegmentModel::getSegmentId).toList());
 
             // 重新加载并缓存新的分段信息
             loadAndCacheSegments(productId);
 
+            soldOutRegistry.rearm(productId);
             logger.info("新分配库存成功 productId:{}, segmentCount:{}, startSegmentId:{}",
                     productId, segmentCount, startSegmentId);
             return true;
@@ -426,7 +697,7 @@ public class RandomInventorySegmentService {
      * 批量设置分段库存
      */
     private void setSegmentsStock(int productId, Map<Integer, Integer> segmentStocks) {
-        String key = SEGMENT_STOCK_KEY + productId;
+        String key = RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId);
 
         // 构建参数列表：[segmentId1, stock1, segmentId2, stock2, ...]
         List<String> args = new ArrayList<>();
@@ -436,11 +707,8 @@ public class RandomInventorySegmentService {
         });
 
         // Lua脚本：使用HSET一次性设置多个字段
-        String script =
-                "return redis.call('hset', KEYS[1], unpack(ARGV))";
-
         redisOperationService.evalScript(
-                script,
+                RedisLuaScriptEnum.SET_SEGMENTS_STOCK,
                 Collections.singletonList(key),
                 args
         );
@@ -1,36 +1,57 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.common.RedisLuaScriptEnum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.PipelineBase;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.resps.Tuple;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 @Service
 public class RedisOperationService {
 
     private static final Logger logger = LoggerFactory.getLogger(RedisOperationService.class);
 
-    @Value("${spring.data.redis.host:localhost}")
-    private String redisHost;
+    /**
+     * 扣减时随机检查的分段数
+     */
+    private static final int SEGMENT_SAMPLE_SIZE = 8;
 
-    @Value("${spring.data.redis.port:6379}")
-    private int redisPort;
+    /**
+     * 连接池客户端，线程安全，每次调用从池中借出连接；单节点或集群，见 RedisConfig
+     */
+    @Autowired
+    private UnifiedJedis jedis;
 
-    private Jedis jedis;
+    @Autowired
+    private RedisScriptRegistry scriptRegistry;
 
-    public RedisOperationService() {
-        this.jedis = new Jedis("localhost", 6379);
-    }
+    /**
+     * 每个商品的分段库存拆分成的 Hash 数量，为 1 时不拆分
+     */
+    @Value("${redis.stockShards:1}")
+    private int stockShards;
 
     /**
      * 尝试获取锁
      *
+     * @param expireTime 过期时间，单位毫秒
      * @return true 如果成功获取锁，false 如果获取失败
      */
     public boolean acquireLock(String lockKey, String lockValue, long expireTime) {
@@ -38,21 +59,13 @@ public class RedisOperationService {
         try {
             logger.info("acquireLock，key:{}， value:{}, expireTime:{}", lockKey, lockValue, expireTime);
 
-            // Lua 脚本，使用 SETNX 和 EXPIRE 实现分布式锁
-            String luaScript = "if redis.call('setnx', KEYS[1], ARGV[1]) == 1 then" +
-                    "    redis.call('expire', KEYS[1], ARGV[2])" +
-                    "    return 1 " +
-                    "else" +
-                    "    return 0 " +
-                    "end";
-
             List<String> keys = new ArrayList<>();
             List<String> values = new ArrayList<>();
             keys.add(lockKey);
             values.add(lockValue);
             values.add(String.valueOf(expireTime));
 
-            Object result = jedis.eval(luaScript, keys, values);
+            Object result = scriptRegistry.eval(RedisLuaScriptEnum.ACQUIRE_LOCK, keys, values);
             return result.equals(1L);
 
         } catch (Exception e) {
@@ -61,6 +74,17 @@ public class RedisOperationService {
         }
     }
 
+    /**
+     * 获取锁并从 fencingKey 计数器分配围栏令牌，集群模式下两个 key 需要在同一个槽
+     *
+     * @param expireTime 过期时间，单位毫秒
+     * @return 围栏令牌，锁被占用时返回 0
+     */
+    public long acquireFencedLock(String lockKey, String fencingKey, String lockValue, long expireTime) {
+        return (long) scriptRegistry.eval(RedisLuaScriptEnum.ACQUIRE_FENCED_LOCK,
+                Arrays.asList(lockKey, fencingKey), Arrays.asList(lockValue, String.valueOf(expireTime)));
+    }
+
     /**
      * 释放锁
      *
@@ -71,18 +95,10 @@ public class RedisOperationService {
             logger.info("releaseLock，key:{}， value:{}", lockKey, lockValue);
 
             // Lua 脚本，保证原子性：只有持有锁的客户端才能释放锁
-            String luaScript = "if redis.call('get', KEYS[1]) == false then" +
-                    "    return 1 " +
-                    "elseif redis.call('get', KEYS[1]) == ARGV[1] then" +
-                    "    return redis.call('del', KEYS[1])" +
-                    "else" +
-                    "    return 2 " +
-                    "end";
-
             List<String> keys = Collections.singletonList(lockKey);
             List<String> values = Collections.singletonList(lockValue);
 
-            Object result = jedis.eval(luaScript, keys, values);
+            Object result = scriptRegistry.eval(RedisLuaScriptEnum.RELEASE_LOCK, keys, values);
 
             return result.equals(1L);
         } catch (Exception e) {
@@ -104,42 +120,57 @@ public class RedisOperationService {
         jedis.set(lockKey, lockValue);
     }
 
+    /**
+     * 设置值和过期时间，单位秒
+     */
+    public void set(String key, String value, long expireSeconds) {
+        jedis.setex(key, expireSeconds, value);
+    }
+
+    public void del(String key) {
+        jedis.del(key);
+    }
+
     /**
      * 锁续期
      *
-     * @param lockKey
-     * @param lockValue
-     * @param additionalTime
+     * @param expireTime 从现在起的过期时间，单位毫秒
+     * @return true 续期成功，false 锁已过期或被其他客户端持有
      */
-    public void extendLock(String lockKey, String lockValue, long additionalTime) {
-        String luaScript = "if redis.call('get', KEYS[1]) == ARGV[1] then " +
-                "    return redis.call('expire', KEYS[1], ARGV[2]) " +
-                "else " +
-                "    return 0 " +
-                "end";
-        jedis.eval(luaScript, Collections.singletonList(lockKey),
-                Arrays.asList(lockValue, String.valueOf(additionalTime)));
+    public boolean extendLock(String lockKey, String lockValue, long expireTime) {
+        Object result = scriptRegistry.eval(RedisLuaScriptEnum.EXTEND_LOCK, Collections.singletonList(lockKey),
+                Arrays.asList(lockValue, String.valueOf(expireTime)));
+        return result.equals(1L);
     }
 
-    public long reduceStock(String key, Integer requestQuality) {
-        String luaScript =
-                "local current_stock = tonumber(redis.call('GET', KEYS[1])) " +
-                        "local deduct_amount = tonumber(ARGV[1]) " +
-                        "if current_stock == nil then " +
-                        "    return -2 " +
-                        "elseif current_stock == 0 then " +
-                        "    return 0 " +
-                        "elseif current_stock < deduct_amount then " +
-                        "    return -1 " +
-                        "else " +
-                        "    redis.call('DECRBY', KEYS[1], deduct_amount) " +
-                        "    return 1 " +
-                        "end";
+    /**
+     * 用一个管道为多把锁续期
+     *
+     * @param locks      锁key -> 锁的值
+     * @param expireTime 从现在起的过期时间，单位毫秒
+     * @return 续期失败的锁key
+     */
+    public List<String> extendLocks(Map<String, String> locks, long expireTime) {
+        String script = RedisLuaScriptEnum.EXTEND_LOCK.getScript();
+        String expire = String.valueOf(expireTime);
+        Map<String, Response<Object>> responses = new LinkedHashMap<>();
+        executePipelined(pipeline -> locks.forEach((lockKey, lockValue) ->
+                responses.put(lockKey, pipeline.eval(script, Collections.singletonList(lockKey),
+                        Arrays.asList(lockValue, expire)))));
+        List<String> lost = new ArrayList<>();
+        responses.forEach((lockKey, response) -> {
+            if (!Long.valueOf(1L).equals(response.get())) {
+                lost.add(lockKey);
+            }
+        });
+        return lost;
+    }
 
+    public long reduceStock(String key, Integer requestQuality) {
         List<String> keys = Collections.singletonList(key);
         List<String> values = Collections.singletonList(requestQuality.toString());
 
-        return (long) jedis.eval(luaScript, keys, values);
+        return (long) scriptRegistry.eval(RedisLuaScriptEnum.REDUCE_STOCK, keys, values);
     }
 
     /**
@@ -151,31 +182,79 @@ public class RedisOperationService {
     }
 
     public long reduceStock(String redisKey, String segmentId, int quantity) {
-        // Lua 脚本，使用 HGET 获取库存，并根据情况扣减
-        String luaScript = "local stock = tonumber(redis.call('hget', KEYS[1], ARGV[1])) " +
-                "if stock >= tonumber(ARGV[2]) then " +
-                "   local newStock = stock - tonumber(ARGV[2]) " +
-                "   if newStock == 0 then " +
-                "       redis.call('hdel', KEYS[1], ARGV[1]) " +  // 如果库存为 0，删除该分段
-                "   else " +
-                "       redis.call('hset', KEYS[1], ARGV[1], newStock) " +  // 更新库存
-                "   end " +
-                "   return 1 " +
-                "else " +
-                "   return -1 " +
-                "end";
-
-        // 执行Lua脚本，传递参数 KEYS 和 ARGV
-        Object result = jedis.eval(luaScript,
-                1,          // KEYS 数量
-                redisKey,   // KEYS[1]
-                segmentId,  // ARGV[1]，对应的是分段的 segment_id
-                String.valueOf(quantity));  // ARGV[2]，扣减的库存量
+        // Lua 脚本，使用 HGET 获取库存，并根据情况扣减，库存为 0 时删除该分段
+        Object result = scriptRegistry.eval(RedisLuaScriptEnum.REDUCE_SEGMENT_STOCK,
+                Collections.singletonList(redisKey),   // KEYS[1]
+                Arrays.asList(segmentId,               // ARGV[1]，对应的是分段的 segment_id
+                        String.valueOf(quantity)));    // ARGV[2]，扣减的库存量
 
         // 根据Lua脚本的返回结果判断扣减是否成功
         return (long) result;
     }
 
+    /**
+     * 随机采样分段并扣减，样本都不满足时才遍历，一次往返
+     *
+     * @return 扣减成功的分段ID，小于等于 0 时为失败原因，见 REDUCE_ANY_SEGMENT_STOCK
+     */
+    public long reduceAnySegmentStock(String redisKey, int quantity) {
+        Object result = scriptRegistry.eval(RedisLuaScriptEnum.REDUCE_ANY_SEGMENT_STOCK,
+                Collections.singletonList(redisKey),
+                Arrays.asList(String.valueOf(quantity), String.valueOf(SEGMENT_SAMPLE_SIZE)));
+        return (long) result;
+    }
+
+    /**
+     * 商品维度的 key：prefix + {productId}
+     * 同一商品的 key 使用相同的 hash tag，集群模式下落在同一个槽位，可以在一个脚本或 MULTI 中一起访问
+     */
+    public static String productKey(String prefix, int productId) {
+        return prefix + "{" + productId + "}";
+    }
+
+    /**
+     * 分片库存 Hash 的 key
+     * 分片数为 1 时与其他商品 key 相同，为 prefix + {productId}；否则为 prefix + {productId:shard}，
+     * 每个分片的 hash tag 不同，集群模式下落在不同槽位，热点商品的扣减分散到多个节点
+     */
+    public String stockShardKey(String prefix, int productId, int shard) {
+        if (stockShards == 1) {
+            return productKey(prefix, productId);
+        }
+        return prefix + "{" + productId + ":" + shard + "}";
+    }
+
+    /**
+     * 分段所在分片的 key，分段按 segmentId 取模分配到分片
+     */
+    public String stockShardKeyOfSegment(String prefix, int productId, int segmentId) {
+        return stockShardKey(prefix, productId, Math.floorMod(segmentId, stockShards));
+    }
+
+    public int getStockShards() {
+        return stockShards;
+    }
+
+    /**
+     * 从随机分片开始，逐个分片执行 REDUCE_ANY_SEGMENT_STOCK，直到某个分段扣减成功
+     *
+     * @return 扣减成功的分段ID；-1 表示没有库存足够的分段，-2 表示所有分片都已没有分段
+     */
+    public long reduceAnyShardedSegmentStock(String prefix, int productId, int quantity) {
+        int start = ThreadLocalRandom.current().nextInt(stockShards);
+        boolean allEmpty = true;
+        for (int i = 0; i < stockShards; i++) {
+            long result = reduceAnySegmentStock(stockShardKey(prefix, productId, (start + i) % stockShards), quantity);
+            if (result > 0) {
+                return result;
+            }
+            if (result != -2) {
+                allEmpty = false;
+            }
+        }
+        return allEmpty ? -2 : -1;
+    }
+
     public long getInventorySegmentCount(String productKey) {
         return jedis.hlen(productKey); // 获取哈希表中字段的数量，即库存分段数量
     }
@@ -224,7 +303,7 @@ public class RedisOperationService {
      */
     public Object evalScript(String script, List<String> keys, List<String> args) {
         try {
-            return jedis.eval(script, keys, args);
+            return scriptRegistry.eval(script, keys, args);
         } catch (Exception e) {
             logger.error("执行Lua脚本失败 script:{}, keys:{}, args:{}, error:{}", 
                 script, keys, args, e.getMessage());
@@ -232,4 +311,145 @@ public class RedisOperationService {
         }
     }
 
+    /**
+     * 执行预注册的Lua脚本
+     * @param script 脚本
+     * @param keys KEYS参数列表
+     * @param args ARGV参数列表
+     * @return 脚本执行结果
+     */
+    public Object evalScript(RedisLuaScriptEnum script, List<String> keys, List<String> args) {
+        try {
+            return scriptRegistry.eval(script, keys, args);
+        } catch (Exception e) {
+            logger.error("执行Lua脚本失败 script:{}, keys:{}, args:{}, error:{}",
+                script.getName(), keys, args, e.getMessage());
+            throw new RuntimeException("执行Lua脚本失败", e);
+        }
+    }
+
+    /**
+     * 批量获取多个key的值，一次网络往返
+     *
+     * @param keys key列表
+     * @return 与 keys 顺序一致的值列表，不存在的key对应null
+     */
+    public List<String> mget(List<String> keys) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (jedis instanceof JedisCluster) {
+            // key 分布在不同槽位时不能用 MGET，改为管道，由集群管道按槽位分发到各节点
+            List<Response<String>> responses = new ArrayList<>(keys.size());
+            executePipelined(pipeline -> keys.forEach(key -> responses.add(pipeline.get(key))));
+            return responses.stream().map(Response::get).toList();
+        }
+        return jedis.mget(keys.toArray(new String[0]));
+    }
+
+    /**
+     * 获取Hash中的所有字段
+     */
+    public Map<String, String> hgetAll(String key) {
+        return jedis.hgetAll(key);
+    }
+
+    /**
+     * 批量设置Hash中的多个字段，一次网络往返
+     */
+    public void hsetAll(String key, Map<String, String> fieldValues) {
+        if (fieldValues.isEmpty()) {
+            return;
+        }
+        try {
+            jedis.hset(key, fieldValues);
+        } catch (Exception e) {
+            logger.error("批量设置Hash字段失败 key:{}, size:{}, error:{}", key, fieldValues.size(), e.getMessage());
+            throw new RuntimeException("批量设置Hash字段失败", e);
+        }
+    }
+
+    /**
+     * 使用管道批量执行命令
+     * 管道独占一个连接，命令在客户端缓冲后一次性发送，所有响应在关闭管道时统一读取；
+     * 集群模式下按槽位分组，每个节点一个连接
+     *
+     * @param commands 在管道上追加命令的回调，需要结果时保留命令返回的 Response，执行完成后读取
+     */
+    public void executePipelined(Consumer<PipelineBase> commands) {
+        try (PipelineBase pipeline = jedis.pipelined()) {
+            commands.accept(pipeline);
+            pipeline.sync();
+        } catch (Exception e) {
+            logger.error("管道执行失败 error:{}", e.getMessage());
+            throw new RuntimeException("管道执行失败", e);
+        }
+    }
+
+    /**
+     * 向集合中添加成员
+     */
+    public long sadd(String key, String... members) {
+        return jedis.sadd(key, members);
+    }
+
+    public long srem(String key, String... members) {
+        return jedis.srem(key, members);
+    }
+
+    /**
+     * 向有序集合中添加成员，成员已存在时更新分数
+     */
+    public long zadd(String key, double score, String member) {
+        return jedis.zadd(key, score, member);
+    }
+
+    public long zrem(String key, String... members) {
+        return jedis.zrem(key, members);
+    }
+
+    /**
+     * 按分数范围获取有序集合的成员，成员 -> 分数
+     */
+    public Map<String, Double> zrangeByScoreWithScores(String key, double min, double max) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (Tuple tuple : jedis.zrangeByScoreWithScores(key, min, max)) {
+            result.put(tuple.getElement(), tuple.getScore());
+        }
+        return result;
+    }
+
+    public long zremrangeByScore(String key, double min, double max) {
+        return jedis.zremrangeByScore(key, min, max);
+    }
+
+    /**
+     * 获取Set中的所有成员
+     */
+    public Set<String> smembers(String key) {
+        return jedis.smembers(key);
+    }
+
+    public long publish(String channel, String message) {
+        return jedis.publish(channel, message);
+    }
+
+    /**
+     * 随机弹出集合中最多 count 个成员
+     */
+    public Set<String> spop(String key, long count) {
+        return jedis.spop(key, count);
+    }
+
+    public long scard(String key) {
+        return jedis.scard(key);
+    }
+
+    /**
+     * 订阅频道，阻塞当前线程直到 pubSub 取消订阅或连接断开
+     */
+    public void subscribe(JedisPubSub pubSub, String... channels) {
+        jedis.subscribe(pubSub, channels);
+    }
+
 }
@@ -0,0 +1,75 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.UnifiedJedis;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lua 脚本注册表
+ * 启动时通过 SCRIPT LOAD 预加载脚本并缓存 SHA，执行时使用 EVALSHA，只传输脚本摘要而不是完整脚本内容。
+ * Redis 重启或执行 SCRIPT FLUSH 后脚本缓存会丢失，此时 EVALSHA 返回 NOSCRIPT，注册表会重新加载脚本并重试一次。
+ */
+@Component
+public class RedisScriptRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisScriptRegistry.class);
+
+    @Autowired
+    private UnifiedJedis jedis;
+
+    /**
+     * 脚本内容 -> SHA1
+     */
+    private final Map<String, String> shaCache = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void preload() {
+        for (RedisLuaScriptEnum script : RedisLuaScriptEnum.values()) {
+            try {
+                shaCache.put(script.getScript(), jedis.scriptLoad(script.getScript()));
+            } catch (Exception e) {
+                // 预加载失败不影响启动，首次执行时会重新加载
+                logger.warn("预加载Lua脚本失败 script:{}, error:{}", script.getName(), e.getMessage());
+            }
+        }
+        logger.info("预加载Lua脚本完成 count:{}", shaCache.size());
+    }
+
+    /**
+     * 执行已注册的脚本
+     */
+    public Object eval(RedisLuaScriptEnum script, List<String> keys, List<String> args) {
+        return eval(script.getScript(), keys, args);
+    }
+
+    /**
+     * 通过 EVALSHA 执行脚本，未注册的脚本在首次执行时加载
+     */
+    public Object eval(String script, List<String> keys, List<String> args) {
+        String sha = shaCache.computeIfAbsent(script, jedis::scriptLoad);
+        try {
+            return jedis.evalsha(sha, keys, args);
+        } catch (JedisNoScriptException e) {
+            logger.warn("Lua脚本缓存已失效，重新加载 sha:{}", sha);
+            String reloadedSha = jedis.scriptLoad(script);
+            shaCache.put(script, reloadedSha);
+            return jedis.evalsha(reloadedSha, keys, args);
+        }
+    }
+
+    /**
+     * 获取脚本的 SHA1，未加载返回null
+     */
+    public String getSha(RedisLuaScriptEnum script) {
+        return shaCache.get(script.getScript());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 分段可用位图
+ * <p>
+ * 每个商品一个 Redis 位图，第 segmentId 位为 1 表示该分段仍有库存。
+ * 扣减把分段用完时清位，创建分段和合并重分配时整体重建，查找下一个有库存的分段只需一次脚本调用。
+ * 位图只是提示：置位的分段仍需在数据库中加锁校验，发现已无库存时顺手清位，因此位图滞后不会影响正确性。
+ * 位图过期或从未创建时，单个分段的置位、清位不会创建位图，由下一次查找时按数据库整体重建。
+ */
+@Component
+public class SegmentAvailabilityBitmap {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentAvailabilityBitmap.class);
+
+    private static final String BITMAP_KEY_PREFIX = "segmentAvailable:";
+
+    private static final int BITMAP_EXPIRE_TIME = 24 * 60 * 60;
+
+    /**
+     * 位图不存在
+     */
+    public static final int BITMAP_MISSING = -2;
+
+    /**
+     * 没有可用分段
+     */
+    public static final int NO_AVAILABLE_SEGMENT = -1;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    /**
+     * 查找不小于 fromSegmentId 的第一个有库存的分段
+     *
+     * @return 分段ID，NO_AVAILABLE_SEGMENT 或 BITMAP_MISSING
+     */
+    public int nextAvailable(int productId, int fromSegmentId) {
+        Object result = redisOperationService.evalScript(RedisLuaScriptEnum.NEXT_AVAILABLE_SEGMENT,
+                Collections.singletonList(RedisOperationService.productKey(BITMAP_KEY_PREFIX, productId)),
+                Collections.singletonList(String.valueOf(fromSegmentId)));
+        return (int) (long) result;
+    }
+
+    /**
+     * 分段库存用完
+     * 在事务中调用时推迟到事务提交后清位：事务回滚时分段库存恢复，提前清位会让有库存的分段从位图中消失，
+     * 而位图只会在查找时发现已无库存的分段上纠正，不会把漏掉的分段找回来
+     */
+    public void markEmpty(int productId, int segmentId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    clearBit(productId, segmentId);
+                }
+            });
+            return;
+        }
+        clearBit(productId, segmentId);
+    }
+
+    private void clearBit(int productId, int segmentId) {
+        try {
+            setBit(productId, segmentId, false);
+        } catch (Exception e) {
+            // 清位失败只会多一次数据库校验
+            logger.warn("分段位图清位失败 productId:{}, segmentId:{}, error:{}", productId, segmentId, e.getMessage());
+        }
+    }
+
+    /**
+     * 分段重新有了库存
+     */
+    public void markAvailable(int productId, int segmentId) {
+        try {
+            setBit(productId, segmentId, true);
+        } catch (Exception e) {
+            // 置位失败时该分段暂时不会被位图找到，位图重建后恢复
+            logger.warn("分段位图置位失败 productId:{}, segmentId:{}, error:{}", productId, segmentId, e.getMessage());
+        }
+    }
+
+    private void setBit(int productId, int segmentId, boolean available) {
+        redisOperationService.evalScript(RedisLuaScriptEnum.SET_SEGMENT_BIT,
+                Collections.singletonList(RedisOperationService.productKey(BITMAP_KEY_PREFIX, productId)),
+                List.of(String.valueOf(segmentId), available ? "1" : "0", String.valueOf(BITMAP_EXPIRE_TIME)));
+    }
+
+    /**
+     * 用有库存的分段ID重建位图
+     */
+    public void reset(int productId, Collection<Integer> availableSegmentIds) {
+        List<String> args = new ArrayList<>(availableSegmentIds.size() + 1);
+        args.add(String.valueOf(BITMAP_EXPIRE_TIME));
+        for (Integer segmentId : availableSegmentIds) {
+            args.add(String.valueOf(segmentId));
+        }
+        redisOperationService.evalScript(RedisLuaScriptEnum.RESET_SEGMENT_BITMAP,
+                Collections.singletonList(RedisOperationService.productKey(BITMAP_KEY_PREFIX, productId)), args);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.safeinventory.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 记录分段发生变化的商品，作为合并任务的候选
+ * 扣减路径只写本地集合，后台线程定期批量写入 Redis 的脏集合，所有实例的变化汇总到同一个集合中
+ */
+@Service
+public class SegmentChangeTracker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentChangeTracker.class);
+
+    public static final String DIRTY_PRODUCTS_KEY = "inventory:segments:dirty";
+
+    private final Set<Integer> localDirty = ConcurrentHashMap.newKeySet();
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Value("${merge.dirtyFlushMillis:1000}")
+    private long flushIntervalMillis;
+
+    @PostConstruct
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-dirty-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flusher.shutdownNow();
+        flush();
+    }
+
+    /**
+     * 商品的分段库存发生了变化
+     */
+    public void markDirty(int productId) {
+        localDirty.add(productId);
+    }
+
+    /**
+     * 将商品重新放回脏集合，用于本轮未处理的商品
+     */
+    public void markDirty(Collection<Integer> productIds) {
+        localDirty.addAll(productIds);
+    }
+
+    /**
+     * 本地记录写入 Redis，写入失败的留到下次
+     */
+    public void flush() {
+        if (localDirty.isEmpty()) {
+            return;
+        }
+        List<Integer> productIds = new ArrayList<>(localDirty);
+        try {
+            redisOperationService.sadd(DIRTY_PRODUCTS_KEY,
+                    productIds.stream().map(String::valueOf).toArray(String[]::new));
+            productIds.forEach(localDirty::remove);
+        } catch (Exception e) {
+            logger.warn("写入分段脏集合失败 size:{}, error:{}", productIds.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 脏集合中当前的商品数
+     */
+    public long size() {
+        return redisOperationService.scard(DIRTY_PRODUCTS_KEY);
+    }
+
+    /**
+     * 取出最多 count 个待检查的商品，取出即从脏集合中移除
+     */
+    public List<Integer> poll(int count) {
+        Set<String> members = redisOperationService.spop(DIRTY_PRODUCTS_KEY, count);
+        List<Integer> productIds = new ArrayList<>(members.size());
+        for (String member : members) {
+            productIds.add(Integer.parseInt(member));
+        }
+        return productIds;
+    }
+}
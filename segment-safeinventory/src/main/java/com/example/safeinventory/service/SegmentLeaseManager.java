@@ -0,0 +1,237 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.model.InventoryLeaseModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 热点商品的节点本地库存租约
+ * 节点一次从分段中租出一批库存，之后的扣减只在本地内存中做 CAS，不访问数据库和 Redis；
+ * 租约用完、闲置或节点下线时归还剩余库存。节点崩溃时租约中未卖出的库存由过期清理作废，只会少卖不会超卖
+ * <p>
+ * lease.enabled 开启后，InventorySegmentService 中不超过单次租约数量的扣减都从租约扣减
+ */
+@Service
+public class SegmentLeaseManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentLeaseManager.class);
+
+    /**
+     * 节点标识，记录在租约上用于排查
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final Map<Integer, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * 同一商品同一时间只有一个线程去数据库续租
+     */
+    private final Map<Integer, Object> claimLocks = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    InventoryLeaseService inventoryLeaseService;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Value("${lease.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * 每次租出的库存数量
+     */
+    @Value("${lease.quantity:100}")
+    private int leaseQuantity;
+
+    /**
+     * 租约有效期，闲置超过该时间的租约会被归还，使用中的租约定期续期
+     */
+    @Value("${lease.ttlMillis:30000}")
+    private long ttlMillis;
+
+    @Value("${lease.checkIntervalMillis:5000}")
+    private long checkIntervalMillis;
+
+    /**
+     * 租约在数据库中过期超过该时间仍未归还，认为持有节点已失联
+     */
+    @Value("${lease.abandonGraceMillis:60000}")
+    private long abandonGraceMillis;
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "segment-lease-keeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::maintain, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        for (Integer productId : new ArrayList<>(leases.keySet())) {
+            Lease lease = leases.remove(productId);
+            if (lease != null) {
+                release(lease);
+            }
+        }
+    }
+
+    /**
+     * 扣减数量能否由租约满足
+     */
+    public boolean accepts(int quantity) {
+        return enabled && quantity <= leaseQuantity;
+    }
+
+    /**
+     * 从本地租约中扣减库存，租约不足时归还剩余部分并重新租一批
+     *
+     * @return true 扣减成功，false 库存不足
+     */
+    public boolean reduceInventory(int productId, int quantity) {
+        if (quantity > leaseQuantity) {
+            // 超过单次租约数量的订单无法由一个租约满足
+            return false;
+        }
+        if (soldOutRegistry.isSoldOut(productId)) {
+            return false;
+        }
+        Lease lease = leases.get(productId);
+        if (lease != null && lease.tryReduce(quantity)) {
+            return true;
+        }
+
+        synchronized (claimLocks.computeIfAbsent(productId, k -> new Object())) {
+            // 等锁期间其他线程可能已经换了新租约
+            lease = leases.get(productId);
+            if (lease != null && lease.tryReduce(quantity)) {
+                return true;
+            }
+            if (lease != null) {
+                leases.remove(productId, lease);
+                release(lease);
+            }
+
+            InventoryLeaseModel model =
+                    inventoryLeaseService.claim(nodeId, productId, quantity, leaseQuantity, ttlMillis);
+            if (model == null) {
+                logger.info("没有可租出的库存 productId:{}, quantity:{}", productId, quantity);
+                return false;
+            }
+            Lease newLease = new Lease(model.getLeaseId(), productId, model.getSegmentId(), model.getQuantity());
+            boolean success = newLease.tryReduce(quantity);
+            leases.put(productId, newLease);
+            return success;
+        }
+    }
+
+    /**
+     * 当前节点持有的租约剩余库存
+     */
+    public int getLeasedStock(int productId) {
+        Lease lease = leases.get(productId);
+        return lease == null ? 0 : lease.remaining.get();
+    }
+
+    /**
+     * 归还闲置租约、续期使用中的租约，并作废失联节点的租约
+     */
+    void maintain() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases.values()) {
+            try {
+                if (now - lease.lastUsedAt > ttlMillis) {
+                    synchronized (claimLocks.computeIfAbsent(lease.productId, k -> new Object())) {
+                        if (leases.remove(lease.productId, lease)) {
+                            release(lease);
+                        }
+                    }
+                } else if (!inventoryLeaseService.renew(lease.leaseId, ttlMillis)) {
+                    // 数据库中的租约已被作废，剩余库存不能再卖
+                    logger.error("租约已失效，停止使用 productId:{}, leaseId:{}", lease.productId, lease.leaseId);
+                    lease.remaining.set(0);
+                    leases.remove(lease.productId, lease);
+                }
+            } catch (Exception e) {
+                logger.error("维护租约失败 productId:{}, leaseId:{}, error:{}", lease.productId, lease.leaseId, e.getMessage());
+            }
+        }
+
+        try {
+            inventoryLeaseService.abandonExpiredLeases(abandonGraceMillis);
+        } catch (Exception e) {
+            logger.error("作废过期租约失败 error:{}", e.getMessage());
+        }
+    }
+
+    private void release(Lease lease) {
+        // 先清零，之后仍拿着旧租约引用的线程扣减会失败，归还的数量不会再被卖出
+        int remaining = lease.remaining.getAndSet(0);
+        try {
+            inventoryLeaseService.release(lease.leaseId, lease.productId, lease.segmentId, remaining);
+        } catch (Exception e) {
+            // 归还失败的租约到期后被作废，剩余库存少卖
+            logger.error("归还租约失败 productId:{}, leaseId:{}, remaining:{}, error:{}",
+                    lease.productId, lease.leaseId, remaining, e.getMessage());
+        }
+    }
+
+    List<String> getLeaseIds() {
+        List<String> ids = new ArrayList<>();
+        leases.values().forEach(lease -> ids.add(lease.leaseId));
+        return ids;
+    }
+
+    private static class Lease {
+
+        final String leaseId;
+
+        final int productId;
+
+        final int segmentId;
+
+        final AtomicInteger remaining;
+
+        volatile long lastUsedAt = System.currentTimeMillis();
+
+        Lease(String leaseId, int productId, int segmentId, int quantity) {
+            this.leaseId = leaseId;
+            this.productId = productId;
+            this.segmentId = segmentId;
+            this.remaining = new AtomicInteger(quantity);
+        }
+
+        boolean tryReduce(int quantity) {
+            while (true) {
+                int current = remaining.get();
+                if (current < quantity) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - quantity)) {
+                    lastUsedAt = System.currentTimeMillis();
+                    return true;
+                }
+            }
+        }
+    }
+}
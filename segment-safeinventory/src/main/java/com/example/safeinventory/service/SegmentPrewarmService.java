@@ -0,0 +1,244 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import com.example.safeinventory.mapper.InventoryMapper;
+import com.example.safeinventory.mapper.InventorySegmentMapper;
+import com.example.safeinventory.model.InventorySegmentModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动预热分段元数据
+ * <p>
+ * 按 product_id 键集分页读取 inventory，每页一次查询批量加载分段，由线程池并行处理；
+ * 每页用一个管道为每个商品执行 PREWARM_SEGMENTS，写入 activeSegmentInfo:{productId} 和
+ * inventory:segments:stock:{productId}，已存在的数据不覆盖；两个 key 使用相同的 hash tag，集群模式下在同一个槽位。
+ * <p>
+ * 同一时间只有一个实例持有预热锁执行预热，按页的提交顺序推进 inventory:prewarm:progress 中的检查点，
+ * 持锁实例崩溃后其他实例拿到锁从检查点继续。预热完成前实例的就绪状态为 REFUSING_TRAFFIC，
+ * 全部预热完成（包括由其他实例完成）后才切换为 ACCEPTING_TRAFFIC。
+ */
+@Service
+public class SegmentPrewarmService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentPrewarmService.class);
+
+    private static final String PREWARM_LOCK_KEY = "inventory:prewarm:lock";
+    private static final long PREWARM_LOCK_TIMEOUT = TimeUnit.SECONDS.toMillis(300);  // 预热锁超时时间，单位毫秒
+    private static final String PREWARM_STATUS_KEY = "inventory:prewarm:status";
+    private static final String PREWARM_PROGRESS_KEY = "inventory:prewarm:progress";
+    private static final String STATUS_COMPLETED = "COMPLETED";
+
+    private static final String SEGMENT_INFO_KEY = "activeSegmentInfo:";
+    private static final String SEGMENT_STOCK_KEY = "inventory:segments:stock:";
+    private static final int SEGMENT_INFO_EXPIRE_TIME = 24 * 60 * 60;
+
+    @Autowired
+    private InventoryMapper inventoryMapper;
+
+    @Autowired
+    private InventorySegmentMapper inventorySegmentMapper;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${prewarm.pageSize:500}")
+    private int pageSize;
+
+    @Value("${prewarm.concurrency:8}")
+    private int concurrency;
+
+    /**
+     * 未持有预热锁时检查预热状态的间隔
+     */
+    @Value("${prewarm.pollIntervalMillis:1000}")
+    private long pollIntervalMillis;
+
+    /**
+     * 预热锁的持有者标识
+     */
+    private final String serviceId = UUID.randomUUID().toString();
+
+    private volatile boolean ready;
+
+    private ExecutorService coordinator;
+
+    private ExecutorService workers;
+
+    @PostConstruct
+    public void initializeService() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(concurrency,
+                r -> new Thread(r, "segment-prewarm-" + threadIndex.incrementAndGet()));
+        coordinator = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "segment-prewarm-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        coordinator.execute(this::awaitPrewarm);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Spring 在启动完成时会把就绪状态置为 ACCEPTING_TRAFFIC，预热未完成时改回 REFUSING_TRAFFIC
+     */
+    @EventListener
+    public synchronized void onReadinessChange(AvailabilityChangeEvent<ReadinessState> event) {
+        if (event.getState() == ReadinessState.ACCEPTING_TRAFFIC && !ready) {
+            logger.info("分段预热未完成，暂不接收流量");
+            AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.REFUSING_TRAFFIC);
+        }
+    }
+
+    /**
+     * 循环直到预热完成：抢到锁的实例执行预热，其他实例等待，持锁实例失败或崩溃后重新抢锁
+     */
+    private void awaitPrewarm() {
+        while (!Thread.currentThread().isInterrupted()) {
+            if (!isPrewarmRequired()) {
+                markReady();
+                return;
+            }
+            boolean lockAcquired = false;
+            try {
+                lockAcquired = redisOperationService.acquireLock(PREWARM_LOCK_KEY, serviceId, PREWARM_LOCK_TIMEOUT);
+                if (lockAcquired && isPrewarmRequired()) {
+                    doPrewarm();
+                    markPrewarmComplete();
+                    continue;
+                }
+            } catch (Exception e) {
+                logger.error("服务预热失败，稍后重试", e);
+            } finally {
+                if (lockAcquired) {
+                    redisOperationService.releaseLock(PREWARM_LOCK_KEY, serviceId);
+                }
+            }
+            try {
+                Thread.sleep(pollIntervalMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean isPrewarmRequired() {
+        return !STATUS_COMPLETED.equals(redisOperationService.get(PREWARM_STATUS_KEY));
+    }
+
+    /**
+     * 分页提交给线程池，同时在途的页数不超过线程数的两倍；按提交顺序等待，最早的页完成后推进检查点
+     */
+    private void doPrewarm() {
+        String checkpoint = redisOperationService.hget(PREWARM_PROGRESS_KEY, "lastProductId");
+        int lastProductId = checkpoint == null ? 0 : Integer.parseInt(checkpoint);
+        logger.info("开始执行预热 lastProductId:{}", lastProductId);
+
+        long start = System.currentTimeMillis();
+        int productCount = 0;
+        Deque<CompletableFuture<Integer>> inFlight = new ArrayDeque<>();
+        while (true) {
+            List<Integer> productIds = inventoryMapper.selectProductIdsAfter(lastProductId, pageSize);
+            if (productIds.isEmpty()) {
+                break;
+            }
+            lastProductId = productIds.get(productIds.size() - 1);
+            int pageLastProductId = lastProductId;
+            inFlight.add(CompletableFuture.supplyAsync(() -> {
+                prewarmPage(productIds);
+                return pageLastProductId;
+            }, workers));
+            productCount += productIds.size();
+
+            if (inFlight.size() >= concurrency * 2) {
+                saveCheckpoint(inFlight.poll().join());
+            }
+        }
+        while (!inFlight.isEmpty()) {
+            saveCheckpoint(inFlight.poll().join());
+        }
+        logger.info("预热完成，共预热{}个商品，耗时{}ms", productCount, System.currentTimeMillis() - start);
+    }
+
+    private void prewarmPage(List<Integer> productIds) {
+        Map<Integer, List<InventorySegmentModel>> segmentsByProduct = new LinkedHashMap<>();
+        for (InventorySegmentModel segment : inventorySegmentMapper.getAvailableSegmentsByProductIds(productIds)) {
+            segmentsByProduct.computeIfAbsent(segment.getProductId(), k -> new ArrayList<>()).add(segment);
+        }
+
+        String version = String.valueOf(System.currentTimeMillis());
+        String script = RedisLuaScriptEnum.PREWARM_SEGMENTS.getScript();
+        redisOperationService.executePipelined(pipeline ->
+                segmentsByProduct.forEach((productId, segments) -> {
+                    List<String> args = new ArrayList<>(4 + segments.size() * 2);
+                    args.add(String.valueOf(segments.get(0).getSegmentId()));
+                    args.add(String.valueOf(segments.size()));
+                    args.add(version);
+                    args.add(String.valueOf(SEGMENT_INFO_EXPIRE_TIME));
+                    for (InventorySegmentModel segment : segments) {
+                        args.add(String.valueOf(segment.getSegmentId()));
+                        args.add(String.valueOf(segment.getAvailableStock()));
+                    }
+                    pipeline.eval(script, Arrays.asList(RedisOperationService.productKey(SEGMENT_INFO_KEY, productId),
+                            RedisOperationService.productKey(SEGMENT_STOCK_KEY, productId)), args);
+                }));
+    }
+
+    /**
+     * 记录检查点并为预热锁续期
+     */
+    private void saveCheckpoint(int lastProductId) {
+        redisOperationService.hset(PREWARM_PROGRESS_KEY, "lastProductId", String.valueOf(lastProductId));
+        redisOperationService.extendLock(PREWARM_LOCK_KEY, serviceId, PREWARM_LOCK_TIMEOUT);
+    }
+
+    /**
+     * 预热状态与分段信息同时过期，过期后的下一次启动重新预热
+     */
+    private void markPrewarmComplete() {
+        redisOperationService.set(PREWARM_STATUS_KEY, STATUS_COMPLETED, SEGMENT_INFO_EXPIRE_TIME);
+        redisOperationService.del(PREWARM_PROGRESS_KEY);
+        logger.info("预热状态已标记为完成");
+    }
+
+    private synchronized void markReady() {
+        ready = true;
+        AvailabilityChangeEvent.publish(eventPublisher, this, ReadinessState.ACCEPTING_TRAFFIC);
+        logger.info("分段预热已完成，开始接收流量");
+    }
+}
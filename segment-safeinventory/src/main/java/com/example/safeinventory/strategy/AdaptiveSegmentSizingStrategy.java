@@ -0,0 +1,133 @@
+package com.example.safeinventory.strategy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应分段大小策略
+ * <p>
+ * 分段数（并行通道数）初始为预期并发数，分段大小取以下几项的最大值：
+ * 最小分段库存、典型下单量 * 每段可容纳的订单数、总库存 / 通道数、总库存 / 最大分段数，
+ * 因此每个商品的分段行数不超过 maxSegments。
+ * <p>
+ * 运行中按商品统计扣减结果，样本足够时调整通道数：行锁等待比例高说明通道不够，通道数翻倍；
+ * 分段库存不足导致的失败比例高说明分段太碎，通道数减半。统计只在本实例内存中，不同实例各自调整。
+ */
+@Component
+public class AdaptiveSegmentSizingStrategy implements SegmentSizingStrategy {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveSegmentSizingStrategy.class);
+
+    private static final double CONTENTION_RATE_THRESHOLD = 0.2;  // 行锁等待比例阈值
+    private static final double FAILURE_RATE_THRESHOLD = 0.2;     // 分段库存不足比例阈值
+    private static final double QUANTITY_EWMA_ALPHA = 0.1;        // 下单量指数移动平均系数
+
+    @Value("${segment.minSize:4}")
+    private int minSegmentSize;
+
+    @Value("${segment.maxSegments:256}")
+    private int maxSegments;
+
+    @Value("${segment.expectedConcurrency:16}")
+    private int expectedConcurrency;
+
+    @Value("${segment.typicalOrderQuantity:1}")
+    private int typicalOrderQuantity;
+
+    @Value("${segment.ordersPerSegment:4}")
+    private int ordersPerSegment;
+
+    @Value("${segment.adjustMinSamples:100}")
+    private int adjustMinSamples;
+
+    private final Map<Integer, ProductStats> statsByProduct = new ConcurrentHashMap<>();
+
+    @Override
+    public int segmentSize(int productId, int totalStock) {
+        ProductStats stats = getStats(productId);
+        maybeAdjust(productId, stats);
+
+        int orderQuantity = Math.max(1, (int) Math.round(stats.avgQuantity));
+        int size = Math.max(minSegmentSize, orderQuantity * ordersPerSegment);
+        size = Math.max(size, ceilDiv(totalStock, stats.lanes));
+        size = Math.max(size, ceilDiv(totalStock, maxSegments));
+        stats.lastSize = size;
+
+        logger.info("计算分段大小 productId:{}, totalStock:{}, lanes:{}, avgQuantity:{}, segmentSize:{}",
+                productId, totalStock, stats.lanes, stats.avgQuantity, size);
+        return size;
+    }
+
+    @Override
+    public int currentSegmentSize(int productId) {
+        ProductStats stats = statsByProduct.get(productId);
+        return stats == null || stats.lastSize == 0 ? minSegmentSize : stats.lastSize;
+    }
+
+    @Override
+    public void recordDeduction(int productId, int quantity, boolean fragmented, boolean contended) {
+        ProductStats stats = getStats(productId);
+        stats.samples.increment();
+        if (fragmented) {
+            stats.failures.increment();
+        }
+        if (contended) {
+            stats.contended.increment();
+        }
+        // 并发写入时偶尔丢失一次更新不影响平均值的意义
+        stats.avgQuantity += QUANTITY_EWMA_ALPHA * (quantity - stats.avgQuantity);
+    }
+
+    private ProductStats getStats(int productId) {
+        return statsByProduct.computeIfAbsent(productId,
+                k -> new ProductStats(Math.min(expectedConcurrency, maxSegments), typicalOrderQuantity));
+    }
+
+    private void maybeAdjust(int productId, ProductStats stats) {
+        synchronized (stats) {
+            long samples = stats.samples.sum();
+            if (samples < adjustMinSamples) {
+                return;
+            }
+            double contentionRate = (double) stats.contended.sum() / samples;
+            double failureRate = (double) stats.failures.sum() / samples;
+            int lanes = stats.lanes;
+            if (contentionRate > CONTENTION_RATE_THRESHOLD) {
+                lanes = Math.min(lanes * 2, maxSegments);
+            } else if (failureRate > FAILURE_RATE_THRESHOLD) {
+                lanes = Math.max(lanes / 2, 1);
+            }
+            if (lanes != stats.lanes) {
+                logger.info("调整分段通道数 productId:{}, lanes:{} -> {}, contentionRate:{}, failureRate:{}",
+                        productId, stats.lanes, lanes, contentionRate, failureRate);
+                stats.lanes = lanes;
+            }
+            stats.samples.reset();
+            stats.failures.reset();
+            stats.contended.reset();
+        }
+    }
+
+    private static int ceilDiv(int total, int divisor) {
+        return (int) Math.ceil((double) total / divisor);
+    }
+
+    private static class ProductStats {
+        private final LongAdder samples = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder contended = new LongAdder();
+        private volatile double avgQuantity;
+        private volatile int lanes;
+        private volatile int lastSize;
+
+        ProductStats(int lanes, double avgQuantity) {
+            this.lanes = lanes;
+            this.avgQuantity = avgQuantity;
+        }
+    }
+}
@@ -4,68 +4,94 @@ import com.example.safeinventory.model.InventorySegmentModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * 最佳匹配策略实现
+ * 优先选择库存刚好等于请求量的分段，其次是库存最接近请求量的分段，同等条件下随机选择以分散行锁
  */
 @Component
 public class BestMatchSegmentStrategy implements SegmentSelectionStrategy {
     private static final Logger logger = LoggerFactory.getLogger(BestMatchSegmentStrategy.class);
 
+    /**
+     * 按商品维护的分段索引，扣减后增量更新
+     */
+    private final Map<Integer, IndexedSegmentSelector> selectors = new ConcurrentHashMap<>();
+
+    /**
+     * 单次遍历，同等条件的分段用蓄水池抽样随机取一个，不分配临时集合
+     */
     @Override
     public InventorySegmentModel selectSegment(List<InventorySegmentModel> segments, int quantity) {
-        List<InventorySegmentModel> exactMatches = new ArrayList<>();
-        List<InventorySegmentModel> closeMatches = new ArrayList<>();
-        List<InventorySegmentModel> largestMatches = new ArrayList<>();
-
-        int minDiff = Integer.MAX_VALUE;
-        int maxStock = 0;
+        InventorySegmentModel selected = null;
+        int bestStock = Integer.MAX_VALUE;
+        int ties = 0;
 
-        for (InventorySegmentModel segment : segments) {
+        for (int i = 0, size = segments.size(); i < size; i++) {
+            InventorySegmentModel segment = segments.get(i);
             int available = segment.getAvailableStock();
-            if (available < quantity) {
+            if (available < quantity || available > bestStock) {
                 continue;
             }
-
-            if (available == quantity) {
-                exactMatches.add(segment);
-                continue;
+            if (available < bestStock) {
+                bestStock = available;
+                selected = segment;
+                ties = 1;
+            } else if (ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                selected = segment;
             }
+        }
+        return selected;
+    }
 
-            int diff = available - quantity;
-            if (diff < minDiff) {
-                closeMatches.clear();
-                closeMatches.add(segment);
-                minDiff = diff;
-            } else if (diff == minDiff) {
-                closeMatches.add(segment);
-            }
+    /**
+     * 通过商品的分段索引选择分段
+     *
+     * @return 分段ID，索引未加载或没有库存足够的分段时返回 IndexedSegmentSelector.NOT_FOUND
+     */
+    public int selectSegmentId(int productId, int quantity) {
+        IndexedSegmentSelector selector = selectors.get(productId);
+        return selector == null ? IndexedSegmentSelector.NOT_FOUND : selector.select(quantity);
+    }
 
-            if (available > maxStock) {
-                largestMatches.clear();
-                largestMatches.add(segment);
-                maxStock = available;
-            } else if (available == maxStock) {
-                largestMatches.add(segment);
-            }
-        }
+    public boolean isIndexed(int productId) {
+        return selectors.containsKey(productId);
+    }
 
-        Random random = new Random();
-        if (!exactMatches.isEmpty()) {
-            return exactMatches.get(random.nextInt(exactMatches.size()));
-        }
-        
-        if (!closeMatches.isEmpty()) {
-            return closeMatches.get(random.nextInt(closeMatches.size()));
-        }
-        
-        if (!largestMatches.isEmpty()) {
-            return largestMatches.get(random.nextInt(largestMatches.size()));
+    /**
+     * 索引中商品的总可用库存，索引未加载时返回 0
+     */
+    public long getTotalAvailable(int productId) {
+        IndexedSegmentSelector selector = selectors.get(productId);
+        return selector == null ? 0 : selector.getTotalAvailable();
+    }
+
+    /**
+     * 用最新的分段列表重建商品的索引
+     */
+    public void reload(int productId, List<InventorySegmentModel> segments) {
+        selectors.put(productId, new IndexedSegmentSelector(segments));
+        logger.info("重建分段索引 productId:{}, segmentCount:{}", productId, segments.size());
+    }
+
+    /**
+     * 扣减成功后更新索引中的分段库存
+     */
+    public void onDeducted(int productId, int segmentId, int quantity) {
+        IndexedSegmentSelector selector = selectors.get(productId);
+        if (selector != null) {
+            selector.deduct(segmentId, quantity);
         }
+    }
 
-        return null;
+    /**
+     * 索引与实际库存不一致（其他实例扣减、合并）时丢弃，下次扣减时重建
+     */
+    public void invalidate(int productId) {
+        selectors.remove(productId);
     }
-} 
\ No newline at end of file
+}
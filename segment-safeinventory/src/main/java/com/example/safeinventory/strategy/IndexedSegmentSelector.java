@@ -0,0 +1,228 @@
+package com.example.safeinventory.strategy;
+
+import com.example.safeinventory.model.InventorySegmentModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 单个商品的分段索引，按可用库存分桶
+ * <p>
+ * 每个库存值对应一个桶，桶内存放该库存的分段；非空桶用两级位图标记，
+ * 查找不小于请求量的最小库存时先查当前字，再查汇总字，与分段数量无关。
+ * 选择路径只读数组，不分配对象；库存变化时把分段从旧桶移到新桶，也是 O(1)。
+ */
+public class IndexedSegmentSelector {
+
+    public static final int NOT_FOUND = -1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 按槽位存放的分段ID和库存，槽位在分段加入时分配
+     */
+    private int[] segmentIds = new int[INITIAL_CAPACITY];
+    private int[] stocks = new int[INITIAL_CAPACITY];
+
+    /**
+     * 槽位在所属桶中的下标，移出桶时与桶尾交换
+     */
+    private int[] bucketPositions = new int[INITIAL_CAPACITY];
+    private int slotCount;
+
+    private final Map<Integer, Integer> slotBySegmentId = new HashMap<>();
+
+    /**
+     * buckets[stock] 为库存等于 stock 的槽位列表，bucketSizes[stock] 为其长度
+     */
+    private int[][] buckets = new int[INITIAL_CAPACITY][];
+    private int[] bucketSizes = new int[INITIAL_CAPACITY];
+
+    /**
+     * nonEmpty 第 i 位表示桶 i 非空，summary 第 j 位表示 nonEmpty[j] 不为 0
+     */
+    private long[] nonEmpty = new long[1];
+    private long[] summary = new long[1];
+
+    private long totalAvailable;
+
+    public IndexedSegmentSelector(List<InventorySegmentModel> segments) {
+        for (InventorySegmentModel segment : segments) {
+            update(segment.getSegmentId(), segment.getAvailableStock());
+        }
+    }
+
+    /**
+     * 库存刚好等于请求量的分段优先，否则取库存最接近请求量的分段，同一库存的多个分段中随机选一个
+     *
+     * @return 分段ID，没有库存足够的分段时返回 NOT_FOUND
+     */
+    public synchronized int select(int quantity) {
+        int stock = nextNonEmptyBucket(Math.max(quantity, 1));
+        if (stock < 0) {
+            return NOT_FOUND;
+        }
+        int size = bucketSizes[stock];
+        int slot = buckets[stock][size == 1 ? 0 : ThreadLocalRandom.current().nextInt(size)];
+        return segmentIds[slot];
+    }
+
+    /**
+     * 库存最多的分段
+     */
+    public synchronized int selectLargest() {
+        int stock = previousNonEmptyBucket(bucketSizes.length - 1);
+        return stock <= 0 ? NOT_FOUND : segmentIds[buckets[stock][0]];
+    }
+
+    /**
+     * 扣减成功后同步分段库存
+     */
+    public synchronized void deduct(int segmentId, int quantity) {
+        Integer slot = slotBySegmentId.get(segmentId);
+        if (slot != null) {
+            moveToBucket(slot, Math.max(stocks[slot] - quantity, 0));
+        }
+    }
+
+    /**
+     * 设置分段库存，分段不存在时加入
+     */
+    public synchronized void update(int segmentId, int availableStock) {
+        Integer slot = slotBySegmentId.get(segmentId);
+        if (slot == null) {
+            slot = allocateSlot(segmentId);
+        }
+        moveToBucket(slot, Math.max(availableStock, 0));
+    }
+
+    public synchronized long getTotalAvailable() {
+        return totalAvailable;
+    }
+
+    public synchronized int getSegmentCount() {
+        return slotCount;
+    }
+
+    private int allocateSlot(int segmentId) {
+        if (slotCount == segmentIds.length) {
+            int capacity = slotCount * 2;
+            segmentIds = Arrays.copyOf(segmentIds, capacity);
+            stocks = Arrays.copyOf(stocks, capacity);
+            bucketPositions = Arrays.copyOf(bucketPositions, capacity);
+        }
+        int slot = slotCount++;
+        segmentIds[slot] = segmentId;
+        stocks[slot] = 0;
+        slotBySegmentId.put(segmentId, slot);
+        addToBucket(slot, 0);
+        return slot;
+    }
+
+    private void moveToBucket(int slot, int stock) {
+        int oldStock = stocks[slot];
+        if (oldStock == stock) {
+            return;
+        }
+        removeFromBucket(slot, oldStock);
+        addToBucket(slot, stock);
+        stocks[slot] = stock;
+        totalAvailable += stock - oldStock;
+    }
+
+    private void addToBucket(int slot, int stock) {
+        ensureBucketCapacity(stock);
+        int[] bucket = buckets[stock];
+        int size = bucketSizes[stock];
+        if (bucket == null) {
+            bucket = new int[4];
+            buckets[stock] = bucket;
+        } else if (size == bucket.length) {
+            bucket = Arrays.copyOf(bucket, size * 2);
+            buckets[stock] = bucket;
+        }
+        bucket[size] = slot;
+        bucketPositions[slot] = size;
+        bucketSizes[stock] = size + 1;
+        if (size == 0) {
+            nonEmpty[stock >>> 6] |= 1L << stock;
+            summary[stock >>> 12] |= 1L << (stock >>> 6);
+        }
+    }
+
+    private void removeFromBucket(int slot, int stock) {
+        int[] bucket = buckets[stock];
+        int last = --bucketSizes[stock];
+        int position = bucketPositions[slot];
+        int moved = bucket[last];
+        bucket[position] = moved;
+        bucketPositions[moved] = position;
+        if (last == 0) {
+            int word = stock >>> 6;
+            nonEmpty[word] &= ~(1L << stock);
+            if (nonEmpty[word] == 0) {
+                summary[word >>> 6] &= ~(1L << word);
+            }
+        }
+    }
+
+    private void ensureBucketCapacity(int stock) {
+        if (stock < bucketSizes.length) {
+            return;
+        }
+        int capacity = Math.max(bucketSizes.length * 2, stock + 1);
+        buckets = Arrays.copyOf(buckets, capacity);
+        bucketSizes = Arrays.copyOf(bucketSizes, capacity);
+        nonEmpty = Arrays.copyOf(nonEmpty, (capacity + 63) >>> 6);
+        summary = Arrays.copyOf(summary, (nonEmpty.length + 63) >>> 6);
+    }
+
+    /**
+     * 不小于 from 的第一个非空桶，没有时返回 -1
+     */
+    private int nextNonEmptyBucket(int from) {
+        if (from >= bucketSizes.length) {
+            return -1;
+        }
+        int word = from >>> 6;
+        long bits = nonEmpty[word] & (-1L << from);
+        if (bits != 0) {
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+        int summaryWord = (word + 1) >>> 6;
+        if (summaryWord >= summary.length) {
+            return -1;
+        }
+        // 移位量只取低 6 位，即 word + 1 在汇总字内的位置
+        long summaryBits = summary[summaryWord] & (-1L << (word + 1));
+        while (true) {
+            if (summaryBits != 0) {
+                int nextWord = (summaryWord << 6) + Long.numberOfTrailingZeros(summaryBits);
+                return (nextWord << 6) + Long.numberOfTrailingZeros(nonEmpty[nextWord]);
+            }
+            if (++summaryWord >= summary.length) {
+                return -1;
+            }
+            summaryBits = summary[summaryWord];
+        }
+    }
+
+    /**
+     * 不大于 from 的最后一个非空桶，没有时返回 -1
+     */
+    private int previousNonEmptyBucket(int from) {
+        for (int word = from >>> 6; word >= 0; word--) {
+            long bits = nonEmpty[word];
+            if (word == from >>> 6) {
+                bits &= -1L >>> (63 - (from & 63));
+            }
+            if (bits != 0) {
+                return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+            }
+        }
+        return -1;
+    }
+}
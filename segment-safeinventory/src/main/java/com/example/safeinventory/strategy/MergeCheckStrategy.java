@@ -1,7 +1,6 @@
 package com.example.safeinventory.strategy;
 
 import com.example.safeinventory.model.InventorySegmentModel;
-import java.util.List;
 
 /**
  * 库存分段合并检查策略接口
@@ -9,8 +8,13 @@ import java.util.List;
 public interface MergeCheckStrategy {
     /**
      * 检查是否需要合并
-     * @param segments 当前有效的库存分段列表
+     * @param segments 当前有效的库存分段，只遍历一次，可以是数据库游标
      * @return 是否需要进行合并
      */
-    boolean isNeedMerge(List<InventorySegmentModel> segments);
+    boolean isNeedMerge(Iterable<InventorySegmentModel> segments);
+
+    /**
+     * 单个分段是否为碎片分段，在线合并只合并碎片分段
+     */
+    boolean isFragmented(InventorySegmentModel segment);
 } 
\ No newline at end of file
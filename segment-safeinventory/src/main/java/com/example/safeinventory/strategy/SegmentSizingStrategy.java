@@ -0,0 +1,28 @@
+package com.example.safeinventory.strategy;
+
+/**
+ * 库存分段大小策略接口
+ */
+public interface SegmentSizingStrategy {
+    /**
+     * 计算新建分段时每个分段的库存量
+     * @param productId 商品ID
+     * @param totalStock 需要分段的总库存
+     * @return 每个分段的库存量，最后一个分段可能不足该值
+     */
+    int segmentSize(int productId, int totalStock);
+
+    /**
+     * 最近一次为该商品计算出的分段大小，未计算过时返回默认值
+     */
+    int currentSegmentSize(int productId);
+
+    /**
+     * 记录一次分段扣减结果，用于调整后续分段大小
+     * @param productId 商品ID
+     * @param quantity 扣减数量
+     * @param fragmented 是否因分段库存不足失败（分段仍有库存，但不够本次扣减）
+     * @param contended 是否发生了明显的行锁等待
+     */
+    void recordDeduction(int productId, int quantity, boolean fragmented, boolean contended);
+}
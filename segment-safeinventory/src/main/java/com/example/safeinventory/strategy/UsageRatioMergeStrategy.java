@@ -4,7 +4,6 @@ import com.example.safeinventory.model.InventorySegmentModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import java.util.List;
 
 /**
  * 基于使用率的合并检查策略
@@ -18,24 +17,31 @@ public class UsageRatioMergeStrategy implements MergeCheckStrategy {
     private static final int MIN_FRAGMENT_COUNT = 2;           // 最小碎片化分段数量
 
     @Override
-    public boolean isNeedMerge(List<InventorySegmentModel> segments) {
-        if (segments.isEmpty()) {
-            return false;
-        }
-
+    public boolean isNeedMerge(Iterable<InventorySegmentModel> segments) {
+        int totalSegments = 0;
         int fragmentedSegments = 0;
         for (InventorySegmentModel segment : segments) {
-            double usageRatio = (double) segment.getAvailableStock() / segment.getTotalStock();
-            if (usageRatio > 0 && usageRatio < SEGMENT_USAGE_THRESHOLD) {
+            totalSegments++;
+            if (isFragmented(segment)) {
                 fragmentedSegments++;
             }
         }
 
-        double fragmentRatio = (double) fragmentedSegments / segments.size();
+        if (totalSegments == 0) {
+            return false;
+        }
+
+        double fragmentRatio = (double) fragmentedSegments / totalSegments;
         
         logger.info("使用率检查策略 totalSegments:{}, fragmentedSegments:{}, fragmentRatio:{}", 
-            segments.size(), fragmentedSegments, fragmentRatio);
+            totalSegments, fragmentedSegments, fragmentRatio);
 
         return fragmentRatio > FRAGMENT_RATIO_THRESHOLD && fragmentedSegments >= MIN_FRAGMENT_COUNT;
     }
-} 
\ No newline at end of file
+
+    @Override
+    public boolean isFragmented(InventorySegmentModel segment) {
+        double usageRatio = (double) segment.getAvailableStock() / segment.getTotalStock();
+        return usageRatio > 0 && usageRatio < SEGMENT_USAGE_THRESHOLD;
+    }
+}
@@ -4,28 +4,77 @@ import com.example.safeinventory.mapper.InventorySegmentMapper;
 import com.example.safeinventory.model.InventorySegmentModel;
 import com.example.safeinventory.service.RandomInventorySegmentService;
 import com.example.safeinventory.service.RedisOperationService;
+import com.example.safeinventory.service.SegmentChangeTracker;
 import com.example.safeinventory.strategy.MergeCheckStrategy;
 import com.example.safeinventory.strategy.MergeStrategyFactory;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.cursor.Cursor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * 分段合并任务
+ * 只检查上次运行以来分段发生过变化的商品（见 SegmentChangeTracker），每个商品的分段用数据库游标流式读取，
+ * 由有界线程池并行检查；合并成功的商品在冷却时间内不再合并，冷却中或本轮未能合并的商品放回脏集合留到下一轮
+ * 每轮只处理开始时脏集合中的商品数，持续有扣减时运行期间新加入的商品留到下一轮，单轮不会一直取不完
+ */
 @Component
 public class InventorySegmentMergeTask {
     private static final Logger logger = LoggerFactory.getLogger(InventorySegmentMergeTask.class);
 
+    private static final String MERGE_COOLDOWN_KEY = "merge:cooldown:";
+
     @Autowired
     private InventorySegmentMapper inventorySegmentMapper;
 
     @Autowired
     private RandomInventorySegmentService randomInventorySegmentService;
 
+    @Autowired
+    private SegmentChangeTracker segmentChangeTracker;
+
+    @Autowired
+    private RedisOperationService redisOperationService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    /**
+     * 并行检查合并的线程数
+     */
+    @Value("${merge.concurrency:4}")
+    private int concurrency;
+
+    /**
+     * 每次从脏集合取出的商品数
+     */
+    @Value("${merge.batchSize:100}")
+    private int batchSize;
+
+    /**
+     * 同一商品两次合并的最小间隔，单位秒
+     */
+    @Value("${merge.cooldownSeconds:600}")
+    private long cooldownSeconds;
+
+    private ThreadPoolExecutor mergeExecutor;
+
     private final MergeCheckStrategy mergeStrategy;
 
     public InventorySegmentMergeTask(MergeStrategyFactory mergeStrategyFactory) {
@@ -33,33 +82,101 @@ public class InventorySegmentMergeTask {
                 MergeStrategyFactory.MergeStrategyType.USAGE_RATIO);
     }
 
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列满时由调度线程执行，限制同时在途的商品数
+        mergeExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(concurrency),
+                r -> new Thread(r, "segment-merge-" + threadIndex.incrementAndGet()),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mergeExecutor.shutdownNow();
+    }
+
     /**
-     * 每小时执行一次合并检查
+     * 每分钟检查一次有变化的商品
      */
-    @Scheduled(cron = "0 0 * * * ?")
+    @Scheduled(cron = "0 * * * * ?")
     public void checkAndMergeSegments() {
-        // 1. 获取所有有效的库存分段
-        List<InventorySegmentModel> allSegments =
-                inventorySegmentMapper.getAllValidSegments();
-
-        // 2. 按商品ID分组
-        Map<Integer, List<InventorySegmentModel>> segmentsByProduct =
-                allSegments.stream()
-                        .collect(Collectors.groupingBy(InventorySegmentModel::getProductId));
-
-        // 3. 检查每个商品的分段情况
-        for (Map.Entry<Integer, List<InventorySegmentModel>> entry : segmentsByProduct.entrySet()) {
-            int productId = entry.getKey();
-            List<InventorySegmentModel> segments = entry.getValue();
-
-            if (mergeStrategy.isNeedMerge(segments)) {
-                logger.info("商品{}需要进行分段合并, 当前分段数:{}", productId, segments.size());
-                try {
-                    randomInventorySegmentService.triggerStandardMerge(productId);
-                } catch (Exception e) {
-                    logger.error("商品{}合并失败", productId, e);
-                }
+        segmentChangeTracker.flush();
+
+        Queue<Integer> deferred = new ConcurrentLinkedQueue<>();
+        AtomicInteger merged = new AtomicInteger();
+        int checked = 0;
+        long start = System.currentTimeMillis();
+
+        long remaining = segmentChangeTracker.size();
+        List<Integer> productIds;
+        while (remaining > 0
+                && !(productIds = segmentChangeTracker.poll((int) Math.min(batchSize, remaining))).isEmpty()) {
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[productIds.size()];
+            for (int i = 0; i < productIds.size(); i++) {
+                int productId = productIds.get(i);
+                futures[i] = CompletableFuture.runAsync(() -> {
+                    if (checkAndMerge(productId, deferred)) {
+                        merged.incrementAndGet();
+                    }
+                }, mergeExecutor);
+            }
+            CompletableFuture.allOf(futures).join();
+            checked += productIds.size();
+            remaining -= productIds.size();
+        }
+
+        // 冷却中或检查失败的商品留到下一轮
+        if (!deferred.isEmpty()) {
+            segmentChangeTracker.markDirty(deferred);
+            segmentChangeTracker.flush();
+        }
+        logger.info("分段合并检查完成 checked:{}, merged:{}, deferred:{}, cost:{}ms",
+                checked, merged.get(), deferred.size(), System.currentTimeMillis() - start);
+    }
+
+    private boolean checkAndMerge(int productId, Queue<Integer> deferred) {
+        try {
+            if (!isNeedMerge(productId)) {
+                return false;
+            }
+            if (redisOperationService.get(RedisOperationService.productKey(MERGE_COOLDOWN_KEY, productId)) != null) {
+                logger.info("商品{}处于合并冷却期，推迟到下一轮", productId);
+                deferred.add(productId);
+                return false;
+            }
+            logger.info("商品{}需要进行分段合并", productId);
+            Boolean merged = randomInventorySegmentService.triggerStandardMerge(productId);
+            if (merged == null) {
+                // 其他实例正在合并或本次没有合并，不进入冷却期，下一轮重新检查
+                logger.info("商品{}本轮未合并，推迟到下一轮", productId);
+                deferred.add(productId);
+                return false;
             }
+            if (merged) {
+                // 只有合并成功后才进入冷却期
+                redisOperationService.set(RedisOperationService.productKey(MERGE_COOLDOWN_KEY, productId), String.valueOf(productId), cooldownSeconds);
+            }
+            return merged;
+        } catch (Exception e) {
+            logger.error("商品{}合并失败", productId, e);
+            deferred.add(productId);
+            return false;
         }
     }
-} 
\ No newline at end of file
+
+    /**
+     * 游标需要在事务中读取，只读事务内流式遍历商品的有效分段
+     */
+    private boolean isNeedMerge(int productId) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            try (Cursor<InventorySegmentModel> segments =
+                         inventorySegmentMapper.streamValidSegmentsByProductId(productId)) {
+                return mergeStrategy.isNeedMerge(segments);
+            } catch (IOException e) {
+                throw new RuntimeException("关闭分段游标失败", e);
+            }
+        }));
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import com.example.safeinventory.model.ActiveSegmentInfo;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest
+class ActiveSegmentInfoCacheTest {
+
+    @Autowired
+    ActiveSegmentInfoCache activeSegmentInfoCache;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Test
+    void getReturnsCopy() {
+        activeSegmentInfoCache.put(9001, new ActiveSegmentInfo(1, 5, 100));
+
+        ActiveSegmentInfo info = activeSegmentInfoCache.get(9001);
+        info.setCurrentPointer(3);
+
+        assertEquals(1, activeSegmentInfoCache.get(9001).getCurrentPointer());
+    }
+
+    @Test
+    void invalidatedByPointerUpdate() throws InterruptedException {
+        int productId = 9002;
+        activeSegmentInfoCache.put(productId, new ActiveSegmentInfo(1, 5, 100));
+        assertNotNull(activeSegmentInfoCache.get(productId));
+
+        // 模拟其他实例更新指针，脚本发布变更消息
+        redisOperationService.evalScript(RedisLuaScriptEnum.UPDATE_SEGMENT_POINTER,
+                List.of(RedisOperationService.productKey("activeSegmentInfo:", productId)),
+                List.of("2", String.valueOf(System.currentTimeMillis()), "60"));
+        Thread.sleep(200);
+
+        assertNull(activeSegmentInfoCache.get(productId));
+    }
+}
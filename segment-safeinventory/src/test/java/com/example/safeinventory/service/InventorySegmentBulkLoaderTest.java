@@ -0,0 +1,105 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * 通道数等于最大分段数、分块比分段数小，使 256 个分段分 6 块写入，覆盖分块和断点续跑
+ */
+@SpringBootTest(properties = {"segment.expectedConcurrency=256", "bulkLoad.chunkSize=50"})
+class InventorySegmentBulkLoaderTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InventorySegmentBulkLoaderTest.class);
+
+    private static final int PRODUCT_ID = 1001;
+
+    private static final int TOTAL_STOCK = 1_000_000;
+
+    private static final int SEGMENT_COUNT = 256;
+
+    private static final String PROGRESS_KEY = RedisOperationService.productKey("inventory:bulkload:", PRODUCT_ID);
+
+    @Autowired
+    InventorySegmentBulkLoader inventorySegmentBulkLoader;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", PRODUCT_ID);
+        jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", PRODUCT_ID);
+        redisOperationService.del(PROGRESS_KEY);
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", PRODUCT_ID));
+        for (int shard = 0; shard < redisOperationService.getStockShards(); shard++) {
+            redisOperationService.del(redisOperationService.stockShardKey("product_stock:", PRODUCT_ID, shard));
+        }
+    }
+
+    @Test
+    void load() {
+        long start = System.currentTimeMillis();
+        int segmentCount = inventorySegmentBulkLoader.load(PRODUCT_ID, TOTAL_STOCK);
+        logger.info("segmentCount:{}, cost:{}ms", segmentCount, System.currentTimeMillis() - start);
+
+        Assertions.assertEquals(SEGMENT_COUNT, segmentCount);
+        assertLoaded();
+        // 已完成的商品再次调用直接返回
+        Assertions.assertEquals(segmentCount, inventorySegmentBulkLoader.load(PRODUCT_ID, TOTAL_STOCK));
+    }
+
+    @Test
+    void resumeAfterCrash() {
+        inventorySegmentBulkLoader.load(PRODUCT_ID, TOTAL_STOCK);
+
+        // 模拟第 3 块已提交数据库、只有前 2 块写入 Redis 时崩溃
+        jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ? AND segment_id > 150", PRODUCT_ID);
+        redisOperationService.hset(PROGRESS_KEY, "redisSegmentId", "100");
+        redisOperationService.hset(PROGRESS_KEY, "status", "LOADING");
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", PRODUCT_ID));
+        for (int shard = 0; shard < redisOperationService.getStockShards(); shard++) {
+            redisOperationService.del(redisOperationService.stockShardKey("product_stock:", PRODUCT_ID, shard));
+        }
+
+        Assertions.assertEquals(SEGMENT_COUNT, inventorySegmentBulkLoader.load(PRODUCT_ID, TOTAL_STOCK));
+
+        Assertions.assertEquals(SEGMENT_COUNT, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID));
+        // 续跑只补写断点之后的分段，前 2 块不会重复写入 Redis
+        Assertions.assertEquals(SEGMENT_COUNT - 100, redisSegmentCount());
+    }
+
+    private void assertLoaded() {
+        Assertions.assertEquals(SEGMENT_COUNT, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID));
+        Assertions.assertEquals(TOTAL_STOCK, jdbcTemplate.queryForObject(
+                "SELECT SUM(available_stock) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID));
+        Assertions.assertEquals(SEGMENT_COUNT, redisSegmentCount());
+        long redisStock = 0;
+        for (int shard = 0; shard < redisOperationService.getStockShards(); shard++) {
+            for (String stock : redisOperationService.hgetAll(
+                    redisOperationService.stockShardKey("product_stock:", PRODUCT_ID, shard)).values()) {
+                redisStock += Long.parseLong(stock);
+            }
+        }
+        Assertions.assertEquals(TOTAL_STOCK, redisStock);
+    }
+
+    private int redisSegmentCount() {
+        int count = 0;
+        for (int shard = 0; shard < redisOperationService.getStockShards(); shard++) {
+            count += redisOperationService.hgetAll(
+                    redisOperationService.stockShardKey("product_stock:", PRODUCT_ID, shard)).size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.service.LockLeaseManager.LockLease;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest(properties = {"lockLease.ttlMillis=300", "lockLease.renewIntervalMillis=100"})
+class LockLeaseManagerTest {
+
+    private static final String LOCK_KEY = "test:lock-lease";
+
+    @Autowired
+    LockLeaseManager lockLeaseManager;
+
+    @Test
+    void watchdogKeepsLeaseAlive() throws InterruptedException {
+        LockLease lease = lockLeaseManager.acquire(LOCK_KEY);
+        Assertions.assertNotNull(lease);
+        try {
+            // 超过租期数倍后仍由看门狗续期持有
+            Thread.sleep(1000);
+            Assertions.assertTrue(lease.isValid());
+            Assertions.assertNull(lockLeaseManager.acquire(LOCK_KEY));
+        } finally {
+            lockLeaseManager.release(lease);
+        }
+        Assertions.assertFalse(lease.isValid());
+    }
+
+    @Test
+    void fencingTokenIncreases() {
+        LockLease first = lockLeaseManager.acquire(LOCK_KEY);
+        Assertions.assertNotNull(first);
+        lockLeaseManager.release(first);
+
+        LockLease second = lockLeaseManager.acquire(LOCK_KEY);
+        Assertions.assertNotNull(second);
+        lockLeaseManager.release(second);
+
+        Assertions.assertTrue(second.getFencingToken() > first.getFencingToken());
+    }
+}
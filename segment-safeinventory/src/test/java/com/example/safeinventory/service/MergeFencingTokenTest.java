@@ -0,0 +1,117 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.BusinessException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据库已接受过更大的围栏令牌时，持有过期合并锁的重分配和在线合并都要被拒绝，数据库和Redis保持原样
+ */
+@SpringBootTest
+class MergeFencingTokenTest {
+
+    private static final int PRODUCT_ID = 9401;
+
+    /**
+     * 模拟新持有者已写入的令牌，比测试中分配到的任何令牌都大
+     */
+    private static final long NEWER_FENCING_TOKEN = 1_000_000_000L;
+
+    private static final String STOCK_KEY = RedisOperationService.productKey("inventory:segments:stock:", PRODUCT_ID);
+
+    private static final String RETIRED_KEY = RedisOperationService.productKey("inventory:segments:retired:", PRODUCT_ID);
+
+    private static final Map<String, String> REDIS_STOCKS = Map.of("1", "10", "2", "10", "3", "100");
+
+    @Autowired
+    RandomInventorySegmentService randomInventorySegmentService;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+        jdbcTemplate.update("INSERT INTO inventory (product_id, total_stock, fencing_token) VALUES (?, 300, ?)",
+                PRODUCT_ID, NEWER_FENCING_TOKEN);
+        // 分段 1、2 是碎片分段
+        int[] availableStocks = {10, 10, 100};
+        for (int i = 0; i < availableStocks.length; i++) {
+            jdbcTemplate.update("INSERT INTO inventory_segment (product_id, segment_id, total_stock, available_stock, status) " +
+                    "VALUES (?, ?, 100, ?, 1)", PRODUCT_ID, i + 1, availableStocks[i]);
+        }
+        redisOperationService.hsetAll(STOCK_KEY, REDIS_STOCKS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanUp();
+    }
+
+    @Test
+    void staleTokenRedistributeIsRejected() {
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class,
+                () -> randomInventorySegmentService.redistributeStockWithStrategy(PRODUCT_ID, 120, 0, false, 1));
+
+        Assertions.assertInstanceOf(BusinessException.class, e.getCause());
+        assertUnchanged();
+    }
+
+    @Test
+    void currentTokenRedistributeCommits() {
+        Assertions.assertTrue(randomInventorySegmentService.redistributeStockWithStrategy(
+                PRODUCT_ID, 120, 0, false, NEWER_FENCING_TOKEN));
+
+        Assertions.assertEquals(List.of(), validOriginalSegmentIds());
+        Assertions.assertEquals(120, jdbcTemplate.queryForObject(
+                "SELECT SUM(available_stock) FROM inventory_segment WHERE product_id = ? AND status = 1",
+                Integer.class, PRODUCT_ID));
+    }
+
+    @Test
+    void staleTokenCompactionLeavesRedisUntouched() {
+        // 本次分配到的令牌小于数据库中的令牌，在写Redis之前就失败
+        Assertions.assertThrows(BusinessException.class,
+                () -> randomInventorySegmentService.triggerOnlineCompaction(PRODUCT_ID));
+
+        assertUnchanged();
+        Assertions.assertEquals(Map.of(), redisOperationService.hgetAll(RETIRED_KEY));
+    }
+
+    private void assertUnchanged() {
+        Assertions.assertEquals(List.of(1, 2, 3), validOriginalSegmentIds());
+        Assertions.assertEquals(3, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID));
+        Assertions.assertEquals(NEWER_FENCING_TOKEN, jdbcTemplate.queryForObject(
+                "SELECT fencing_token FROM inventory WHERE product_id = ?", Long.class, PRODUCT_ID));
+        Assertions.assertEquals(REDIS_STOCKS, redisOperationService.hgetAll(STOCK_KEY));
+    }
+
+    /**
+     * 初始的三个分段中仍然有效的分段
+     */
+    private List<Integer> validOriginalSegmentIds() {
+        return jdbcTemplate.queryForList("SELECT segment_id FROM inventory_segment " +
+                        "WHERE product_id = ? AND status = 1 AND segment_id IN (1, 2, 3) ORDER BY segment_id",
+                Integer.class, PRODUCT_ID);
+    }
+
+    private void cleanUp() {
+        jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", PRODUCT_ID);
+        jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", PRODUCT_ID);
+        redisOperationService.del(STOCK_KEY);
+        redisOperationService.del(RETIRED_KEY);
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", PRODUCT_ID));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在线合并期间并发扣减的延迟分布
+ * 运行方式：mvn test -Dbenchmark=true -Dtest=RandomInventorySegmentServiceTest
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class RandomInventorySegmentServiceTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RandomInventorySegmentServiceTest.class);
+
+    @Autowired
+    RandomInventorySegmentService randomInventorySegmentService;
+
+    @Test
+    void reduceLatencyDuringCompaction() throws InterruptedException {
+        int productId = 2001;
+        int totalStock = 20000;
+        randomInventorySegmentService.redistributeStock(productId, totalStock);
+
+        // 先扣掉大部分库存，制造碎片分段
+        for (int i = 0; i < totalStock * 6 / 10; i++) {
+            randomInventorySegmentService.reduceInventory(productId, 1);
+        }
+
+        int threads = 32;
+        int ordersPerThread = 100;
+        long[] latencies = new long[threads * ordersPerThread];
+        AtomicInteger index = new AtomicInteger();
+        AtomicInteger success = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < ordersPerThread; j++) {
+                    long start = System.nanoTime();
+                    if (randomInventorySegmentService.reduceInventory(productId, 1)) {
+                        success.incrementAndGet();
+                    }
+                    latencies[index.getAndIncrement()] = System.nanoTime() - start;
+                }
+                latch.countDown();
+            });
+        }
+        // 扣减进行中触发在线合并
+        executor.execute(() -> {
+            while (latch.getCount() > 0) {
+                logger.info("compaction:{}", randomInventorySegmentService.triggerOnlineCompaction(productId));
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        latch.await();
+        executor.shutdownNow();
+
+        Arrays.sort(latencies);
+        logger.info("success:{}/{}, p50:{}us, p99:{}us, p999:{}us, max:{}us",
+                success.get(), latencies.length,
+                percentile(latencies, 0.5) / 1000,
+                percentile(latencies, 0.99) / 1000,
+                percentile(latencies, 0.999) / 1000,
+                latencies[latencies.length - 1] / 1000);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import redis.clients.jedis.util.JedisClusterCRC16;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 集群模式下多 key 脚本的 key 必须在同一个槽位，否则报 CROSSSLOT
+ * 按业务代码的 key 格式构造 key，先校验槽位相同，再执行脚本；配置 spring.data.redis.cluster.nodes 时直接在集群上执行
+ */
+@SpringBootTest
+class RedisClusterKeyLayoutTest {
+
+    private static final int PRODUCT_ID = 9301;
+
+    private static final String SEGMENT_INFO_KEY = RedisOperationService.productKey("activeSegmentInfo:", PRODUCT_ID);
+
+    private static final String STOCK_KEY = RedisOperationService.productKey("inventory:segments:stock:", PRODUCT_ID);
+
+    private static final String RETIRED_KEY = RedisOperationService.productKey("inventory:segments:retired:", PRODUCT_ID);
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @BeforeEach
+    void setUp() {
+        redisOperationService.del(SEGMENT_INFO_KEY);
+        redisOperationService.del(STOCK_KEY);
+        redisOperationService.del(RETIRED_KEY);
+    }
+
+    @Test
+    void prewarmSegments() {
+        List<String> keys = Arrays.asList(SEGMENT_INFO_KEY, STOCK_KEY);
+        assertSameSlot(keys);
+
+        Assertions.assertEquals(2L, redisOperationService.evalScript(RedisLuaScriptEnum.PREWARM_SEGMENTS, keys,
+                Arrays.asList("1", "2", "1", "60", "1", "10", "2", "20")));
+        Assertions.assertEquals(Map.of("1", "10", "2", "20"), redisOperationService.hgetAll(STOCK_KEY));
+    }
+
+    @Test
+    void compactRestoreAndRollback() {
+        List<String> keys = Arrays.asList(STOCK_KEY, RETIRED_KEY);
+        assertSameSlot(keys);
+        redisOperationService.hsetAll(STOCK_KEY, Map.of("1", "2", "2", "3"));
+
+        Assertions.assertEquals(List.of(2L, 3L), redisOperationService.evalScript(
+                RedisLuaScriptEnum.COMPACT_SEGMENTS, keys, Arrays.asList("10", "3", "1", "2")));
+        Assertions.assertEquals(3L, redisOperationService.evalScript(
+                RedisLuaScriptEnum.ROLLBACK_SEGMENT_STOCK, keys, Arrays.asList("1", "1")));
+        Assertions.assertEquals(1L, redisOperationService.evalScript(
+                RedisLuaScriptEnum.RESTORE_COMPACTED_SEGMENTS, keys, Arrays.asList("1", "3", "1", "2", "2", "3")));
+        Assertions.assertEquals(Map.of("1", "3", "2", "3"), redisOperationService.hgetAll(STOCK_KEY));
+    }
+
+    @Test
+    void fencedLock() {
+        // 与 LockLeaseManager 的 key 格式一致
+        String lockKey = "lease:{merge:lock:" + PRODUCT_ID + "}";
+        String fencingKey = lockKey + ":fencing";
+        assertSameSlot(Arrays.asList(lockKey, fencingKey));
+
+        long fencingToken = redisOperationService.acquireFencedLock(lockKey, fencingKey, "holder", 1000);
+        try {
+            Assertions.assertTrue(fencingToken > 0);
+        } finally {
+            redisOperationService.releaseLock(lockKey, "holder");
+        }
+    }
+
+    private static void assertSameSlot(List<String> keys) {
+        int slot = JedisClusterCRC16.getSlot(keys.get(0));
+        for (String key : keys) {
+            Assertions.assertEquals(slot, JedisClusterCRC16.getSlot(key), key);
+        }
+    }
+}
@@ -1,10 +1,15 @@
 package com.example.safeinventory.service;
 
+import com.example.safeinventory.common.RedisLuaScriptEnum;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
 @SpringBootTest
 class RedisOperationServiceTest {
 
@@ -13,7 +18,7 @@ class RedisOperationServiceTest {
 
     @Test
     void acquireLock() {
-        Assertions.assertEquals(true, redisOperationService.acquireLock("key1", "value1", 600));
+        Assertions.assertEquals(true, redisOperationService.acquireLock("key1", "value1", 600000));
 
     }
 
@@ -31,7 +36,7 @@ class RedisOperationServiceTest {
 
     @Test
     void extendLock() {
-        redisOperationService.extendLock("key1", "value1", 600);
+        redisOperationService.extendLock("key1", "value1", 600000);
 
     }
 
@@ -44,6 +49,54 @@ class RedisOperationServiceTest {
 
     }
 
+    @Test
+    void reduceAnySegmentStock() {
+        String key = "product_stock:test:segments";
+        redisOperationService.hsetAll(key, Map.of("1", "1", "2", "3"));
+
+        // 只有分段2能满足扣减3，无论从哪个分段开始轮询
+        Assertions.assertEquals(2, redisOperationService.reduceAnySegmentStock(key, 3));
+        Assertions.assertEquals(1, redisOperationService.reduceAnySegmentStock(key, 1));
+        Assertions.assertEquals(-2, redisOperationService.reduceAnySegmentStock(key, 1));
+
+        redisOperationService.hsetAll(key, Map.of("1", "1"));
+        Assertions.assertEquals(-1, redisOperationService.reduceAnySegmentStock(key, 2));
+    }
+
+    @Test
+    void compactRollbackAndRestore() {
+        String stockKey = "inventory:segments:stock:{test}";
+        String retiredKey = "inventory:segments:retired:{test}";
+        redisOperationService.del(stockKey);
+        redisOperationService.del(retiredKey);
+        redisOperationService.hsetAll(stockKey, Map.of("1", "5", "2", "3", "3", "100"));
+        List<String> keys = Arrays.asList(stockKey, retiredKey);
+
+        // 碎片分段1、2合并为新分段4、5
+        Assertions.assertEquals(List.of(5L, 3L), redisOperationService.evalScript(
+                RedisLuaScriptEnum.COMPACT_SEGMENTS, keys, Arrays.asList("4", "4", "1", "2")));
+        Assertions.assertEquals(Map.of("3", "100", "4", "4", "5", "4"), redisOperationService.hgetAll(stockKey));
+
+        // 退役分段的回滚转投到吸收它的新分段，退役分段不复活
+        Assertions.assertEquals(4L, redisOperationService.evalScript(
+                RedisLuaScriptEnum.ROLLBACK_SEGMENT_STOCK, keys, Arrays.asList("1", "2")));
+        Assertions.assertEquals("6", redisOperationService.hget(stockKey, "4"));
+        Assertions.assertNull(redisOperationService.hget(stockKey, "1"));
+
+        // 撤销合并：转投的数量随碎片分段恢复，新分段留下墓碑，之后的回滚不会让它复活
+        redisOperationService.evalScript(RedisLuaScriptEnum.RESTORE_COMPACTED_SEGMENTS, keys,
+                Arrays.asList("2", "4", "5", "1", "5", "2", "3"));
+        Assertions.assertEquals(Map.of("1", "7", "2", "3", "3", "100"), redisOperationService.hgetAll(stockKey));
+        Assertions.assertEquals(0L, redisOperationService.evalScript(
+                RedisLuaScriptEnum.ROLLBACK_SEGMENT_STOCK, keys, Arrays.asList("4", "1")));
+        Assertions.assertNull(redisOperationService.hget(stockKey, "4"));
+
+        // 恢复后的碎片分段正常回滚
+        Assertions.assertEquals(1L, redisOperationService.evalScript(
+                RedisLuaScriptEnum.ROLLBACK_SEGMENT_STOCK, keys, Arrays.asList("1", "1")));
+        Assertions.assertEquals("8", redisOperationService.hget(stockKey, "1"));
+    }
+
     @Test
     void rollbackStock() {
         //redisDistributedLock.rollbackStock("product_stock:1", 9);
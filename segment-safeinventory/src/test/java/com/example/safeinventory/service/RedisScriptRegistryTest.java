@@ -0,0 +1,96 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.common.RedisLuaScriptEnum;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import redis.clients.jedis.UnifiedJedis;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@SpringBootTest
+class RedisScriptRegistryTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisScriptRegistryTest.class);
+
+    private static final int WARMUP_ROUNDS = 1000;
+
+    private static final int ROUNDS = 10000;
+
+    private static final String STOCK_KEY = "benchmark:segments:stock";
+
+    @Autowired
+    RedisScriptRegistry redisScriptRegistry;
+
+    @Autowired
+    UnifiedJedis jedis;
+
+    @Test
+    void evalAfterScriptFlush() {
+        jedis.hset(STOCK_KEY, "1", "10");
+        jedis.scriptFlush();
+        // 脚本缓存被清空后应透明地重新加载
+        Object result = redisScriptRegistry.eval(RedisLuaScriptEnum.REDUCE_SEGMENT_STOCK,
+                Collections.singletonList(STOCK_KEY), Arrays.asList("1", "1"));
+        Assertions.assertEquals(1L, result);
+        jedis.del(STOCK_KEY);
+    }
+
+    /**
+     * 对比 EVAL 与 EVALSHA 的单次请求字节数与平均耗时
+     * 每个阶段开始前按该阶段的调用次数补足库存，计时的每一次调用都是真实扣减，不会落到分段不存在的分支
+     * 运行方式：mvn test -Dbenchmark=true -Dtest=RedisScriptRegistryTest#evalVersusEvalSha
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "benchmark", matches = "true")
+    void evalVersusEvalSha() {
+        RedisLuaScriptEnum script = RedisLuaScriptEnum.REDUCE_SEGMENT_STOCK;
+        List<String> keys = Collections.singletonList(STOCK_KEY);
+        List<String> args = Arrays.asList("1", "1");
+
+        // 预热连接池与脚本缓存
+        seed(WARMUP_ROUNDS * 2);
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            Assertions.assertEquals(1L, jedis.eval(script.getScript(), keys, args));
+            Assertions.assertEquals(1L, redisScriptRegistry.eval(script, keys, args));
+        }
+
+        seed(ROUNDS);
+        long evalStart = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            Assertions.assertEquals(1L, jedis.eval(script.getScript(), keys, args));
+        }
+        long evalCost = System.nanoTime() - evalStart;
+
+        seed(ROUNDS);
+        long evalShaStart = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            Assertions.assertEquals(1L, redisScriptRegistry.eval(script, keys, args));
+        }
+        long evalShaCost = System.nanoTime() - evalShaStart;
+
+        int evalBytes = script.getScript().getBytes(StandardCharsets.UTF_8).length;
+        int evalShaBytes = redisScriptRegistry.getSha(script).length();
+        logger.info("EVAL    : script payload {} bytes/call, avg {} us/call",
+                evalBytes, String.format("%.1f", evalCost / 1000.0 / ROUNDS));
+        logger.info("EVALSHA : script payload {} bytes/call, avg {} us/call",
+                evalShaBytes, String.format("%.1f", evalShaCost / 1000.0 / ROUNDS));
+
+        jedis.del(STOCK_KEY);
+    }
+
+    /**
+     * 分段库存设置为 calls，扣减到 0 时脚本删除字段，多留一个单位使最后一次调用仍然命中
+     */
+    private void seed(int calls) {
+        jedis.del(STOCK_KEY);
+        jedis.hset(STOCK_KEY, "1", String.valueOf(calls + 1));
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+
+@SpringBootTest(properties = "redis.stockShards=4")
+class RedisShardedStockTest {
+
+    private static final String PREFIX = "product_stock:test:";
+
+    private static final int PRODUCT_ID = 900002;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Test
+    void stockShardKey() {
+        Assertions.assertEquals(PREFIX + "{900002:1}", redisOperationService.stockShardKeyOfSegment(PREFIX, PRODUCT_ID, 5));
+        Assertions.assertEquals(PREFIX + "{900002:0}", redisOperationService.stockShardKeyOfSegment(PREFIX, PRODUCT_ID, 8));
+    }
+
+    @Test
+    void reduceAnyShardedSegmentStock() {
+        for (int shard = 0; shard < 4; shard++) {
+            redisOperationService.del(redisOperationService.stockShardKey(PREFIX, PRODUCT_ID, shard));
+        }
+        // 分段1、2分别在分片1、2上
+        redisOperationService.hsetAll(redisOperationService.stockShardKeyOfSegment(PREFIX, PRODUCT_ID, 1), Map.of("1", "1"));
+        redisOperationService.hsetAll(redisOperationService.stockShardKeyOfSegment(PREFIX, PRODUCT_ID, 2), Map.of("2", "3"));
+
+        // 无论从哪个分片开始，只有分段2能满足扣减3
+        Assertions.assertEquals(2, redisOperationService.reduceAnyShardedSegmentStock(PREFIX, PRODUCT_ID, 3));
+        Assertions.assertEquals(-1, redisOperationService.reduceAnyShardedSegmentStock(PREFIX, PRODUCT_ID, 2));
+        Assertions.assertEquals(1, redisOperationService.reduceAnyShardedSegmentStock(PREFIX, PRODUCT_ID, 1));
+        Assertions.assertEquals(-2, redisOperationService.reduceAnyShardedSegmentStock(PREFIX, PRODUCT_ID, 1));
+    }
+}
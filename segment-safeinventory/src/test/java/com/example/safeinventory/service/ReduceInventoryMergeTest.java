@@ -0,0 +1,112 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.strategy.BestMatchSegmentStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+
+/**
+ * 扣减事务中触发的合并：合并在独立事务中写库，不能等待同一线程扣减事务持有的分段行锁
+ * 缓存和索引都是冷的，扣减先从数据库加载分段，再触发合并
+ */
+@SpringBootTest
+class ReduceInventoryMergeTest {
+
+    /**
+     * 请求量大于分段大小，走大额重分配
+     */
+    private static final int LARGE_QUANTITY_PRODUCT_ID = 9402;
+
+    /**
+     * 请求量不超过分段大小，走在线合并
+     */
+    private static final int COMPACTION_PRODUCT_ID = 9403;
+
+    /**
+     * 远小于 MySQL 默认的锁等待超时，合并等待外层事务的行锁时会超时失败
+     */
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    RandomInventorySegmentService randomInventorySegmentService;
+
+    @Autowired
+    BestMatchSegmentStrategy bestMatchSegmentStrategy;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanUp();
+    }
+
+    @Test
+    void largeQuantityRedistributeInsideReduce() {
+        // 三个碎片分段合计 30，单个分段都不够 25
+        insertSegments(LARGE_QUANTITY_PRODUCT_ID, 10, 10, 10);
+
+        Assertions.assertTrue(Assertions.assertTimeoutPreemptively(TIMEOUT,
+                () -> randomInventorySegmentService.reduceInventory(LARGE_QUANTITY_PRODUCT_ID, 25)));
+
+        Assertions.assertEquals(0, validSegmentCount(LARGE_QUANTITY_PRODUCT_ID, "segment_id IN (1, 2, 3)"));
+        Assertions.assertEquals(5, availableStock(LARGE_QUANTITY_PRODUCT_ID));
+    }
+
+    @Test
+    void onlineCompactionInsideReduce() {
+        // 三个碎片分段各剩 1，单个分段都不够 2
+        insertSegments(COMPACTION_PRODUCT_ID, 1, 1, 1);
+
+        Assertions.assertTrue(Assertions.assertTimeoutPreemptively(TIMEOUT,
+                () -> randomInventorySegmentService.reduceInventory(COMPACTION_PRODUCT_ID, 2)));
+
+        Assertions.assertEquals(0, validSegmentCount(COMPACTION_PRODUCT_ID, "segment_id IN (1, 2, 3)"));
+        Assertions.assertEquals(1, availableStock(COMPACTION_PRODUCT_ID));
+    }
+
+    private void insertSegments(int productId, int... availableStocks) {
+        jdbcTemplate.update("INSERT INTO inventory (product_id, total_stock) VALUES (?, 300)", productId);
+        for (int i = 0; i < availableStocks.length; i++) {
+            jdbcTemplate.update("INSERT INTO inventory_segment (product_id, segment_id, total_stock, available_stock, status) " +
+                    "VALUES (?, ?, 100, ?, 1)", productId, i + 1, availableStocks[i]);
+        }
+    }
+
+    private int validSegmentCount(int productId, String condition) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM inventory_segment " +
+                "WHERE product_id = ? AND status = 1 AND " + condition, Integer.class, productId);
+    }
+
+    private int availableStock(int productId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(available_stock), 0) FROM inventory_segment WHERE product_id = ? AND status = 1",
+                Integer.class, productId);
+    }
+
+    private void cleanUp() {
+        for (int productId : new int[]{LARGE_QUANTITY_PRODUCT_ID, COMPACTION_PRODUCT_ID}) {
+            jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", productId);
+            jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", productId);
+            redisOperationService.del(RedisOperationService.productKey("inventory:segments:stock:", productId));
+            redisOperationService.del(RedisOperationService.productKey("inventory:segments:retired:", productId));
+            redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", productId));
+            redisOperationService.del(RedisOperationService.productKey("merge:cooldown:", productId));
+            bestMatchSegmentStrategy.invalidate(productId);
+        }
+    }
+}
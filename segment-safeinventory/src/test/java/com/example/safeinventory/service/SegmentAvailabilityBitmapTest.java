@@ -0,0 +1,122 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+@SpringBootTest
+class SegmentAvailabilityBitmapTest {
+
+    @Autowired
+    SegmentAvailabilityBitmap segmentAvailabilityBitmap;
+
+    @Autowired
+    TransactionTemplate transactionTemplate;
+
+    @Autowired
+    InventorySegmentService inventorySegmentService;
+
+    @Autowired
+    ActiveSegmentInfoCache activeSegmentInfoCache;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Test
+    void nextAvailable() {
+        int productId = 9101;
+        segmentAvailabilityBitmap.reset(productId, List.of(3, 5, 20));
+
+        Assertions.assertEquals(3, segmentAvailabilityBitmap.nextAvailable(productId, 1));
+        // 起点与目标在同一字节内
+        Assertions.assertEquals(5, segmentAvailabilityBitmap.nextAvailable(productId, 4));
+        // 跨字节由 BITPOS 查找
+        Assertions.assertEquals(20, segmentAvailabilityBitmap.nextAvailable(productId, 6));
+
+        segmentAvailabilityBitmap.markEmpty(productId, 20);
+        Assertions.assertEquals(SegmentAvailabilityBitmap.NO_AVAILABLE_SEGMENT,
+                segmentAvailabilityBitmap.nextAvailable(productId, 6));
+        Assertions.assertEquals(SegmentAvailabilityBitmap.BITMAP_MISSING,
+                segmentAvailabilityBitmap.nextAvailable(9102, 1));
+    }
+
+    @Test
+    void markEmptyWaitsForCommit() {
+        int productId = 9103;
+        segmentAvailabilityBitmap.reset(productId, List.of(1, 2));
+
+        // 事务回滚时分段库存恢复，位图不清位
+        transactionTemplate.executeWithoutResult(status -> {
+            segmentAvailabilityBitmap.markEmpty(productId, 1);
+            Assertions.assertEquals(1, segmentAvailabilityBitmap.nextAvailable(productId, 1));
+            status.setRollbackOnly();
+        });
+        Assertions.assertEquals(1, segmentAvailabilityBitmap.nextAvailable(productId, 1));
+
+        transactionTemplate.executeWithoutResult(status -> segmentAvailabilityBitmap.markEmpty(productId, 1));
+        Assertions.assertEquals(2, segmentAvailabilityBitmap.nextAvailable(productId, 1));
+    }
+
+    @Test
+    void singleBitDoesNotCreateBitmap() {
+        int productId = 9104;
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", productId));
+
+        segmentAvailabilityBitmap.markEmpty(productId, 1);
+        segmentAvailabilityBitmap.markAvailable(productId, 2);
+
+        Assertions.assertEquals(SegmentAvailabilityBitmap.BITMAP_MISSING,
+                segmentAvailabilityBitmap.nextAvailable(productId, 1));
+    }
+
+    /**
+     * 位图过期后用完一个分段，下一次换段要回到数据库查找，不能把还有库存的商品标记为售罄
+     */
+    @Test
+    void expiredBitmapDoesNotSellOut() {
+        int productId = 9105;
+        cleanUp(productId);
+        try {
+            jdbcTemplate.update("INSERT INTO inventory (product_id, total_stock) VALUES (?, 12)", productId);
+            int[] availableStocks = {1, 1, 10};
+            for (int i = 0; i < availableStocks.length; i++) {
+                jdbcTemplate.update("INSERT INTO inventory_segment (product_id, segment_id, total_stock, available_stock, status) " +
+                        "VALUES (?, ?, ?, ?, 1)", productId, i + 1, availableStocks[i], availableStocks[i]);
+            }
+
+            // 用完分段 1，指针移到分段 2，位图仍不存在
+            Assertions.assertTrue(inventorySegmentService.reduceFixedInventory(productId, 1));
+            Assertions.assertEquals(SegmentAvailabilityBitmap.BITMAP_MISSING,
+                    segmentAvailabilityBitmap.nextAvailable(productId, 1));
+
+            // 分段 2 不够扣减，换段时从数据库找到分段 3
+            Assertions.assertTrue(inventorySegmentService.reduceFixedInventory(productId, 2));
+            Assertions.assertFalse(soldOutRegistry.isSoldOut(productId));
+            Assertions.assertEquals(8, jdbcTemplate.queryForObject(
+                    "SELECT available_stock FROM inventory_segment WHERE product_id = ? AND segment_id = 3",
+                    Integer.class, productId));
+        } finally {
+            cleanUp(productId);
+        }
+    }
+
+    private void cleanUp(int productId) {
+        jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", productId);
+        jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", productId);
+        redisOperationService.del(RedisOperationService.productKey("activeSegmentInfo:", productId));
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", productId));
+        activeSegmentInfoCache.invalidate(productId);
+        soldOutRegistry.rearm(productId);
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.safeinventory.service;
+
+import com.example.safeinventory.model.InventoryLeaseModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SpringBootTest
+class SegmentLeaseManagerTest {
+
+    private static final int PRODUCT_ID = 1002;
+
+    private static final int TOTAL_STOCK = 1000;
+
+    private static final String SEGMENT_INFO_KEY = RedisOperationService.productKey("activeSegmentInfo:", PRODUCT_ID);
+
+    @Autowired
+    SegmentLeaseManager segmentLeaseManager;
+
+    @Autowired
+    InventorySegmentService inventorySegmentService;
+
+    @Autowired
+    InventoryLeaseService inventoryLeaseService;
+
+    @Autowired
+    ActiveSegmentInfoCache activeSegmentInfoCache;
+
+    @Autowired
+    InventorySegmentBulkLoader inventorySegmentBulkLoader;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+        inventorySegmentBulkLoader.load(PRODUCT_ID, TOTAL_STOCK);
+    }
+
+    @AfterEach
+    void tearDown() {
+        // 丢弃本地租约，数据库中的分段和租约随后一并删除
+        Map<?, ?> leases = (Map<?, ?>) ReflectionTestUtils.getField(segmentLeaseManager, "leases");
+        leases.remove(PRODUCT_ID);
+        cleanUp();
+    }
+
+    @Test
+    void reduceInventory() throws InterruptedException {
+        // 1600 次扣减恰好成功 1000 次，不超卖也不少卖
+        Assertions.assertEquals(TOTAL_STOCK, reduceConcurrently(16, 100));
+        Assertions.assertEquals(0, segmentLeaseManager.getLeasedStock(PRODUCT_ID));
+        Assertions.assertEquals(0, availableStock());
+    }
+
+    @Test
+    void leasedAndAvailableStockAddUp() throws InterruptedException {
+        int success = reduceConcurrently(8, 50);
+
+        Assertions.assertEquals(400, success);
+        // 已卖出、本节点租约剩余和分段可用库存合计等于初始库存
+        Assertions.assertEquals(TOTAL_STOCK,
+                success + segmentLeaseManager.getLeasedStock(PRODUCT_ID) + availableStock());
+    }
+
+    @Test
+    void segmentServiceReducesFromLeaseWhenEnabled() {
+        ReflectionTestUtils.setField(segmentLeaseManager, "enabled", true);
+        try {
+            Assertions.assertTrue(inventorySegmentService.reduceFixedInventory(PRODUCT_ID, 1));
+        } finally {
+            ReflectionTestUtils.setField(segmentLeaseManager, "enabled", false);
+        }
+
+        // 扣减落在新租到的一批库存上
+        Assertions.assertEquals(99, segmentLeaseManager.getLeasedStock(PRODUCT_ID));
+        Assertions.assertEquals(TOTAL_STOCK - 100, availableStock());
+    }
+
+    @Test
+    void releaseToInvalidSegmentReturnsToLiveSegment() {
+        InventoryLeaseModel lease = inventoryLeaseService.claim("test-node", PRODUCT_ID, 1, 100, 30000);
+        Assertions.assertNotNull(lease);
+        // 租约所在分段被合并作废，分段指针已耗尽
+        jdbcTemplate.update("UPDATE inventory_segment SET status = 0 WHERE product_id = ? AND segment_id = ?",
+                PRODUCT_ID, lease.getSegmentId());
+        int liveSegmentId = jdbcTemplate.queryForObject(
+                "SELECT MAX(segment_id) FROM inventory_segment WHERE product_id = ? AND status = 1",
+                Integer.class, PRODUCT_ID);
+        int liveStock = segmentStock(liveSegmentId);
+        int segmentCount = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID);
+        redisOperationService.hsetAll(SEGMENT_INFO_KEY,
+                Map.of("pointer", "-1", "count", String.valueOf(liveSegmentId), "version", "1"));
+
+        inventoryLeaseService.release(lease.getLeaseId(), PRODUCT_ID, lease.getSegmentId(), 60);
+
+        // 归还到最后一个有效分段，不新建分段，指针回退到该分段
+        Assertions.assertEquals(liveStock + 60, segmentStock(liveSegmentId));
+        Assertions.assertEquals(segmentCount, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ?", Integer.class, PRODUCT_ID));
+        Map<String, String> segmentInfo = redisOperationService.hgetAll(SEGMENT_INFO_KEY);
+        Assertions.assertEquals(String.valueOf(liveSegmentId), segmentInfo.get("pointer"));
+        Assertions.assertEquals(String.valueOf(liveSegmentId), segmentInfo.get("count"));
+    }
+
+    private int segmentStock(int segmentId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT available_stock FROM inventory_segment WHERE product_id = ? AND segment_id = ?",
+                Integer.class, PRODUCT_ID, segmentId);
+    }
+
+    private int reduceConcurrently(int threads, int ordersPerThread) throws InterruptedException {
+        AtomicInteger success = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < ordersPerThread; j++) {
+                    if (segmentLeaseManager.reduceInventory(PRODUCT_ID, 1)) {
+                        success.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        return success.get();
+    }
+
+    private int availableStock() {
+        return jdbcTemplate.queryForObject(
+                "SELECT COALESCE(SUM(available_stock), 0) FROM inventory_segment WHERE product_id = ? AND status = 1",
+                Integer.class, PRODUCT_ID);
+    }
+
+    private void cleanUp() {
+        jdbcTemplate.update("DELETE FROM inventory_lease WHERE product_id = ?", PRODUCT_ID);
+        jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", PRODUCT_ID);
+        jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", PRODUCT_ID);
+        // 进度记录为已完成时 load 直接返回，必须一起删除
+        redisOperationService.del(RedisOperationService.productKey("inventory:bulkload:", PRODUCT_ID));
+        redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", PRODUCT_ID));
+        redisOperationService.del(SEGMENT_INFO_KEY);
+        activeSegmentInfoCache.invalidate(PRODUCT_ID);
+        for (int shard = 0; shard < redisOperationService.getStockShards(); shard++) {
+            redisOperationService.del(redisOperationService.stockShardKey("product_stock:", PRODUCT_ID, shard));
+        }
+    }
+}
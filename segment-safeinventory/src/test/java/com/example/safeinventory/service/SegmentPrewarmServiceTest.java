@@ -0,0 +1,29 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+class SegmentPrewarmServiceTest {
+
+    @Autowired
+    SegmentPrewarmService segmentPrewarmService;
+
+    @Autowired
+    ApplicationAvailability applicationAvailability;
+
+    @Test
+    void readinessFollowsPrewarm() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!segmentPrewarmService.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+
+        Assertions.assertTrue(segmentPrewarmService.isReady());
+        Assertions.assertEquals(ReadinessState.ACCEPTING_TRAFFIC, applicationAvailability.getReadinessState());
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.safeinventory.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@SpringBootTest
+class SoldOutRegistryTest {
+
+    private static final int PRODUCT_ID = 900001;
+
+    @Autowired
+    SoldOutRegistry soldOutRegistry;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Test
+    void markAndRearm() {
+        soldOutRegistry.rearm(PRODUCT_ID);
+        Assertions.assertFalse(soldOutRegistry.isSoldOut(PRODUCT_ID));
+
+        soldOutRegistry.markSoldOut(PRODUCT_ID);
+        Assertions.assertTrue(soldOutRegistry.isSoldOut(PRODUCT_ID));
+
+        soldOutRegistry.rearm(PRODUCT_ID);
+        Assertions.assertFalse(soldOutRegistry.isSoldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void reloadDropsExpiredMarks() {
+        soldOutRegistry.rearm(PRODUCT_ID);
+        // 漏掉 rearm 的过期标记
+        redisOperationService.zadd(SoldOutRegistry.SOLD_OUT_KEY, System.currentTimeMillis() - 1,
+                String.valueOf(PRODUCT_ID));
+
+        ReflectionTestUtils.invokeMethod(soldOutRegistry, "reload");
+
+        Assertions.assertFalse(soldOutRegistry.isSoldOut(PRODUCT_ID));
+        Assertions.assertEquals(0, redisOperationService.zrem(SoldOutRegistry.SOLD_OUT_KEY, String.valueOf(PRODUCT_ID)));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.safeinventory.strategy;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AdaptiveSegmentSizingStrategyTest {
+
+    AdaptiveSegmentSizingStrategy strategy;
+
+    @BeforeEach
+    void setUp() {
+        strategy = new AdaptiveSegmentSizingStrategy();
+        ReflectionTestUtils.setField(strategy, "minSegmentSize", 4);
+        ReflectionTestUtils.setField(strategy, "maxSegments", 256);
+        ReflectionTestUtils.setField(strategy, "expectedConcurrency", 16);
+        ReflectionTestUtils.setField(strategy, "typicalOrderQuantity", 1);
+        ReflectionTestUtils.setField(strategy, "ordersPerSegment", 4);
+        ReflectionTestUtils.setField(strategy, "adjustMinSamples", 100);
+    }
+
+    @Test
+    void segmentCountIsBounded() {
+        // 100 万库存按 16 个通道分段，而不是 25 万个固定 4 件的分段
+        int size = strategy.segmentSize(1, 1_000_000);
+        Assertions.assertEquals(62500, size);
+
+        // 小库存不低于最小分段库存
+        Assertions.assertEquals(4, strategy.segmentSize(2, 20));
+    }
+
+    @Test
+    void contentionDoublesLanes() {
+        for (int i = 0; i < 100; i++) {
+            strategy.recordDeduction(3, 1, false, i % 2 == 0);
+        }
+        Assertions.assertEquals(31250, strategy.segmentSize(3, 1_000_000));
+    }
+
+    @Test
+    void fragmentationHalvesLanes() {
+        for (int i = 0; i < 100; i++) {
+            strategy.recordDeduction(4, 1, i % 2 == 0, false);
+        }
+        Assertions.assertEquals(125000, strategy.segmentSize(4, 1_000_000));
+        Assertions.assertEquals(125000, strategy.currentSegmentSize(4));
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.safeinventory.strategy;
+
+import com.example.safeinventory.model.InventorySegmentModel;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class IndexedSegmentSelectorTest {
+
+    static InventorySegmentModel segment(int segmentId, int availableStock) {
+        InventorySegmentModel segment = new InventorySegmentModel();
+        segment.setProductId(1);
+        segment.setSegmentId(segmentId);
+        segment.setAvailableStock(availableStock);
+        return segment;
+    }
+
+    @Test
+    void selectExactThenClosest() {
+        IndexedSegmentSelector selector = new IndexedSegmentSelector(
+                List.of(segment(1, 10), segment(2, 3), segment(3, 5), segment(4, 0)));
+
+        Assertions.assertEquals(2, selector.select(3));
+        Assertions.assertEquals(3, selector.select(4));
+        Assertions.assertEquals(1, selector.select(6));
+        Assertions.assertEquals(IndexedSegmentSelector.NOT_FOUND, selector.select(11));
+        Assertions.assertEquals(1, selector.selectLargest());
+        Assertions.assertEquals(18, selector.getTotalAvailable());
+    }
+
+    @Test
+    void deductMovesSegmentBetweenBuckets() {
+        IndexedSegmentSelector selector = new IndexedSegmentSelector(
+                List.of(segment(1, 10), segment(2, 3)));
+
+        selector.deduct(1, 8);
+        Assertions.assertEquals(1, selector.select(2));
+        Assertions.assertEquals(2, selector.select(3));
+
+        selector.deduct(2, 3);
+        Assertions.assertEquals(IndexedSegmentSelector.NOT_FOUND, selector.select(3));
+        Assertions.assertEquals(2, selector.getTotalAvailable());
+
+        selector.update(2, 7);
+        Assertions.assertEquals(2, selector.select(3));
+    }
+
+    @Test
+    void matchesListStrategy() {
+        // 跨多个位图字的库存值，结果与逐个遍历的最佳匹配一致
+        List<InventorySegmentModel> segments = new ArrayList<>();
+        for (int i = 1; i <= 500; i++) {
+            segments.add(segment(i, (i * 7919) % 10000));
+        }
+        IndexedSegmentSelector selector = new IndexedSegmentSelector(segments);
+        BestMatchSegmentStrategy strategy = new BestMatchSegmentStrategy();
+
+        for (int quantity = 1; quantity <= 10000; quantity += 37) {
+            InventorySegmentModel expected = strategy.selectSegment(segments, quantity);
+            int selected = selector.select(quantity);
+            if (expected == null) {
+                Assertions.assertEquals(IndexedSegmentSelector.NOT_FOUND, selected);
+            } else {
+                Assertions.assertEquals(expected.getAvailableStock(),
+                        segments.get(selected - 1).getAvailableStock());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.safeinventory.strategy;
+
+import com.example.safeinventory.model.InventorySegmentModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * 分段选择策略的耗时对比：遍历列表的最佳匹配、顺序选择与分段索引
+ * 运行方式：mvn test -Dbenchmark=true -Dbenchmark.segments=5000 -Dtest=SegmentSelectionStrategyBenchmarkTest
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SegmentSelectionStrategyBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentSelectionStrategyBenchmarkTest.class);
+
+    private static final int WARMUP_ROUNDS = 20_000;
+
+    private static final int MEASURE_ROUNDS = 100_000;
+
+    @Test
+    void compare() {
+        int segmentCount = Integer.getInteger("benchmark.segments", 5000);
+        List<InventorySegmentModel> segments = new ArrayList<>(segmentCount);
+        for (int i = 1; i <= segmentCount; i++) {
+            segments.add(IndexedSegmentSelectorTest.segment(i, ThreadLocalRandom.current().nextInt(1, 64)));
+        }
+
+        BestMatchSegmentStrategy bestMatch = new BestMatchSegmentStrategy();
+        SequentialSegmentStrategy sequential = new SequentialSegmentStrategy();
+        IndexedSegmentSelector selector = new IndexedSegmentSelector(segments);
+
+        run("bestMatch", quantity -> {
+            InventorySegmentModel segment = bestMatch.selectSegment(segments, quantity);
+            return segment == null ? -1 : segment.getSegmentId();
+        });
+        run("sequential", quantity -> {
+            InventorySegmentModel segment = sequential.selectSegment(segments, quantity);
+            return segment == null ? -1 : segment.getSegmentId();
+        });
+        run("indexed", selector::select);
+    }
+
+    private void run(String name, IntUnaryOperator select) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += select.applyAsInt((i & 15) + 1);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURE_ROUNDS; i++) {
+            sink += select.applyAsInt((i & 15) + 1);
+        }
+        long cost = System.nanoTime() - start;
+        logger.info("{}: {}ns/op, sink:{}", name, cost / MEASURE_ROUNDS, sink);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.safeinventory.task;
+
+import com.example.safeinventory.service.LockLeaseManager;
+import com.example.safeinventory.service.LockLeaseManager.LockLease;
+import com.example.safeinventory.service.RedisOperationService;
+import com.example.safeinventory.service.SegmentChangeTracker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@SpringBootTest
+class InventorySegmentMergeTaskTest {
+
+    /**
+     * 三个分段中两个使用率低于一半，需要合并
+     */
+    private static final int FRAGMENTED_PRODUCT_ID = 9201;
+
+    /**
+     * 没有分段，不需要合并
+     */
+    private static final int EMPTY_PRODUCT_ID = 9202;
+
+    /**
+     * 检查期间不断重新写入脏集合，模拟持续有扣减的商品
+     */
+    private static final int BUSY_PRODUCT_ID = 9203;
+
+    @Autowired
+    InventorySegmentMergeTask inventorySegmentMergeTask;
+
+    @Autowired
+    SegmentChangeTracker segmentChangeTracker;
+
+    @Autowired
+    RedisOperationService redisOperationService;
+
+    @Autowired
+    LockLeaseManager lockLeaseManager;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        cleanUp();
+        jdbcTemplate.update("INSERT INTO inventory (product_id, total_stock) VALUES (?, 300)", FRAGMENTED_PRODUCT_ID);
+        int[] availableStocks = {10, 10, 100};
+        for (int i = 0; i < availableStocks.length; i++) {
+            jdbcTemplate.update("INSERT INTO inventory_segment (product_id, segment_id, total_stock, available_stock, status) " +
+                    "VALUES (?, ?, 100, ?, 1)", FRAGMENTED_PRODUCT_ID, i + 1, availableStocks[i]);
+            redisOperationService.hset(RedisOperationService.productKey("inventory:segments:stock:", FRAGMENTED_PRODUCT_ID),
+                    String.valueOf(i + 1), String.valueOf(availableStocks[i]));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanUp();
+    }
+
+    @Test
+    void checkAndMergeSegments() {
+        segmentChangeTracker.markDirty(FRAGMENTED_PRODUCT_ID);
+        segmentChangeTracker.markDirty(EMPTY_PRODUCT_ID);
+        inventorySegmentMergeTask.checkAndMergeSegments();
+
+        // 合并成功的商品进入冷却期，两个商品都从脏集合中移除
+        Assertions.assertEquals(Set.of(), pollOwnProducts());
+        Assertions.assertNotNull(redisOperationService.get(RedisOperationService.productKey("merge:cooldown:", FRAGMENTED_PRODUCT_ID)));
+        // 碎片分段作废，库存转入新分段
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM inventory_segment WHERE product_id = ? AND status = 1 AND segment_id IN (1, 2)",
+                Integer.class, FRAGMENTED_PRODUCT_ID));
+        Assertions.assertEquals(120, jdbcTemplate.queryForObject(
+                "SELECT SUM(available_stock) FROM inventory_segment WHERE product_id = ? AND status = 1",
+                Integer.class, FRAGMENTED_PRODUCT_ID));
+    }
+
+    @Test
+    void skippedMergeDoesNotStartCooldown() {
+        // 其他实例持有合并锁，本轮合并被跳过
+        LockLease lease = lockLeaseManager.acquire("merge:lock:" + FRAGMENTED_PRODUCT_ID);
+        Assertions.assertNotNull(lease);
+        try {
+            segmentChangeTracker.markDirty(FRAGMENTED_PRODUCT_ID);
+            segmentChangeTracker.markDirty(EMPTY_PRODUCT_ID);
+            inventorySegmentMergeTask.checkAndMergeSegments();
+        } finally {
+            lockLeaseManager.release(lease);
+        }
+
+        Assertions.assertEquals(Set.of(FRAGMENTED_PRODUCT_ID), pollOwnProducts());
+        Assertions.assertNull(redisOperationService.get(RedisOperationService.productKey("merge:cooldown:", FRAGMENTED_PRODUCT_ID)));
+
+        // 锁释放后下一轮正常合并
+        segmentChangeTracker.markDirty(FRAGMENTED_PRODUCT_ID);
+        inventorySegmentMergeTask.checkAndMergeSegments();
+        Assertions.assertEquals(Set.of(), pollOwnProducts());
+        Assertions.assertNotNull(redisOperationService.get(RedisOperationService.productKey("merge:cooldown:", FRAGMENTED_PRODUCT_ID)));
+    }
+
+    @Test
+    void productsDirtiedDuringRunWaitForNextRun() throws InterruptedException {
+        Object batchSize = ReflectionTestUtils.getField(inventorySegmentMergeTask, "batchSize");
+        ReflectionTestUtils.setField(inventorySegmentMergeTask, "batchSize", 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(() -> {
+            while (running.get()) {
+                redisOperationService.sadd(SegmentChangeTracker.DIRTY_PRODUCTS_KEY, String.valueOf(BUSY_PRODUCT_ID));
+            }
+        });
+        try {
+            segmentChangeTracker.markDirty(EMPTY_PRODUCT_ID);
+            writer.start();
+            // 每轮只处理开始时的商品数，不会被持续写入的商品拖住
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> inventorySegmentMergeTask.checkAndMergeSegments());
+        } finally {
+            running.set(false);
+            writer.join();
+            ReflectionTestUtils.setField(inventorySegmentMergeTask, "batchSize", batchSize);
+        }
+
+        Assertions.assertTrue(pollOwnProducts().contains(BUSY_PRODUCT_ID));
+    }
+
+    /**
+     * 脏集合中还可能有其他测试留下的商品，只比较本测试的商品
+     */
+    private Set<Integer> pollOwnProducts() {
+        Set<Integer> productIds = new HashSet<>(segmentChangeTracker.poll(10000));
+        productIds.retainAll(Set.of(FRAGMENTED_PRODUCT_ID, EMPTY_PRODUCT_ID, BUSY_PRODUCT_ID));
+        return productIds;
+    }
+
+    private void cleanUp() {
+        for (int productId : new int[]{FRAGMENTED_PRODUCT_ID, EMPTY_PRODUCT_ID}) {
+            jdbcTemplate.update("DELETE FROM inventory_segment WHERE product_id = ?", productId);
+            jdbcTemplate.update("DELETE FROM inventory WHERE product_id = ?", productId);
+            redisOperationService.del(RedisOperationService.productKey("merge:cooldown:", productId));
+            redisOperationService.del(RedisOperationService.productKey("inventory:segments:stock:", productId));
+            redisOperationService.del(RedisOperationService.productKey("inventory:segments:retired:", productId));
+            redisOperationService.del(RedisOperationService.productKey("segmentAvailable:", productId));
+        }
+    }
+}